@@ -0,0 +1,134 @@
+package com.speedo;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+/**
+ * Process wide cache of gauge artwork scaled to the size it's drawn at.  Views ask for a
+ * bitmap when their size changes and keep it until the next change, so drawing never scales
+ * or allocates, and views of the same size share one copy.
+ *
+ * Images are decoded at the smallest power of two subsampling that still covers the target
+ * size, then scaled to it exactly.  Entries are evicted least recently used first, and all at
+ * once when the system asks the app to trim memory; views drawing an evicted bitmap keep it.
+ */
+public class BitmapCache {
+
+    // share of the heap the cache may use
+    private static final int HEAP_FRACTION = 8;
+
+    private static BitmapCache instance;
+
+    private final Resources resources;
+    private final LruCache<String, Bitmap> cache;
+
+    private BitmapCache(Context context) {
+        resources = context.getResources();
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Return the cache, creating it on first use.
+     *
+     * @param context - any context of the app.
+     * @return - the cache.
+     */
+    public static synchronized BitmapCache get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new BitmapCache(app);
+            app.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                        instance.cache.evictAll();
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                    instance.cache.evictAll();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * Return an image resource scaled to a size.
+     *
+     * @param resourceId - drawable resource.
+     * @param width - width in pixels.
+     * @param height - height in pixels.
+     * @return - the scaled image, shared, must not be modified or recycled.
+     */
+    public Bitmap getBitmap(int resourceId, int width, int height) {
+        return getBitmap(resourceId, false, width, height);
+    }
+
+    /**
+     * Return the top half of an image resource scaled to a size.
+     *
+     * @param resourceId - drawable resource.
+     * @param width - width in pixels.
+     * @param height - height in pixels of the half.
+     * @return - the scaled half image, shared, must not be modified or recycled.
+     */
+    public Bitmap getTopHalf(int resourceId, int width, int height) {
+        return getBitmap(resourceId, true, width, height);
+    }
+
+    private Bitmap getBitmap(int resourceId, boolean topHalf, int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as bitmap size.");
+
+        String key = resourceId + (topHalf ? "/top/" : "/") + width + "x" + height;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            bitmap = decode(resourceId, topHalf, width, height);
+            cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(int resourceId, boolean topHalf, int width, int height) {
+        // the pixels as stored, not scaled to the screen density, since they're scaled anyway
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resourceId, options);
+        int sourceWidth = options.outWidth;
+        int sourceHeight = topHalf ? options.outHeight / 2 : options.outHeight;
+
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+
+        if (topHalf) {
+            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight() / 2);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        }
+        return bitmap;
+    }
+}
@@ -14,6 +14,9 @@ import android.view.View;
  */
 public class CapacityGauge extends View {
 
+    // gap between cells
+    private static final int CELL_PADDING = 4;
+
     // capacity percentage [0-100]
     private int capacity;
 
@@ -23,6 +26,10 @@ public class CapacityGauge extends View {
     // paint to use for unavailable ccapacity
     private Paint emptyColor;
 
+    // cell geometry, computed when the size changes
+    private float cellWidth;
+    private int cellHeight;
+
     public CapacityGauge(Context context) {
         super(context);
         init();
@@ -88,6 +95,13 @@ public class CapacityGauge extends View {
     	return capacity;
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        cellWidth = w - getPaddingLeft() - getPaddingRight();
+        cellHeight = ((h - getPaddingTop() - getPaddingBottom()) / 10) - CELL_PADDING;
+    }
+
     /**
      * Draw view.  Draws available capacity cells first, then unavailable.
      *
@@ -97,15 +111,6 @@ public class CapacityGauge extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        // Clear canvas
-        canvas.drawColor(Color.TRANSPARENT);
-
-        final int canvasWidth = canvas.getWidth() - getPaddingLeft() - getPaddingRight();
-        final int canvasHeight = canvas.getHeight() - getPaddingTop() - getPaddingBottom();
-
-        int cellPadding = 4;
-        int cellHeight = (canvasHeight / 10) - cellPadding;
-
         // number of complete available cells
         int numFullCells = capacity / 10;
 
@@ -113,17 +118,17 @@ public class CapacityGauge extends View {
         int cellNum;
         for (cellNum=9; cellNum>=(10-numFullCells); cellNum--) {
         	canvas.drawRect(0.0f,
-        					0.0f + cellNum*(cellHeight+cellPadding),
-        					(float)canvasWidth,
-        					(float)cellNum*(cellHeight+cellPadding) + cellHeight,
+        					0.0f + cellNum*(cellHeight+CELL_PADDING),
+        					cellWidth,
+        					(float)cellNum*(cellHeight+CELL_PADDING) + cellHeight,
         					cellColors[cellNum]);
         }
         // draw all unavailable capacity cells (including partial cell if applicable)
         for (; cellNum>=0; cellNum--) {
         	canvas.drawRect(0.0f,
-        					0.0f + cellNum*(cellHeight+cellPadding),
-        					(float)canvasWidth,
-        					(float)cellNum*(cellHeight+cellPadding) + cellHeight,
+        					0.0f + cellNum*(cellHeight+CELL_PADDING),
+        					cellWidth,
+        					(float)cellNum*(cellHeight+CELL_PADDING) + cellHeight,
         					emptyColor);
         }
         
@@ -133,9 +138,9 @@ public class CapacityGauge extends View {
         if (cellNum >= 0) {
         	int cellLevel = capacity - numFullCells*10;
         	canvas.drawRect(0.0f,
-        					(cellHeight*(10-cellLevel)/10) + cellNum*(cellHeight+cellPadding),
-        					(float)canvasWidth,
-        					(float)cellNum*(cellHeight+cellPadding) + cellHeight,
+        					(cellHeight*(10-cellLevel)/10) + cellNum*(cellHeight+CELL_PADDING),
+        					cellWidth,
+        					(float)cellNum*(cellHeight+CELL_PADDING) + cellHeight,
         					cellColors[cellNum]);
         }
     }
@@ -0,0 +1,94 @@
+package com.speedo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Passes the relay stream through unchanged while copying it to a capture file, so a drive can
+ * be replayed later with ReplayTelemetrySource.
+ *
+ * Capture layout:
+ *
+ *     header:  magic (int), version (int)
+ *     chunks:  time since capture start in ns (long), length (int), bytes as received
+ *
+ * Each chunk is what one read returned, timestamped when the read returned.
+ */
+public class CaptureInputStream extends FilterInputStream {
+
+    public static final int MAGIC = 0x534c4352;
+    public static final int VERSION = 1;
+
+    // longest chunk written, reads are split if larger
+    public static final int MAX_CHUNK_LENGTH = 64 * 1024;
+
+    private final DataOutputStream capture;
+    private final long startNanos;
+
+    /**
+     * Constructor.  Writes the capture header.
+     *
+     * @param in - stream received from the relay.
+     * @param capture - where to write the capture, closed with this stream.
+     * @throws IOException - if the header can't be written.
+     */
+    public CaptureInputStream(InputStream in, OutputStream capture) throws IOException {
+        super(in);
+        this.capture = new DataOutputStream(new BufferedOutputStream(capture, 16 * 1024));
+        this.startNanos = System.nanoTime();
+        this.capture.writeInt(MAGIC);
+        this.capture.writeInt(VERSION);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            writeChunkHeader(1);
+            capture.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int n = in.read(buffer, offset, Math.min(count, MAX_CHUNK_LENGTH));
+        if (n > 0) {
+            writeChunkHeader(n);
+            capture.write(buffer, offset, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes would be missing from the capture
+        throw new IOException("skip not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Close the relay stream and finish the capture.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            capture.close();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeChunkHeader(int length) throws IOException {
+        capture.writeLong(System.nanoTime() - startNanos);
+        capture.writeInt(length);
+    }
+}
@@ -0,0 +1,536 @@
+package com.speedo;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Time series chart of several series, each with its own y scale, overlaid on one time axis.
+ * Points are kept in a preallocated ring buffer: one column of times shared by all series, and
+ * a min, max and mean column per series.  Each series is drawn as its mean line over its
+ * min/max envelope.  The series have different units, so the grid is labelled in percent of
+ * each series' range and the legend gives each series' range next to its name.
+ * Tapping a series' name in the legend shows or hides it.
+ *
+ * The chart shows a time window ending at the newest data ("following") until the user pans
+ * back with a drag or zooms with a pinch; a double tap returns to following.  Whoever feeds the
+ * chart is told when the window changes so it can refill the points, and appends points while
+ * following.  Appending doesn't redraw, setNow() does, so the chart redraws only on the ticks
+ * that move it.
+ *
+ * The gesture detectors are created on the first touch, so their delayed callbacks, e.g. a
+ * confirmed single tap, run on the thread that delivers the touches.  That's the UI thread
+ * normally, or the render thread when a DashboardSurfaceView forwards them.
+ */
+public class ChartView extends View {
+
+    // most points held, and how many pixels a point should get
+    public static final int CAPACITY = 1024;
+    private static final float PIXELS_PER_POINT = 2;
+
+    private static final long DEFAULT_SPAN_NANOS = 60 * 1000000000L;
+    private static final long MIN_SPAN_NANOS = 10 * 1000000000L;
+    private static final long MAX_SPAN_NANOS = 24 * 3600 * 1000000000L;
+
+    private static final int HORIZONTAL_GRID_DIVISIONS = 4;
+    private static final int VERTICAL_GRID_DIVISIONS = 4;
+    private static final int DEFAULT_LABEL_TEXT_SIZE_DP = 14;
+    private static final int LEGEND_TEXT_SIZE_DP = 12;
+    private static final int LABEL_PADDING_DP = 4;
+
+    // envelope is drawn in the series color at this alpha
+    private static final int ENVELOPE_ALPHA = 0x60;
+
+    // shared time column of the point ring
+    private final long[] times = new long[CAPACITY];
+    private int head;
+    private int count;
+
+    // per series: value columns, indexed by series then ring slot
+    private float[][] mins = new float[0][];
+    private float[][] maxes = new float[0][];
+    private float[][] means = new float[0][];
+
+    // per series: appearance and y scale
+    private String[] names = new String[0];
+    private Paint[] meanPaints = new Paint[0];
+    private Paint[] envelopePaints = new Paint[0];
+    private float[] minYs = new float[0];
+    private float[] maxYs = new float[0];
+    private boolean[] visible = new boolean[0];
+
+    // legend text of each series, the name and its y range
+    private String[] legendTexts = new String[0];
+
+    // grid labels, in percent of each series' range
+    private final String[] yLabels = new String[HORIZONTAL_GRID_DIVISIONS + 1];
+
+    // legend entry extents, in the order of the series
+    private float[] legendLefts = new float[0];
+    private float[] legendRights = new float[0];
+    private float legendBottom;
+
+    // reused for drawing: mean segments, envelope segments, grid lines
+    private final float[] meanLines = new float[CAPACITY * 4];
+    private final float[] envelopeLines = new float[CAPACITY * 4];
+    private float[] gridLines = new float[0];
+
+    // time window
+    private long nowNanos;
+    private long endNanos;
+    private long spanNanos = DEFAULT_SPAN_NANOS;
+    private boolean following = true;
+
+    // plot area inside the labels
+    private float plotLeft;
+    private float plotTop;
+    private float plotRight;
+    private float plotBottom;
+    private float labelPadding;
+    private float density;
+
+    private Paint gridPaint;
+    private Paint labelPaint;
+    private Paint legendPaint;
+
+    // created on the first touch
+    private GestureDetector gestureDetector;
+    private ScaleGestureDetector scaleDetector;
+    private WindowListener windowListener;
+
+    public ChartView(Context context) {
+        super(context);
+        init();
+    }
+
+    public ChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        density = getResources().getDisplayMetrics().density;
+        labelPadding = LABEL_PADDING_DP * density;
+
+        gridPaint = new Paint();
+        gridPaint.setColor(Color.WHITE);
+        gridPaint.setStrokeWidth(1);
+
+        labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        labelPaint.setColor(Color.WHITE);
+        labelPaint.setTextSize(Math.round(DEFAULT_LABEL_TEXT_SIZE_DP * density));
+        labelPaint.setTextAlign(Paint.Align.RIGHT);
+
+        legendPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        legendPaint.setTextSize(Math.round(LEGEND_TEXT_SIZE_DP * density));
+        legendPaint.setTextAlign(Paint.Align.LEFT);
+
+        for (int i = 0; i <= HORIZONTAL_GRID_DIVISIONS; i++) {
+            yLabels[i] = (100 * i / HORIZONTAL_GRID_DIVISIONS) + "%";
+        }
+    }
+
+    private void createGestureDetectors() {
+        gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (scaleDetector.isInProgress() || plotRight <= plotLeft) {
+                    return false;
+                }
+                // drag right to go back in time
+                long shift = (long) (distanceX / (plotRight - plotLeft) * spanNanos);
+                setWindow(endNanos + shift, spanNanos);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                if (e.getY() > legendBottom) {
+                    return false;
+                }
+                for (int s = 0; s < names.length; s++) {
+                    if (e.getX() >= legendLefts[s] && e.getX() < legendRights[s]) {
+                        setSeriesVisible(s, !visible[s]);
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                setWindow(nowNanos, DEFAULT_SPAN_NANOS);
+                return true;
+            }
+        });
+
+        scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                if (plotRight <= plotLeft) {
+                    return false;
+                }
+                long span = (long) (spanNanos / detector.getScaleFactor());
+                span = Math.max(MIN_SPAN_NANOS, Math.min(MAX_SPAN_NANOS, span));
+                if (following) {
+                    // zoom about the newest data
+                    setWindow(nowNanos, span);
+                } else {
+                    // keep the time under the fingers where it is
+                    float fraction = (detector.getFocusX() - plotLeft) / (plotRight - plotLeft);
+                    fraction = Math.max(0, Math.min(1, fraction));
+                    long focus = endNanos - (long) ((1 - fraction) * spanNanos);
+                    setWindow(focus + (long) ((1 - fraction) * span), span);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Add a series.  Must be called before points are appended.
+     *
+     * @param name - shown in the legend, followed by the y range.
+     * @param color - line color.
+     * @param minY - value at the bottom of the plot.
+     * @param maxY - value at the top of the plot.
+     * @return - index of the series.
+     */
+    public int addSeries(String name, int color, float minY, float maxY) {
+        if (maxY <= minY)
+            throw new IllegalArgumentException("Incorrect y range specified!");
+        int s = names.length;
+        int n = s + 1;
+
+        mins = Arrays.copyOf(mins, n);
+        maxes = Arrays.copyOf(maxes, n);
+        means = Arrays.copyOf(means, n);
+        mins[s] = new float[CAPACITY];
+        maxes[s] = new float[CAPACITY];
+        means[s] = new float[CAPACITY];
+
+        names = Arrays.copyOf(names, n);
+        names[s] = name;
+
+        meanPaints = Arrays.copyOf(meanPaints, n);
+        meanPaints[s] = new Paint(Paint.ANTI_ALIAS_FLAG);
+        meanPaints[s].setStrokeWidth(2 * density);
+        meanPaints[s].setColor(color);
+
+        envelopePaints = Arrays.copyOf(envelopePaints, n);
+        envelopePaints[s] = new Paint();
+        envelopePaints[s].setStrokeWidth(1);
+        envelopePaints[s].setColor((color & 0x00ffffff) | (ENVELOPE_ALPHA << 24));
+
+        minYs = Arrays.copyOf(minYs, n);
+        maxYs = Arrays.copyOf(maxYs, n);
+        minYs[s] = minY;
+        maxYs[s] = maxY;
+
+        visible = Arrays.copyOf(visible, n);
+        visible[s] = true;
+
+        legendTexts = Arrays.copyOf(legendTexts, n);
+        legendTexts[s] = name + " " + formatValue(minY) + "\u2013" + formatValue(maxY);
+
+        legendLefts = new float[n];
+        legendRights = new float[n];
+
+        clear();
+        layoutPlot(getWidth(), getHeight());
+        invalidate();
+        return s;
+    }
+
+    private static String formatValue(float value) {
+        return (value == Math.round(value)) ? String.valueOf(Math.round(value)) : String.valueOf(value);
+    }
+
+    /**
+     * Show or hide a series.
+     *
+     * @param series - series index.
+     * @param shown - whether to draw it.
+     */
+    public void setSeriesVisible(int series, boolean shown) {
+        visible[series] = shown;
+        invalidate();
+    }
+
+    public boolean isSeriesVisible(int series) {
+        return visible[series];
+    }
+
+    /**
+     * Set the object that fills the chart when the window changes.
+     *
+     * @param windowListener - listener, or null.
+     */
+    public void setWindowListener(WindowListener windowListener) {
+        this.windowListener = windowListener;
+    }
+
+    /**
+     * Append a point of every series.  Points must be appended in time order.  Doesn't redraw.
+     *
+     * @param time - System.nanoTime() based time of the point.
+     * @param min - smallest value in the point, indexed by series.
+     * @param max - largest value in the point, indexed by series.
+     * @param mean - mean value in the point, indexed by series.
+     */
+    public void append(long time, float[] min, float[] max, float[] mean) {
+        int slot;
+        if (count < CAPACITY) {
+            slot = (head + count) % CAPACITY;
+            count++;
+        } else {
+            slot = head;
+            head = (head + 1) % CAPACITY;
+        }
+        times[slot] = time;
+        for (int s = 0; s < names.length; s++) {
+            mins[s][slot] = min[s];
+            maxes[s][slot] = max[s];
+            means[s][slot] = mean[s];
+        }
+    }
+
+    /**
+     * Remove all points.
+     */
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * Set the time of the newest data.  While following, the window moves with it and the chart
+     * is redrawn.
+     *
+     * @param nowNanos - System.nanoTime() based time.
+     */
+    public void setNow(long nowNanos) {
+        this.nowNanos = nowNanos;
+        if (following) {
+            endNanos = nowNanos;
+            invalidate();
+        }
+    }
+
+    /**
+     * Return whether the window follows the newest data.
+     *
+     * @return - true when following.
+     */
+    public boolean isFollowing() {
+        return following;
+    }
+
+    public long getStartNanos() {
+        return endNanos - spanNanos;
+    }
+
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    /**
+     * Return how many points fit the width of the plot.
+     *
+     * @return - points wanted across the window.
+     */
+    public int getMaxPoints() {
+        int points = (int) ((plotRight - plotLeft) / PIXELS_PER_POINT);
+        return Math.max(2, Math.min(CAPACITY, points));
+    }
+
+    /**
+     * Return the time covered by one point.
+     *
+     * @return - nanoseconds per point.
+     */
+    public long getPointNanos() {
+        return spanNanos / getMaxPoints();
+    }
+
+    /**
+     * Move the window, and tell the listener so it can refill the chart.  The window can't end
+     * after the newest data, and follows it once it reaches it.
+     */
+    private void setWindow(long end, long span) {
+        following = end >= nowNanos;
+        endNanos = following ? nowNanos : end;
+        spanNanos = span;
+        if (windowListener != null) {
+            windowListener.onWindowChanged(this);
+        }
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (gestureDetector == null) {
+            createGestureDetectors();
+        }
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutPlot(w, h);
+        if (windowListener != null) {
+            // point count depends on the width
+            windowListener.onWindowChanged(this);
+        }
+    }
+
+    /**
+     * Work out the plot area, grid and legend for a size.
+     */
+    private void layoutPlot(int width, int height) {
+        float labelWidth = 0;
+        for (String label : yLabels) {
+            labelWidth = Math.max(labelWidth, labelPaint.measureText(label));
+        }
+        float textHeight = labelPaint.descent() - labelPaint.ascent();
+
+        plotLeft = getPaddingLeft() + labelWidth + labelPadding;
+        plotRight = width - getPaddingRight();
+        plotTop = getPaddingTop() + textHeight / 2;
+        plotBottom = height - getPaddingBottom() - textHeight / 2;
+
+        gridLines = new float[(HORIZONTAL_GRID_DIVISIONS + VERTICAL_GRID_DIVISIONS + 2) * 4];
+        int n = 0;
+        for (int i = 0; i <= HORIZONTAL_GRID_DIVISIONS; i++) {
+            float y = gridY(i);
+            gridLines[n++] = plotLeft;
+            gridLines[n++] = y;
+            gridLines[n++] = plotRight;
+            gridLines[n++] = y;
+        }
+        for (int i = 0; i <= VERTICAL_GRID_DIVISIONS; i++) {
+            float x = plotLeft + (plotRight - plotLeft) * i / VERTICAL_GRID_DIVISIONS;
+            gridLines[n++] = x;
+            gridLines[n++] = plotTop;
+            gridLines[n++] = x;
+            gridLines[n++] = plotBottom;
+        }
+
+        // legend along the top of the plot
+        float x = plotLeft + labelPadding;
+        for (int s = 0; s < names.length; s++) {
+            legendLefts[s] = x - labelPadding;
+            x += legendPaint.measureText(legendTexts[s]) + 2 * labelPadding;
+            legendRights[s] = x - labelPadding;
+        }
+        legendBottom = plotTop + legendPaint.descent() - legendPaint.ascent() + 2 * labelPadding;
+    }
+
+    private float gridY(int line) {
+        return plotBottom - (plotBottom - plotTop) * line / HORIZONTAL_GRID_DIVISIONS;
+    }
+
+    private float toY(int series, float value) {
+        float y = plotBottom - (value - minYs[series]) / (maxYs[series] - minYs[series]) * (plotBottom - plotTop);
+        return Math.max(plotTop, Math.min(plotBottom, y));
+    }
+
+    /**
+     * Draw view.
+     *
+     * @param canvas - to draw.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (plotRight <= plotLeft || plotBottom <= plotTop) {
+            return;
+        }
+
+        canvas.drawLines(gridLines, gridPaint);
+
+        float textOffset = -(labelPaint.ascent() + labelPaint.descent()) / 2;
+        for (int i = 0; i <= HORIZONTAL_GRID_DIVISIONS; i++) {
+            canvas.drawText(yLabels[i], plotLeft - labelPadding, gridY(i) + textOffset, labelPaint);
+        }
+
+        float legendY = plotTop + labelPadding - legendPaint.ascent();
+        for (int s = 0; s < names.length; s++) {
+            legendPaint.setColor(visible[s] ? meanPaints[s].getColor() : Color.GRAY);
+            canvas.drawText(legendTexts[s], legendLefts[s] + labelPadding, legendY, legendPaint);
+        }
+
+        long start = endNanos - spanNanos;
+        float xScale = (plotRight - plotLeft) / spanNanos;
+        // points further apart than this are a gap in the data
+        long maxStep = 3 * Math.max(getPointNanos(), 1);
+
+        canvas.save();
+        canvas.clipRect(plotLeft, plotTop, plotRight, plotBottom);
+        // first series on top
+        for (int s = names.length - 1; s >= 0; s--) {
+            if (!visible[s]) {
+                continue;
+            }
+            int envelope = 0;
+            int mean = 0;
+            float lastX = 0;
+            float lastY = 0;
+            long lastTime = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % CAPACITY;
+                long time = times[slot];
+                if (time < start - maxStep || time > endNanos) {
+                    lastTime = Long.MIN_VALUE;
+                    continue;
+                }
+                float x = plotLeft + (time - start) * xScale;
+                float y = toY(s, means[s][slot]);
+
+                if (x >= plotLeft) {
+                    envelopeLines[envelope++] = x;
+                    envelopeLines[envelope++] = toY(s, mins[s][slot]);
+                    envelopeLines[envelope++] = x;
+                    envelopeLines[envelope++] = toY(s, maxes[s][slot]);
+                }
+                if (lastTime != Long.MIN_VALUE && time - lastTime <= maxStep) {
+                    meanLines[mean++] = lastX;
+                    meanLines[mean++] = lastY;
+                    meanLines[mean++] = x;
+                    meanLines[mean++] = y;
+                }
+                lastX = x;
+                lastY = y;
+                lastTime = time;
+            }
+            canvas.drawLines(envelopeLines, 0, envelope, envelopePaints[s]);
+            canvas.drawLines(meanLines, 0, mean, meanPaints[s]);
+        }
+        canvas.restore();
+    }
+
+    /**
+     * Told when the user moves or zooms the window, or the plot is resized.  The listener should
+     * clear() the chart and append the points of the new window.
+     */
+    public interface WindowListener {
+
+        void onWindowChanged(ChartView chart);
+    }
+}
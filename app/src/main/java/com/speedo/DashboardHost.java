@@ -0,0 +1,20 @@
+package com.speedo;
+
+/**
+ * Implemented by the activity the dashboard fragment is attached to, which owns the pipeline
+ * the dashboard shows.  The fragment asks for it every time its view is created, so it works
+ * the same when the system recreates the fragment on its own.  Everything returned must exist
+ * once the activity's onCreate() has returned.
+ */
+public interface DashboardHost {
+
+    DashboardUpdater getDashboard();
+
+    EnergyIntegrator getEnergy();
+
+    TimeSeriesStore getHistory();
+
+    LatencyTracer getLatency();
+
+    PipelineStats getStats();
+}
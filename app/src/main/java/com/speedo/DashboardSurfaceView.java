@@ -0,0 +1,348 @@
+package com.speedo;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * Dashboard drawn on a render thread of its own, so nothing on the UI thread can delay a frame.
+ * The gauges and graph are the same views as in the normal layout, never attached to a window:
+ * the render thread lays them out like fragment_main, applies updates to them and draws them
+ * onto the surface, on its own Choreographer's frames.
+ *
+ * The views are created on the UI thread and may be configured there until the surface is
+ * created; from then on they belong to the render thread.  Touches are passed to the render
+ * thread too, and those starting on the graph go to it, so it can be panned, zoomed, reset
+ * with a double tap and have series toggled in its legend as in the normal layout.
+ */
+public class DashboardSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    // fragment_main dimensions, in dp
+    private static final int PADDING_DP = 2;
+    private static final int MARGIN_DP = 5;
+    private static final int GRAPH_HEIGHT_DP = 150;
+    private static final int TEMP_GAUGE_WIDTH_DP = 108;
+    private static final int TEMP_GAUGE_HEIGHT_DP = 70;
+
+    // index of the graph in views
+    private static final int GRAPH = 2;
+
+    private final NeedleGauge ampGauge;
+    private final NeedleGauge rpmGauge;
+    private final ChartView graph;
+    private final CapacityGauge batGauge;
+    private final MotorTempGauge motorTempGauge;
+    private final ControllerTempGauge controllerTempGauge;
+
+    // views in drawing order, and where each is drawn
+    private final View[] views;
+    private final Rect[] bounds;
+
+    // updater the data source requests updates from, and what applies them to the views
+    private DashboardUpdater uiDashboard;
+    private DashboardUpdater.Listener listener;
+
+    // run on the render thread after each frame is posted, may be null
+    private Runnable renderedListener;
+
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+
+    // render thread state
+    private DashboardUpdater dashboard;
+    private Choreographer choreographer;
+    private boolean renderScheduled;
+
+    // whether the gesture being delivered started on the graph
+    private boolean touchingGraph;
+
+    private final Choreographer.FrameCallback renderFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            renderScheduled = false;
+            render();
+            if (ampGauge.isAnimating() || rpmGauge.isAnimating()) {
+                scheduleRender();
+            }
+        }
+    };
+
+    private final Runnable renderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduleRender();
+        }
+    };
+
+    private final DashboardUpdater.Listener renderListener = new DashboardUpdater.Listener() {
+        @Override
+        public void onDashboardUpdate(TelemetrySnapshot snapshot, long changed) {
+            listener.onDashboardUpdate(snapshot, changed);
+            scheduleRender();
+        }
+    };
+
+    public DashboardSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public DashboardSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        ampGauge = new NeedleGauge(context);
+        rpmGauge = new NeedleGauge(context);
+        graph = new ChartView(context);
+        batGauge = new CapacityGauge(context);
+        motorTempGauge = new MotorTempGauge(context);
+        controllerTempGauge = new ControllerTempGauge(context);
+
+        views = new View[] { ampGauge, rpmGauge, graph, motorTempGauge, controllerTempGauge, batGauge };
+        bounds = new Rect[views.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = new Rect();
+        }
+        getHolder().addCallback(this);
+    }
+
+    public NeedleGauge getAmpGauge() {
+        return ampGauge;
+    }
+
+    public NeedleGauge getRpmGauge() {
+        return rpmGauge;
+    }
+
+    public ChartView getGraph() {
+        return graph;
+    }
+
+    public CapacityGauge getCapacityGauge() {
+        return batGauge;
+    }
+
+    public MotorTempGauge getMotorTempGauge() {
+        return motorTempGauge;
+    }
+
+    public ControllerTempGauge getControllerTempGauge() {
+        return controllerTempGauge;
+    }
+
+    /**
+     * Set where updates come from and how they're applied.  UI thread, before the surface is
+     * created.  While the surface exists, the updater's requests go to an updater on the
+     * render thread, which calls the listener there; the updater itself must have no listener.
+     *
+     * @param dashboard - updater the data source requests updates from.
+     * @param listener - applies updates to the views of this surface.
+     */
+    public void setDashboard(DashboardUpdater dashboard, DashboardUpdater.Listener listener) {
+        this.uiDashboard = dashboard;
+        this.listener = listener;
+    }
+
+    /**
+     * Set what runs after each frame is posted to the surface, on the render thread.  UI
+     * thread, before the surface is created.
+     *
+     * @param listener - runs after each frame, or null for none.
+     */
+    public void setRenderedListener(Runnable listener) {
+        this.renderedListener = listener;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new HandlerThread("DashboardRender");
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                choreographer = Choreographer.getInstance();
+                if (uiDashboard != null) {
+                    dashboard = new DashboardUpdater(uiDashboard);
+                    dashboard.setListener(renderListener);
+                    uiDashboard.setDelegate(dashboard);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, final int width, final int height) {
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                layoutViews(width, height);
+                scheduleRender();
+            }
+        });
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // the surface must not be drawn once this returns, so wait for the render thread
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (dashboard != null) {
+                    uiDashboard.setDelegate(null);
+                    dashboard.setListener(null);
+                    dashboard = null;
+                }
+                renderHandler.removeCallbacks(renderRunnable);
+                choreographer.removeFrameCallback(renderFrame);
+                renderScheduled = false;
+                ampGauge.finishAnimation();
+                rpmGauge.finishAnimation();
+                renderThread.getLooper().quit();
+            }
+        });
+        boolean interrupted = false;
+        while (true) {
+            try {
+                renderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+        renderHandler = null;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (renderHandler == null) {
+            return false;
+        }
+        final MotionEvent copy = MotionEvent.obtain(event);
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatchToGraph(copy);
+                copy.recycle();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Render thread: pass a touch to the graph, in its coordinates, if the gesture started on
+     * it, and draw the result.
+     *
+     * @param event - touch in surface coordinates.
+     */
+    private void dispatchToGraph(MotionEvent event) {
+        Rect graphBounds = bounds[GRAPH];
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            touchingGraph = graphBounds.contains((int) event.getX(), (int) event.getY());
+        }
+        if (!touchingGraph) {
+            return;
+        }
+        event.offsetLocation(-graphBounds.left, -graphBounds.top);
+        graph.dispatchTouchEvent(event);
+        // the graph isn't attached, so its invalidate() doesn't draw
+        scheduleRender();
+        if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            // a legend tap is only confirmed once no second tap came
+            renderHandler.postDelayed(renderRunnable, ViewConfiguration.getDoubleTapTimeout());
+        }
+    }
+
+    /**
+     * Render thread: draw on the next frame.
+     */
+    private void scheduleRender() {
+        if (!renderScheduled) {
+            renderScheduled = true;
+            choreographer.postFrameCallback(renderFrame);
+        }
+    }
+
+    /**
+     * Render thread: place the views like fragment_main does in a phone sized window, the
+     * gauges and graph on the left and the capacity bar down the right.
+     *
+     * @param width - surface width.
+     * @param height - surface height.
+     */
+    private void layoutViews(int width, int height) {
+        float density = getResources().getDisplayMetrics().density;
+        int padding = Math.round(PADDING_DP * density);
+        int margin = Math.round(MARGIN_DP * density);
+        int left = padding;
+        int top = padding;
+        int contentWidth = width - 2 * padding;
+        int contentHeight = height - 2 * padding;
+
+        // capacity bar takes 5% of the width
+        int columnWidth = Math.round((contentWidth - margin) * 0.95f);
+        layoutView(5, left + columnWidth + margin, top, contentWidth - columnWidth - margin, contentHeight);
+
+        // needle gauges side by side, each as wide as fits its half and half as high
+        int gaugeWidth = (columnWidth - margin) / 2;
+        int gaugeSize = Math.min(gaugeWidth, contentHeight);
+        layoutView(0, left, top, gaugeSize, gaugeSize / 2);
+        layoutView(1, left + gaugeWidth + margin, top, gaugeSize, gaugeSize / 2);
+
+        // graph on 80% of the bottom, temperatures stacked and centered on the rest
+        int graphWidth = Math.round(columnWidth * 0.80f);
+        int graphHeight = Math.round(GRAPH_HEIGHT_DP * density);
+        layoutView(GRAPH, left, top + contentHeight - graphHeight, graphWidth, graphHeight);
+
+        int tempWidth = Math.round(TEMP_GAUGE_WIDTH_DP * density);
+        int tempHeight = Math.round(TEMP_GAUGE_HEIGHT_DP * density);
+        int tempLeft = left + graphWidth + (columnWidth - graphWidth - tempWidth) / 2;
+        layoutView(3, tempLeft, top + contentHeight - 2 * tempHeight, tempWidth, tempHeight);
+        layoutView(4, tempLeft, top + contentHeight - tempHeight, tempWidth, tempHeight);
+    }
+
+    private void layoutView(int index, int left, int top, int width, int height) {
+        View view = views[index];
+        view.measure(MeasureSpec.makeMeasureSpec(Math.max(0, width), MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(Math.max(0, height), MeasureSpec.EXACTLY));
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+        bounds[index].set(left, top, left + view.getMeasuredWidth(), top + view.getMeasuredHeight());
+    }
+
+    /**
+     * Render thread: draw every view onto the surface.
+     */
+    private void render() {
+        SurfaceHolder holder = getHolder();
+        Canvas canvas = holder.lockCanvas();
+        if (canvas == null) {
+            return;
+        }
+        try {
+            canvas.drawColor(Color.BLACK);
+            for (int i = 0; i < views.length; i++) {
+                int count = canvas.save();
+                canvas.translate(bounds[i].left, bounds[i].top);
+                canvas.clipRect(0, 0, bounds[i].width(), bounds[i].height());
+                views[i].draw(canvas);
+                canvas.restoreToCount(count);
+            }
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+        if (renderedListener != null) {
+            renderedListener.run();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.speedo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.view.Choreographer;
+
+/**
+ * Collapses any number of published snapshots into at most one dashboard update per display
+ * frame.  Each channel has a display resolution; the listener gets a mask of the channels whose
+ * value changed after rounding to that resolution, so gauges that would draw the same thing
+ * aren't touched.
+ */
+public class DashboardUpdater implements Choreographer.FrameCallback {
+
+    private final SnapshotBuffer telemetry;
+    private final Choreographer choreographer;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // display resolution per channel, 0 if the channel isn't displayed
+    private final float[] resolutions;
+
+    // last displayed value per channel, in units of its resolution
+    private final long[] displayed;
+
+    private long displayedSequence = -1;
+    private boolean refreshAll = true;
+    private Listener listener;
+
+    // updater on another thread that requests are passed to, null to handle them here
+    private volatile DashboardUpdater delegate;
+
+    /**
+     * Constructor.  Must be called on the thread that applies the updates, usually the UI
+     * thread; it needs a Looper.
+     *
+     * @param telemetry - snapshots to display.
+     * @param channelCount - number of signal channels.
+     */
+    public DashboardUpdater(SnapshotBuffer telemetry, int channelCount) {
+        this.telemetry = telemetry;
+        this.choreographer = Choreographer.getInstance();
+        this.resolutions = new float[channelCount];
+        this.displayed = new long[channelCount];
+    }
+
+    /**
+     * Constructor for an updater on another thread, e.g. a render thread, with the same
+     * snapshots and resolutions.  Must be called on that thread.  The snapshot buffer takes a
+     * single reader, so only one of the updaters may have a listener at a time.
+     *
+     * @param other - updater to copy.
+     */
+    public DashboardUpdater(DashboardUpdater other) {
+        this(other.telemetry, other.resolutions.length);
+        System.arraycopy(other.resolutions, 0, resolutions, 0, resolutions.length);
+    }
+
+    /**
+     * Set the smallest change of a channel that shows on the dashboard.
+     *
+     * @param channel - channel index.
+     * @param resolution - display resolution, 0 to ignore the channel.
+     */
+    public void setResolution(int channel, float resolution) {
+        if (resolution < 0)
+            throw new IllegalArgumentException("Negative value specified as resolution.");
+        resolutions[channel] = resolution;
+        refreshAll = true;
+    }
+
+    /**
+     * Set the object that applies updates to the views.  All displayed channels are reported as
+     * changed on the next update.  UI thread only.
+     *
+     * @param listener - new listener, or null to stop updates.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        refreshAll = true;
+        if (listener != null) {
+            requestUpdate();
+        }
+    }
+
+    /**
+     * Schedule an update for the next display frame.  Safe to call from any thread and as often
+     * as new data is published; calls before the frame runs are coalesced.
+     */
+    public void requestUpdate() {
+        DashboardUpdater d = delegate;
+        if (d != null) {
+            d.requestUpdate();
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Pass update requests to another updater, so whoever publishes needn't know which one is
+     * displaying.  Safe to call from any thread.
+     *
+     * @param delegate - updater that handles requests, or null to handle them here again.
+     */
+    public void setDelegate(DashboardUpdater delegate) {
+        this.delegate = delegate;
+        if (delegate == null) {
+            requestUpdate();
+        }
+    }
+
+    /**
+     * Return whether a channel is set in a changed mask.
+     *
+     * @param changed - mask passed to Listener.onDashboardUpdate().
+     * @param channel - channel index.
+     * @return - true if the channel's displayed value changed.
+     */
+    public static boolean isChanged(long changed, int channel) {
+        return (changed & (1L << channel)) != 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // clear first so a publish during this update schedules another frame
+        scheduled.set(false);
+
+        if (listener == null) {
+            return;
+        }
+
+        TelemetrySnapshot snapshot = telemetry.read();
+        if (snapshot.sequence == displayedSequence && !refreshAll) {
+            return;
+        }
+
+        long changed = 0;
+        for (int channel = 0; channel < resolutions.length; channel++) {
+            float resolution = resolutions[channel];
+            if (resolution == 0) {
+                continue;
+            }
+            float v = snapshot.values[channel];
+            // NaN for a channel without a value yet, which differs from every value
+            long value = Float.isNaN(v) ? Long.MIN_VALUE : Math.round((double) v / resolution);
+            if (refreshAll || value != displayed[channel]) {
+                displayed[channel] = value;
+                changed |= 1L << channel;
+            }
+        }
+        refreshAll = false;
+        displayedSequence = snapshot.sequence;
+
+        listener.onDashboardUpdate(snapshot, changed);
+    }
+
+    /**
+     * Applies a snapshot to the views.  Called on the updater's thread at most once per frame,
+     * and only when a new snapshot was published.
+     */
+    public interface Listener {
+
+        void onDashboardUpdate(TelemetrySnapshot snapshot, long changed);
+    }
+}
@@ -0,0 +1,74 @@
+package com.speedo;
+
+import java.text.DecimalFormatSymbols;
+
+import android.widget.TextView;
+
+/**
+ * Shows a number with a fixed number of decimals and a unit in a TextView, e.g. "12.3 kWh",
+ * without allocating.  Text is formatted into a reused char array and the view is only
+ * updated when the text differs from what it shows, so a reading that changes below the
+ * displayed resolution costs no layout.
+ *
+ * The number is formatted by DecimalFormatter, with the decimal separator of the default locale.
+ */
+public class DecimalTextFormatter {
+
+    private final TextView view;
+    private final int decimals;
+    private final char separator;
+    private final char[] suffix;
+
+    // text being formatted, and the text the view shows; the view keeps a reference to shown,
+    // so it only changes right before setText()
+    private final char[] scratch;
+    private final char[] shown;
+    private int shownLength = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param view - view to show the value in.
+     * @param decimals - number of decimals, 0 to 6.
+     * @param suffix - text after the number, e.g. " kWh".
+     */
+    public DecimalTextFormatter(TextView view, int decimals, String suffix) {
+        if (decimals < 0 || decimals > DecimalFormatter.MAX_DECIMALS)
+            throw new IllegalArgumentException("Number of decimals out of range.");
+        this.view = view;
+        this.decimals = decimals;
+        this.separator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        this.suffix = suffix.toCharArray();
+        scratch = new char[DecimalFormatter.MAX_LENGTH + this.suffix.length];
+        shown = new char[scratch.length];
+    }
+
+    /**
+     * Show a value.  UI thread.
+     *
+     * @param value - value to show.
+     * @return - true if the text changed.
+     */
+    public boolean setValue(double value) {
+        int length = DecimalFormatter.format(value, decimals, separator, scratch);
+        System.arraycopy(suffix, 0, scratch, length, suffix.length);
+        length += suffix.length;
+
+        if (length == shownLength && equals(scratch, shown, length)) {
+            return false;
+        }
+        System.arraycopy(scratch, 0, shown, 0, length);
+        shownLength = length;
+        view.setText(shown, 0, length);
+        return true;
+    }
+
+    private static boolean equals(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,167 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Traces how stale the dashboard is: each published snapshot carries the time its newest data
+ * arrived, and the time it was published, to the display thread, which stamps when it applied
+ * the snapshot and when the result was drawn.  Every stage's latency goes into a histogram.
+ *
+ * Stages are
+ * - decode: bytes read to snapshot published, on the ingest thread,
+ * - handoff: published to the dashboard listener starting, on the display thread,
+ * - update: the dashboard listener applying the snapshot to the views,
+ * - draw: listener done to the frame drawn,
+ * - total: bytes read to the frame drawn.
+ *
+ * The decode stage is recorded by the ingest thread, the others by whichever thread runs the
+ * dashboard, one at a time.
+ */
+public class LatencyTracer {
+
+    public static final int DECODE = 0;
+    public static final int HANDOFF = 1;
+    public static final int UPDATE = 2;
+    public static final int DRAW = 3;
+    public static final int TOTAL = 4;
+
+    private static final String[] STAGE_NAMES = { "decode", "handoff", "update", "draw", "total" };
+
+    // percentiles shown and exported
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+
+    // display thread: arrival time and update end of the snapshot waiting to be drawn, 0 if none
+    private long pendingArrivalNanos;
+    private long pendingUpdateNanos;
+
+    public LatencyTracer() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram(STAGE_NAMES[i]);
+        }
+    }
+
+    public LatencyHistogram getStage(int stage) {
+        return stages[stage];
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    /**
+     * Ingest thread: stamp a snapshot as it is published.
+     *
+     * @param snapshot - snapshot being written, with its arrival time set.
+     */
+    public void onPublish(TelemetrySnapshot snapshot) {
+        long now = System.nanoTime();
+        snapshot.publishNanos = now;
+        stages[DECODE].record(now - snapshot.timestampNanos);
+    }
+
+    /**
+     * Display thread: the dashboard listener starts applying a snapshot.
+     *
+     * @param snapshot - snapshot being applied.
+     * @return - start time, to pass to onUpdateEnd().
+     */
+    public long onUpdateStart(TelemetrySnapshot snapshot) {
+        long now = System.nanoTime();
+        stages[HANDOFF].record(now - snapshot.publishNanos);
+        return now;
+    }
+
+    /**
+     * Display thread: the dashboard listener is done applying a snapshot.
+     *
+     * @param snapshot - snapshot applied.
+     * @param startNanos - value returned by onUpdateStart().
+     */
+    public void onUpdateEnd(TelemetrySnapshot snapshot, long startNanos) {
+        long now = System.nanoTime();
+        stages[UPDATE].record(now - startNanos);
+        pendingArrivalNanos = snapshot.timestampNanos;
+        pendingUpdateNanos = now;
+    }
+
+    /**
+     * Display thread: a frame was drawn.  Frames drawn without a new snapshot are ignored.
+     */
+    public void onDrawn() {
+        if (pendingUpdateNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        stages[DRAW].record(now - pendingUpdateNanos);
+        stages[TOTAL].record(now - pendingArrivalNanos);
+        pendingArrivalNanos = 0;
+        pendingUpdateNanos = 0;
+    }
+
+    /**
+     * Append one line per stage with its p50, p99 and max in milliseconds, for an overlay.
+     *
+     * @param out - receives the lines.
+     */
+    public void appendSummary(StringBuilder out) {
+        for (LatencyHistogram stage : stages) {
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+            out.append(stage.getName())
+               .append(" p50 ").append(toMillis(stage.getPercentile(50)))
+               .append(" p99 ").append(toMillis(stage.getPercentile(99)))
+               .append(" max ").append(toMillis(stage.getMax()))
+               .append(" ms");
+        }
+    }
+
+    /**
+     * Write every stage as CSV: a summary row per stage, then the nonzero buckets of each, so
+     * exports from different runs can be compared or merged.  Latencies are in microseconds.
+     *
+     * @param out - receives the CSV.
+     * @throws IOException - if writing fails.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("stage,count");
+        for (double p : PERCENTILES) {
+            out.write(",p" + formatPercentile(p) + "_us");
+        }
+        out.write(",max_us\n");
+        for (LatencyHistogram stage : stages) {
+            out.write(stage.getName() + "," + stage.getCount());
+            for (double p : PERCENTILES) {
+                out.write("," + toMicros(stage.getPercentile(p)));
+            }
+            out.write("," + toMicros(stage.getMax()) + "\n");
+        }
+
+        out.write("\nstage,bucket_max_us,count\n");
+        for (LatencyHistogram stage : stages) {
+            for (int i = 0; i < stage.getBucketCount(); i++) {
+                long count = stage.getBucketValue(i);
+                if (count != 0) {
+                    out.write(stage.getName() + "," + toMicros(LatencyHistogram.getBucketUpperBound(i))
+                            + "," + count + "\n");
+                }
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return Long.toString(nanos / 1000000) + '.' + (char) ('0' + nanos / 100000 % 10);
+    }
+
+    private static String toMicros(long nanos) {
+        return Long.toString(nanos / 1000);
+    }
+
+    private static String formatPercentile(double percentile) {
+        return (percentile == Math.rint(percentile)) ? Long.toString((long) percentile)
+                : Double.toString(percentile).replace('.', '_');
+    }
+}
@@ -1,23 +1,28 @@
 package com.speedo;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
-import java.util.Set;
-import java.util.UUID;
-
-import com.jjoe64.graphview.GraphView;
-import com.jjoe64.graphview.GridLabelRenderer;
-import com.jjoe64.graphview.series.DataPoint;
-import com.jjoe64.graphview.series.LineGraphSeries;
-import com.jjoe64.graphview.Viewport;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
@@ -26,22 +31,158 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.TextView;
+import android.widget.Toast;
+
+
+public class MainActivity extends Activity implements DashboardHost {
+
+	private static final String TAG = "MainActivity";
+
+	// optional user supplied signal definitions, replaces R.raw.signals when present
+	private static final String SIGNALS_FILE_NAME = "signals.dbc";
+
+	// optional user supplied poll definitions, replaces R.raw.polls when present
+	private static final String POLLS_FILE_NAME = "polls.txt";
+
+	// name of the paired bluetooth relay module
+	private static final String RELAY_DEVICE_NAME = "CAN Relay";
+
+	// development machine as seen from the Android emulator, used when there's no bluetooth
+	private static final String EMULATOR_HOST = "10.0.2.2";
+	// port the relay-emulator module listens on by default
+	private static final int EMULATOR_PORT = 35000;
+
+	// directory under the app's external files directory where raw relay data is captured
+	private static final String CAPTURES_DIRECTORY_NAME = "captures";
+	private static final String CAPTURE_FILE_SUFFIX = ".raw";
+
+	// replay speed meaning "connect to the relay"
+	private static final float LIVE = -1;
 
+	// gauge bands, which are also the alarm thresholds
+	private static final int AMPS_WARNING  = 400;
+	private static final int AMPS_CRITICAL = 500;
+	private static final int AMPS_MAX      = 600;
+	private static final int RPM_NORMAL    = 30;
+	private static final int RPM_WARNING   = 140;
+	private static final int RPM_CRITICAL  = 180;
+	private static final int RPM_MAX       = 300;
 
-public class MainActivity extends Activity {
+	// alarms need a condition to hold this long, so current and voltage spikes don't trip them
+	private static final long WARNING_DEBOUNCE_NANOS = 250 * 1000000L;
+	private static final long UNDERVOLTAGE_DEBOUNCE_NANOS = 1000 * 1000000L;
+
+	// where amp-hour and kilowatt-hour totals are kept between runs
+	private static final String ENERGY_PREFS_NAME = "energy";
+
+	// display options kept between runs
+	private static final String DISPLAY_PREFS_NAME = "display";
+	private static final String RENDER_THREAD_PREF = "renderThread";
+
+	// how often processThread saves the energy totals
+	private static final long ENERGY_SAVE_INTERVAL_NANOS = 60 * 1000000000L;
+
+	// directory under the app's files directory where trips are recorded
+	private static final String TRIPS_DIRECTORY_NAME = "trips";
+
+	// how often the latency overlay and pipeline stats panel are refreshed
+	private static final long LATENCY_OVERLAY_INTERVAL_MILLIS = 1000;
+	private static final long STATS_PANEL_INTERVAL_MILLIS = 1000;
 
 	// Thread for processing input asynchronously from UI thread
 	private Thread processThread;
 
-	// Boolean to control processThread - keeps running if runThread is true,
-	// otherwise completes.
-	private boolean runThread; 
+	// processThread's connection to the relay - processThread keeps running until it's stopped
+	private RelayConnection relayConnection;
+
+	// most recently started processThread, which may still be finishing after a stop
+	private Thread lastProcessThread;
 
 	private MenuItem btMenuItem;
+
+	// speed processThread replays the newest capture at, 0 for max, or LIVE
+	private float replaySpeed = LIVE;
+
+	// whether processThread captures the raw relay stream
+	private boolean captureEnabled;
 	private PlaceholderFragment uiFragment;
 
+	// compiled CAN signal definitions
+	private SignalTable signalTable;
+
+	// latest readings, published by processThread and read by the UI
+	private SnapshotBuffer telemetry;
+	private DashboardUpdater dashboard;
+
+	// amp-hour and kilowatt-hour totals, updated by processThread
+	private EnergyIntegrator energy;
+
+	// battery state of charge, updated by processThread
+	private StateOfChargeEstimator stateOfCharge;
+
+	// graphed signal history, added to by processThread
+	private TimeSeriesStore history;
+
+	// signal limits, checked by processThread
+	private AlarmEngine alarms;
+
+	// requests for signals that aren't broadcast, sent while connected to the relay
+	private PollScheduler polls;
+
+	// sample to screen latency of every stage, stamped by processThread and the dashboard
+	private LatencyTracer latency;
+
+	// ingest pipeline health, counted by processThread and the dashboard
+	private PipelineStats stats;
+
+	// counters as of the last dumpsys, for its rates
+	private long[] dumpSample;
+
+	// latency summary over the dashboard, null until first shown
+	private TextView latencyOverlay;
+	private final Runnable latencyOverlayUpdate = new Runnable() {
+		@Override
+		public void run() {
+			StringBuilder text = new StringBuilder();
+			latency.appendSummary(text);
+			latencyOverlay.setText(text);
+			handler.postDelayed(this, LATENCY_OVERLAY_INTERVAL_MILLIS);
+		}
+	};
+
+	// alarms currently raised, UI thread only
+	private final List<AlarmEngine.Alarm> activeAlarms = new ArrayList<AlarmEngine.Alarm>();
+
+	// shows the live pipeline's alarms in the action bar
+	private final AlarmEngine.Listener alarmListener = new AlarmEngine.Listener() {
+		@Override
+		public void onAlarmChanged(final AlarmEngine.Alarm alarm, final boolean active, float value,
+				long timestampNanos) {
+			Log.w(TAG, alarm.name + (active ? " raised at " + value : " cleared"));
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (active) {
+						activeAlarms.add(alarm);
+					}
+					else {
+						activeAlarms.remove(alarm);
+					}
+					updateAlarmText();
+				}
+			});
+		}
+	};
+	private final Handler handler = new Handler();
+
+	// channels of the graphed series, in series order
+	private static final int[] GRAPH_CHANNELS = {
+			SignalTable.VOLTS, SignalTable.AMPS, SignalTable.KILOWATTS,
+			SignalTable.MOTOR_TEMP, SignalTable.CONTROLLER_TEMP };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -49,15 +190,79 @@ public class MainActivity extends Activity {
 
 		// keep screen on - don't let it time out
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+        signalTable = loadSignalTable();
+        telemetry = new SnapshotBuffer(signalTable.getChannelCount());
+        dashboard = new DashboardUpdater(telemetry, signalTable.getChannelCount());
+        energy = new EnergyIntegrator();
+        stateOfCharge = createStateOfChargeEstimator();
+        restoreEnergyTotals();
+        history = new TimeSeriesStore(GRAPH_CHANNELS);
+        alarms = createAlarmEngine();
+        alarms.setListener(alarmListener);
+        latency = new LatencyTracer();
+        stats = new PipelineStats();
+        dumpSample = stats.newSample();
+        polls = loadPollScheduler();
+        polls.setStats(stats);
         
         if (savedInstanceState == null) {
-        	uiFragment = new PlaceholderFragment();
+        	uiFragment = PlaceholderFragment.newInstance(isRenderThreadEnabled());
             getFragmentManager().beginTransaction()
                     .add(R.id.container, uiFragment)
                     .commit();
         }
     }
+
+    /**
+     * Return whether the dashboard is drawn on its own render thread, a saved option.
+     *
+     * @return - true for the render thread dashboard.
+     */
+    private boolean isRenderThreadEnabled() {
+    	return getSharedPreferences(DISPLAY_PREFS_NAME, MODE_PRIVATE).getBoolean(RENDER_THREAD_PREF, false);
+    }
+
+    /**
+     * Switch between drawing the dashboard with views on the UI thread and on a render thread,
+     * replacing the dashboard fragment.
+     *
+     * @param renderThread - true for the render thread dashboard.
+     */
+    private void setRenderThreadEnabled(boolean renderThread) {
+    	getSharedPreferences(DISPLAY_PREFS_NAME, MODE_PRIVATE).edit()
+    			.putBoolean(RENDER_THREAD_PREF, renderThread).apply();
+    	uiFragment = PlaceholderFragment.newInstance(renderThread);
+    	getFragmentManager().beginTransaction()
+    			.replace(R.id.container, uiFragment)
+    			.commit();
+    }
     
+    @Override
+    public DashboardUpdater getDashboard() {
+    	return dashboard;
+    }
+
+    @Override
+    public EnergyIntegrator getEnergy() {
+    	return energy;
+    }
+
+    @Override
+    public TimeSeriesStore getHistory() {
+    	return history;
+    }
+
+    @Override
+    public LatencyTracer getLatency() {
+    	return latency;
+    }
+
+    @Override
+    public PipelineStats getStats() {
+    	return stats;
+    }
+
     @Override
     protected void onResume() {
     	super.onResume();
@@ -66,18 +271,241 @@ public class MainActivity extends Activity {
 
     @Override
     protected void onDestroy() {
-		// stop thread
-		runThread = false;
-		try {
-			processThread.interrupt();
-			processThread.join();
-		} catch (Exception e) {
-		}
-		processThread = null;
+    	handler.removeCallbacks(latencyOverlayUpdate);
+
+		// stop thread, it finishes on its own
+		stopProcessThread();
 
 		super.onDestroy();
     }
 
+    /**
+     * Load the CAN signal definitions.  A signals.dbc file in the app's external files directory
+     * takes precedence over the built in definitions, so signals can be added without a rebuild.
+     *
+     * @return - compiled signal table.
+     */
+    private SignalTable loadSignalTable() {
+    	File dir = getExternalFilesDir(null);
+    	if (dir != null) {
+    		File file = new File(dir, SIGNALS_FILE_NAME);
+    		if (file.exists()) {
+    			try {
+    				return SignalTable.load(new FileInputStream(file));
+    			} catch (IOException e) {
+    				Log.e(TAG, "Ignoring " + file + ": " + e.getMessage());
+    			}
+    		}
+    	}
+
+    	try {
+    		return SignalTable.load(getResources().openRawResource(R.raw.signals));
+    	} catch (IOException e) {
+    		throw new RuntimeException("Built in signal definitions are invalid", e);
+    	}
+    }
+
+    /**
+     * Load the poll definitions, from a polls.txt file in the app's external files directory
+     * when there is one, like the signal definitions.
+     *
+     * @return - poll scheduler, with no polls if the definitions can't be read.
+     */
+    private PollScheduler loadPollScheduler() {
+    	File dir = getExternalFilesDir(null);
+    	if (dir != null) {
+    		File file = new File(dir, POLLS_FILE_NAME);
+    		if (file.exists()) {
+    			try {
+    				return PollScheduler.load(new FileInputStream(file));
+    			} catch (IOException e) {
+    				Log.e(TAG, "Ignoring " + file + ": " + e.getMessage());
+    			}
+    		}
+    	}
+
+    	try {
+    		return PollScheduler.load(getResources().openRawResource(R.raw.polls));
+    	} catch (IOException e) {
+    		throw new RuntimeException("Built in poll definitions are invalid", e);
+    	}
+    }
+
+    /**
+     * Set up the signal alarms.  Current and RPM alarms match the gauges' yellow and red bands;
+     * temperature and undervoltage limits are resources.  Alarms of the live pipeline are shown
+     * in the action bar through alarmListener.
+     *
+     * @return - alarm engine, without a listener.
+     */
+    private AlarmEngine createAlarmEngine() {
+    	AlarmEngine engine = new AlarmEngine();
+    	AlarmEngine.Level warning = AlarmEngine.Level.WARNING;
+    	AlarmEngine.Level critical = AlarmEngine.Level.CRITICAL;
+    	float cells = getResources().getInteger(R.integer.pack_series_cells) / 1000.0f;
+
+    	engine.addHighAlarm("High current", SignalTable.AMPS, warning,  AMPS_WARNING,  20, WARNING_DEBOUNCE_NANOS);
+    	engine.addHighAlarm("Overcurrent",  SignalTable.AMPS, critical, AMPS_CRITICAL, 20, 0);
+    	engine.addHighAlarm("High RPM",     SignalTable.RPM,  warning,  RPM_WARNING,   5,  WARNING_DEBOUNCE_NANOS);
+    	engine.addHighAlarm("Overspeed",    SignalTable.RPM,  critical, RPM_CRITICAL,  5,  0);
+    	engine.addHighAlarm("Hot motor", SignalTable.MOTOR_TEMP, warning,
+    			getResources().getInteger(R.integer.alarm_motor_temp_warning), 5, WARNING_DEBOUNCE_NANOS);
+    	engine.addHighAlarm("Motor overtemp", SignalTable.MOTOR_TEMP, critical,
+    			getResources().getInteger(R.integer.alarm_motor_temp_critical), 5, 0);
+    	engine.addHighAlarm("Hot controller", SignalTable.CONTROLLER_TEMP, warning,
+    			getResources().getInteger(R.integer.alarm_controller_temp_warning), 5, WARNING_DEBOUNCE_NANOS);
+    	engine.addHighAlarm("Controller overtemp", SignalTable.CONTROLLER_TEMP, critical,
+    			getResources().getInteger(R.integer.alarm_controller_temp_critical), 5, 0);
+    	engine.addLowAlarm("Low voltage", SignalTable.VOLTS, warning,
+    			getResources().getInteger(R.integer.alarm_cell_millivolts_warning) * cells, 1,
+    			UNDERVOLTAGE_DEBOUNCE_NANOS);
+    	engine.addLowAlarm("Undervoltage", SignalTable.VOLTS, critical,
+    			getResources().getInteger(R.integer.alarm_cell_millivolts_critical) * cells, 1,
+    			UNDERVOLTAGE_DEBOUNCE_NANOS);
+
+    	return engine;
+    }
+
+    /**
+     * Create a state of charge estimator for the pack described by the battery resources.
+     *
+     * @return - estimator with no samples yet.
+     */
+    private StateOfChargeEstimator createStateOfChargeEstimator() {
+    	return new StateOfChargeEstimator(
+    			getResources().getInteger(R.integer.pack_capacity_ah),
+    			getResources().getInteger(R.integer.pack_series_cells),
+    			StateOfChargeEstimator.Chemistry.valueOf(getResources().getString(R.string.pack_chemistry)));
+    }
+
+    /**
+     * Show the active alarms in the action bar, critical ones first.
+     */
+    private void updateAlarmText() {
+    	if (getActionBar() == null) {
+    		return;
+    	}
+    	StringBuilder text = new StringBuilder();
+    	for (AlarmEngine.Level level : new AlarmEngine.Level[] {
+    			AlarmEngine.Level.CRITICAL, AlarmEngine.Level.WARNING }) {
+    		for (AlarmEngine.Alarm alarm : activeAlarms) {
+    			if (alarm.level == level) {
+    				if (text.length() > 0) {
+    					text.append(", ");
+    				}
+    				text.append(alarm.name);
+    				if (level == AlarmEngine.Level.CRITICAL) {
+    					text.append('!');
+    				}
+    			}
+    		}
+    	}
+    	getActionBar().setSubtitle((text.length() > 0) ? text : null);
+    }
+
+    /**
+     * Restore the trip and lifetime energy totals and the state of charge saved by
+     * saveEnergyTotals().
+     */
+    private void restoreEnergyTotals() {
+    	SharedPreferences prefs = getSharedPreferences(ENERGY_PREFS_NAME, MODE_PRIVATE);
+    	for (int i = 0; i < EnergyIntegrator.TOTAL_COUNT; i++) {
+    		energy.restore(i,
+    				Double.longBitsToDouble(prefs.getLong("trip" + i, 0)),
+    				Double.longBitsToDouble(prefs.getLong("lifetime" + i, 0)));
+    	}
+    	if (prefs.contains("stateOfCharge")) {
+    		long ageMillis = System.currentTimeMillis() - prefs.getLong("stateOfChargeSavedMillis", 0);
+    		stateOfCharge.restore(prefs.getFloat("stateOfCharge", 100), ageMillis * 1000000L);
+    	}
+    }
+
+    /**
+     * Save the energy totals and state of charge.  Must be called on the thread that updates
+     * them.
+     */
+    private void saveEnergyTotals() {
+    	SharedPreferences.Editor editor = getSharedPreferences(ENERGY_PREFS_NAME, MODE_PRIVATE).edit();
+    	for (int i = 0; i < EnergyIntegrator.TOTAL_COUNT; i++) {
+    		editor.putLong("trip" + i, Double.doubleToRawLongBits(energy.getTrip(i)));
+    		editor.putLong("lifetime" + i, Double.doubleToRawLongBits(energy.getLifetime(i)));
+    	}
+    	if (stateOfCharge.hasEstimate()) {
+    		editor.putFloat("stateOfCharge", stateOfCharge.getStateOfCharge());
+    		editor.putLong("stateOfChargeSavedMillis", System.currentTimeMillis());
+    	}
+    	editor.apply();
+    }
+
+    /**
+     * Open a recorder for the decoded signals, repairing any trip cut short by a crash.
+     *
+     * @return - recorder, or null if trips can't be recorded.
+     */
+    private TripRecorder openTripRecorder() {
+    	String[] names = new String[signalTable.getChannelCount()];
+    	for (int i = 0; i < names.length; i++) {
+    		names[i] = signalTable.getChannelName(i);
+    	}
+    	TripRecorder recorder = new TripRecorder(new File(getFilesDir(), TRIPS_DIRECTORY_NAME), names,
+    			getResources().getInteger(R.integer.trip_segment_kb) * 1024,
+    			getResources().getInteger(R.integer.trip_max_segments));
+    	try {
+    		recorder.open();
+    		return recorder;
+    	} catch (IOException e) {
+    		Log.e(TAG, "Not recording trip: " + e.getMessage());
+    		return null;
+    	}
+    }
+
+    /**
+     * Return the directory raw relay data is captured to and replayed from.
+     *
+     * @return - captures directory.
+     */
+    private File getCapturesDirectory() {
+    	File dir = getExternalFilesDir(null);
+    	return new File((dir != null) ? dir : getFilesDir(), CAPTURES_DIRECTORY_NAME);
+    }
+
+    /**
+     * Return the most recent capture.
+     *
+     * @return - capture file, or null if there are none.
+     */
+    private File findNewestCapture() {
+    	File[] files = getCapturesDirectory().listFiles();
+    	File newest = null;
+    	if (files != null) {
+    		for (File f : files) {
+    			if (f.getName().endsWith(CAPTURE_FILE_SUFFIX)
+    					&& (newest == null || f.lastModified() > newest.lastModified())) {
+    				newest = f;
+    			}
+    		}
+    	}
+    	return newest;
+    }
+
+    /**
+     * Create the source of relay data.  Replays the newest capture when a replay was selected,
+     * otherwise uses the paired relay module, or a RelayEmulator running on the development
+     * machine when there is no bluetooth (e.g. in the Android emulator).
+     *
+     * @return - telemetry source, or null if there's nothing to replay.
+     */
+    private TelemetrySource createTelemetrySource() {
+    	if (replaySpeed != LIVE) {
+    		File capture = findNewestCapture();
+    		return (capture != null) ? new ReplayTelemetrySource(capture, replaySpeed) : null;
+    	}
+    	if (BluetoothAdapter.getDefaultAdapter() == null) {
+    		return new TcpTelemetrySource(EMULATOR_HOST, EMULATOR_PORT);
+    	}
+    	return new RfcommTelemetrySource(RELAY_DEVICE_NAME);
+    }
+
     /**
      * Determines state of bluetooth and updates icon acccordingly.
      */
@@ -101,6 +529,11 @@ public class MainActivity extends Activity {
         
         btMenuItem = menu.findItem(R.id.action_connect_to_module);
         updateBtIcon();
+        menu.findItem(R.id.action_capture).setChecked(captureEnabled);
+        menu.findItem(R.id.action_render_thread).setChecked(isRenderThreadEnabled());
+        // only debuggable builds show the pipeline stats, dumpsys has them in any build
+        menu.findItem(R.id.action_pipeline_stats).setVisible(
+        		(getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
         
         return true;
     }
@@ -114,158 +547,535 @@ public class MainActivity extends Activity {
         	case R.id.action_settings:
         		return true;
         	case R.id.action_connect_to_module:
+        		replaySpeed = LIVE;
         		handleActionConnect();
     			return true;
+        	case R.id.action_capture:
+        		// takes effect on the next connect
+        		captureEnabled = !item.isChecked();
+        		item.setChecked(captureEnabled);
+        		return true;
+        	case R.id.action_render_thread:
+        		item.setChecked(!item.isChecked());
+        		setRenderThreadEnabled(item.isChecked());
+        		return true;
+        	case R.id.action_latency_overlay:
+        		item.setChecked(!item.isChecked());
+        		setLatencyOverlayShown(item.isChecked());
+        		return true;
+        	case R.id.action_export_latency:
+        		exportLatency();
+        		return true;
+        	case R.id.action_pipeline_stats:
+        		showPipelineStats();
+        		return true;
+        	case R.id.action_replay_1x:
+        		startReplay(1);
+        		return true;
+        	case R.id.action_replay_10x:
+        		startReplay(10);
+        		return true;
+        	case R.id.action_replay_max:
+        		startReplay(0);
+        		return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Show or hide the latency summary over the dashboard.
+     *
+     * @param shown - true to show it.
+     */
+    private void setLatencyOverlayShown(boolean shown) {
+    	handler.removeCallbacks(latencyOverlayUpdate);
+    	if (shown) {
+    		if (latencyOverlay == null) {
+    			latencyOverlay = new TextView(this);
+    			latencyOverlay.setTextColor(Color.WHITE);
+    			latencyOverlay.setBackgroundColor(Color.argb(160, 0, 0, 0));
+    			latencyOverlay.setTypeface(Typeface.MONOSPACE);
+    			addContentView(latencyOverlay, new ViewGroup.LayoutParams(
+    					ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+    		}
+    		latencyOverlay.setVisibility(View.VISIBLE);
+    		latencyOverlayUpdate.run();
+    	}
+    	else if (latencyOverlay != null) {
+    		latencyOverlay.setVisibility(View.GONE);
+    	}
+    }
+
+    /**
+     * Write the latency histograms as CSV to the app's external files directory.
+     */
+    private void exportLatency() {
+    	File dir = getExternalFilesDir(null);
+    	File file = new File((dir != null) ? dir : getFilesDir(), "latency-" + System.currentTimeMillis() + ".csv");
+    	String message;
+    	try {
+    		Writer out = new FileWriter(file);
+    		try {
+    			latency.writeCsv(out);
+    		} finally {
+    			out.close();
+    		}
+    		message = getString(R.string.latency_exported, file);
+    	} catch (IOException e) {
+    		Log.e(TAG, "Latency not exported: " + e.getMessage());
+    		message = getString(R.string.latency_export_failed, e.getMessage());
+    	}
+    	Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Show the pipeline counters in a dialog, refreshed until it is dismissed.
+     */
+    private void showPipelineStats() {
+    	final long[] sample = stats.newSample();
+    	final TextView text = new TextView(this);
+    	text.setTypeface(Typeface.MONOSPACE);
+    	text.setHorizontallyScrolling(true);
+    	final Runnable update = new Runnable() {
+    		@Override
+    		public void run() {
+    			StringWriter out = new StringWriter();
+    			PrintWriter writer = new PrintWriter(out);
+    			dumpConnection("", writer);
+    			stats.dump(writer, sample);
+    			text.setText(out.toString());
+    			handler.postDelayed(this, STATS_PANEL_INTERVAL_MILLIS);
+    		}
+    	};
+    	AlertDialog dialog = new AlertDialog.Builder(this)
+    			.setTitle(R.string.action_pipeline_stats)
+    			.setView(text)
+    			.setPositiveButton(android.R.string.ok, null)
+    			.create();
+    	dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+    		@Override
+    		public void onDismiss(DialogInterface d) {
+    			handler.removeCallbacks(update);
+    		}
+    	});
+    	dialog.show();
+    	update.run();
+    }
+
+    /**
+     * Add the pipeline counters and latencies to "adb shell dumpsys activity com.speedo".
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+    	super.dump(prefix, fd, writer, args);
+    	dumpConnection(prefix, writer);
+    	writer.print(prefix);
+    	writer.println("Pipeline:");
+    	stats.dump(writer, dumpSample);
+    	if (polls.getPollCount() > 0) {
+    		writer.print(prefix);
+    		writer.println("Polls:");
+    		for (int i = 0; i < polls.getPollCount(); i++) {
+    			writer.printf("%-20s %12d responses %8d timeouts%n",
+    					polls.getName(i), polls.getResponseCount(i), polls.getTimeoutCount(i));
+    		}
+    	}
+    	writer.print(prefix);
+    	writer.println("Latency:");
+    	StringBuilder text = new StringBuilder();
+    	latency.appendSummary(text);
+    	writer.println(text);
+    	writer.flush();
+    }
+
+    /**
+     * Print the state of the relay connection and why it last failed, if it was started.
+     *
+     * @param prefix - text before each line.
+     * @param writer - where to print.
+     */
+    private void dumpConnection(String prefix, PrintWriter writer) {
+    	RelayConnection connection = relayConnection;
+    	if (connection == null) {
+    		return;
+    	}
+    	writer.print(prefix);
+    	writer.println("Connection: " + connection.getState());
+    	String error = connection.getLastError();
+    	if (error != null) {
+    		writer.print(prefix);
+    		writer.println("Last error: " + error);
+    	}
+    }
+
+    /**
+     * Replay the newest capture in place of the relay.
+     *
+     * @param speed - playback speed, 0 for as fast as possible.
+     */
+    private void startReplay(float speed) {
+    	stopProcessThread();
+    	replaySpeed = speed;
+    	startProcessThread();
+    	updateBtIcon();
+    }
+
     /**
      * Handle bluetooth connect/disconnect action.  For connect, start processThread to connect
-     * and handle input.  For testing, kicks off simulated data loop for testing UI components.
-     * For disconnect, stops process thread.
+     * and handle input.  For disconnect, stops process thread.
      */
     private void handleActionConnect() {
     	
     	if ((processThread != null) && (processThread.isAlive())) {
     		// we want to disconnect
-
-    		runThread = false;
-    		try {
-				processThread.interrupt();
-    			processThread.join();
-    		} catch (Exception e) {
-    		}
-    		processThread = null;
-    		
+    		stopProcessThread();
     		btMenuItem.setIcon(R.drawable.ic_action_bluetooth_light);
     	}
     	else {
     		// we want to connect
+    		startProcessThread();
+    		btMenuItem.setIcon(R.drawable.ic_action_bluetooth_searching_light);
+    	}
+    }
 
-    		runThread = true;
-    		processThread = new Thread(new Runnable() {
-    			
-    			private final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    			
-    			private int lastXVal = 0;
-    			private PrintWriter os = null;
-    			private BufferedReader is = null;
-    			
-    			protected void attemptBtConnect() {
-        			BluetoothAdapter mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        			BluetoothSocket bs;
-
-        			// TBD
-        			//if (!mBluetoothAdapter.isEnabled()) {
-        			//}
-
-        			Set<BluetoothDevice> pairedDevices = mBluetoothAdapter.getBondedDevices();
-        			BluetoothDevice btDev;
-    				
-        			for (int i = 0; i < pairedDevices.size(); i++) {
-        				try {
-        					btDev = ((BluetoothDevice) pairedDevices.toArray()[i]);
-
-        					if (btDev.getName().equals("CAN Relay")) {
-        						bs = btDev.createRfcommSocketToServiceRecord(SPP_UUID);
-        						bs.connect();
-
-        						os = new PrintWriter(bs.getOutputStream(), true);
-        						is = new BufferedReader(new InputStreamReader(bs.getInputStream()));
-
-        						break; //Needed in the case that there are multiple devices
-        					}
-        				} catch (Exception e) {
-        				}
-        			}
+    /**
+     * Stop processThread without waiting for it.  Closing the connection aborts any connect,
+     * read or retry delay in progress, so the thread exits promptly.
+     */
+    private void stopProcessThread() {
+    	if (processThread != null) {
+    		relayConnection.stop();
+    		processThread.interrupt();
+    		processThread = null;
+    	}
+    }
+
+    /**
+     * Start processThread.  It connects to the relay, reconnecting whenever the link is lost,
+     * and publishes decoded readings until stopped.
+     */
+    private void startProcessThread() {
+    	TelemetrySource source = createTelemetrySource();
+    	if (source == null) {
+    		Log.w(TAG, "No capture to replay in " + getCapturesDirectory());
+    		return;
+    	}
+    	final RelayConnection connection = new RelayConnection(source);
+
+    	// capture only what comes from the relay
+    	final File capturesDirectory = (captureEnabled && replaySpeed == LIVE) ? getCapturesDirectory() : null;
+
+    	// a replay already holds the responses
+    	final PollScheduler scheduler = (replaySpeed == LIVE && polls.getPollCount() > 0) ? polls : null;
+
+    	// a replay runs through the whole pipeline, but mustn't add to the saved totals, record a
+    	// trip or raise alarms: it gets totals and alarms of its own, integrated on the capture's
+    	// clock so they're right at any speed, and isn't recorded
+    	final ReplayTelemetrySource replay = (source instanceof ReplayTelemetrySource)
+    			? (ReplayTelemetrySource) source : null;
+    	final EnergyIntegrator sessionEnergy = (replay != null) ? new EnergyIntegrator() : energy;
+    	final StateOfChargeEstimator sessionStateOfCharge =
+    			(replay != null) ? createStateOfChargeEstimator() : stateOfCharge;
+    	final AlarmEngine sessionAlarms = (replay != null) ? createAlarmEngine() : alarms;
+
+    	// a thread that is still shutting down must finish before the new one publishes, the
+    	// snapshot buffer takes a single writer
+    	final Thread previousThread = lastProcessThread;
+
+    	relayConnection = connection;
+    	processThread = new Thread(new Runnable() {
+
+    			// latest value of every signal, indexed by channel
+    			private final float[] values = new float[signalTable.getChannelCount()];
+
+    			private final SlcanDecoder decoder = new SlcanDecoder(new SlcanDecoder.FrameListener() {
+    				@Override
+    				public void onFrame(int id, byte[] data, int length, long timestampNanos) {
+    					if (scheduler != null) {
+    						scheduler.onFrame(id, data, length, timestampNanos);
+    					}
+    					long updated = signalTable.decode(id, data, length, values);
+    					if (updated == 0 && !signalTable.isKnownId(id)) {
+    						unknownIds++;
+    					}
+    					if (updated != 0) {
+    						sessionAlarms.evaluate(timestampNanos, values, updated);
+    						record(timestampNanos, updated);
+    						if ((updated & POWER_CHANNELS) != 0) {
+    							voltsSum += values[SignalTable.VOLTS];
+    							ampsSum += values[SignalTable.AMPS];
+    							wattsSum += (double) values[SignalTable.VOLTS] * values[SignalTable.AMPS];
+    							powerSamples++;
+    						}
+    						updatedNanos = timestampNanos;
+    					}
+    				}
+    			});
+
+    			// channels that feed the energy totals and state of charge
+    			private static final long POWER_CHANNELS =
+    					(1L << SignalTable.VOLTS) | (1L << SignalTable.AMPS);
+
+    			// arrival time of the newest decoded signal not yet published, 0 if none
+    			private long updatedNanos;
+
+    			// volts, amps and their product decoded from the current read.  Every frame of a
+    			// read has the read's time, so the energy totals and state of charge get their
+    			// average once per read rather than every frame at the same time, which they'd
+    			// skip as no interval
+    			private double voltsSum;
+    			private double ampsSum;
+    			private double wattsSum;
+    			private int powerSamples;
+
+    			// decoder counts already added to stats, and unknown ids not yet added
+    			private long framesCounted;
+    			private long malformedCounted;
+    			private long unknownIds;
+
+    			// when the energy totals were last saved
+    			private long energySavedNanos = System.nanoTime();
+
+    			// decoded signals are recorded here, null if recording failed
+    			private TripRecorder recorder;
+
+    			// stream read from the relay, copied to a capture file when capturing
+    			private InputStream input;
+
+    			/**
+    			 * Start reading a new connection, capturing it if enabled, and start polling it.
+    			 */
+    			private void openInput() {
+    				if (scheduler != null) {
+    					scheduler.start(connection.getSource().getOutputStream());
+    				}
+    				input = connection.getSource().getInputStream();
+    				if (capturesDirectory != null) {
+    					File file = new File(capturesDirectory, "capture-" + System.currentTimeMillis()
+    							+ CAPTURE_FILE_SUFFIX);
+    					try {
+    						capturesDirectory.mkdirs();
+    						input = new CaptureInputStream(input, new FileOutputStream(file));
+    					} catch (IOException e) {
+    						Log.e(TAG, "Not capturing to " + file + ": " + e.getMessage());
+    					}
+    				}
+    			}
+
+    			/**
+    			 * Stop polling and finish a capture in progress.  The connection closes the relay
+    			 * streams itself.
+    			 */
+    			private void closeInput() {
+    				if (scheduler != null) {
+    					scheduler.stop();
+    				}
+    				if (input instanceof CaptureInputStream) {
+    					try {
+    						input.close();
+    					} catch (IOException e) {
+    						Log.e(TAG, "Capture incomplete: " + e.getMessage());
+    					}
+    				}
+    				input = null;
+    			}
+
+    			/**
+    			 * Record decoded signals.  A recording failure stops recording, not processing.
+    			 *
+    			 * @param timestampNanos - arrival time of the signals.
+    			 * @param updated - mask of the channels decoded.
+    			 */
+    			private void record(long timestampNanos, long updated) {
+    				if (recorder != null) {
+    					try {
+    						recorder.append(timestampNanos, values, updated);
+    					} catch (IOException e) {
+    						Log.e(TAG, "Trip recording stopped: " + e.getMessage());
+    						recorder.close();
+    						recorder = null;
+    					}
+    				}
+    			}
+
+    			/**
+    			 * Add a read and what was decoded from it to the pipeline stats, once per read so
+    			 * the counters cost nothing per byte or frame.
+    			 *
+    			 * @param bytes - number of bytes read.
+    			 */
+    			private void countRead(int bytes) {
+    				stats.add(PipelineStats.BYTES_READ, bytes);
+    				stats.add(PipelineStats.DECODE_NANOS, System.nanoTime() - decoder.getReadNanos());
+    				stats.add(PipelineStats.FRAMES_DECODED, decoder.getFramesDecoded() - framesCounted);
+    				stats.add(PipelineStats.MALFORMED_FRAMES, decoder.getMalformedFrames() - malformedCounted);
+    				if (unknownIds != 0) {
+    					stats.add(PipelineStats.UNKNOWN_IDS, unknownIds);
+    					unknownIds = 0;
+    				}
+    				framesCounted = decoder.getFramesDecoded();
+    				malformedCounted = decoder.getMalformedFrames();
+    			}
+
+    			/**
+    			 * Integrate the average amps and power of the read into the energy totals, and
+    			 * the average volts and amps into the state of charge.
+    			 *
+    			 * @param timestampNanos - time of the read.
+    			 */
+    			private void addPowerSample(long timestampNanos) {
+    				double amps = ampsSum / powerSamples;
+    				sessionEnergy.addSample(timestampNanos, amps, wattsSum / powerSamples);
+    				sessionStateOfCharge.addSample(timestampNanos, (float) (voltsSum / powerSamples), (float) amps);
+    				voltsSum = 0;
+    				ampsSum = 0;
+    				wattsSum = 0;
+    				powerSamples = 0;
+    			}
+
+    			/**
+    			 * Publish the current readings to the UI and schedule a dashboard update.
+    			 *
+    			 * @param timestampNanos - arrival time of the newest reading.
+    			 */
+    			private void publish(long timestampNanos) {
+    				values[SignalTable.TRIP_AMP_HOURS]          = (float) sessionEnergy.getTripAmpHours();
+    				values[SignalTable.TRIP_KILOWATT_HOURS]     = (float) sessionEnergy.getTripKilowattHours();
+    				values[SignalTable.LIFETIME_KILOWATT_HOURS] = (float) sessionEnergy.getLifetimeKilowattHours();
+    				// NaN until there is an estimate, so the gauge isn't set to a guess
+    				values[SignalTable.STATE_OF_CHARGE]         = sessionStateOfCharge.hasEstimate()
+    						? sessionStateOfCharge.getStateOfCharge() : Float.NaN;
+    				values[SignalTable.KILOWATTS] = values[SignalTable.VOLTS] * values[SignalTable.AMPS] / 1000.0f;
+
+    				TelemetrySnapshot snapshot = telemetry.beginWrite();
+    				snapshot.set(values, timestampNanos);
+    				latency.onPublish(snapshot);
+    				telemetry.publish();
+    				history.add(timestampNanos, values);
+
+    				// update the UI fragment on the next frame
+    				dashboard.requestUpdate();
     			}
     			
 	            @Override
 	            public void run() {
-	            	while (runThread == true) {
+	            	if (previousThread != null) {
+	            		try {
+	            			previousThread.join();
+	            		} catch (InterruptedException e) {
+	            			return;
+	            		}
+	            	}
+	            	if (replay == null) {
+	            		recorder = openTripRecorder();
+	            	}
+
+	            	while (!connection.isStopped()) {
 	            		
-	            		/*if (is == null) {
-	            			// connect via bluetooth
-	            			attemptBtConnect();
-	            			
-	            			if (is == null) {
-	            				// still not connected, delay and retry
-	    		            	try {
-	    		            		Thread.sleep(3000);
-	    		            	} catch (Exception e) {
-	    		            	}
+	            		if (connection.getState() != RelayConnection.State.CONNECTED) {
+	            			// connect to the relay, retrying until connected or stopped
+	            			if (connection.connect()) {
+	            				decoder.reset();
+	            				openInput();
 	            			}
 	            		}
-	            		
-	            		// BT is connected, so read next packet
 	            		else {
-	            			// TBD
-	            			while ((runThread == true) && (is != null)) {
-	            				String dataString;
-	            				try {
-	            					dataString = is.readLine();
-	            					// TBD - parse data
-	            				} catch (Exception e) {
-	            					// BT failed
-	            					is = null;
-	            					os = null;
+	            			// connected, so decode whatever the relay sent
+	            			try {
+	            				int count = decoder.read(input);
+	            				if (count < 0) {
+	            					// relay closed the stream, reconnect right away
+	            					closeInput();
+	            					sessionAlarms.reset(System.nanoTime());
+	            					stats.add(PipelineStats.RECONNECTS, 1);
+	            					connection.linkLost("Relay closed the connection");
 	            				}
+	            				else {
+	            					countRead(count);
+	            					if (powerSamples != 0) {
+	            						addPowerSample((replay != null) ? replay.getCaptureNanos() : decoder.getReadNanos());
+	            					}
+	            					if (updatedNanos != 0) {
+	            						// one publish for everything decoded from this read
+	            						long publishStart = System.nanoTime();
+	            						publish(updatedNanos);
+	            						updatedNanos = 0;
+	            						stats.add(PipelineStats.PUBLISHES, 1);
+	            						stats.add(PipelineStats.PUBLISH_NANOS, System.nanoTime() - publishStart);
+	            					}
+	            				}
+	            			} catch (IOException e) {
+	            				// link failed, reconnect right away
+	            				closeInput();
+	            				sessionAlarms.reset(System.nanoTime());
+	            				stats.add(PipelineStats.RECONNECTS, 1);
+	            				connection.linkLost(e.getMessage());
 	            			}
-	            			
-	            		}*/
-	            		
-	            		//
-	            		// FOR TESTING ONLY!
-	            		//
-	            		
-		            	lastXVal++;
-		            	uiFragment.volts          = lastXVal % 140;
-		            	uiFragment.amps           = lastXVal % 50  * 5;
-		            	uiFragment.rpms           = lastXVal % 100 * 2;
-		            	uiFragment.motorTemp      = lastXVal%200;
-		            	uiFragment.controllerTemp = lastXVal%200;
-		            	
-		            	// update the UI fragment
-		            	if (uiFragment.getView() != null) {
-			            	uiFragment.getView().post(uiFragment.updateViews);
-		            	}
-		            	
-		            	try {
-		            		Thread.sleep(1000);
-		            	} catch (Exception e) {
-		            	}
+	            		}
+
+	            		if (replay == null && System.nanoTime() - energySavedNanos > ENERGY_SAVE_INTERVAL_NANOS) {
+	            			saveEnergyTotals();
+	            			energySavedNanos = System.nanoTime();
+	            		}
+	            	}
+
+	            	closeInput();
+	            	sessionAlarms.reset(System.nanoTime());
+	            	if (replay == null) {
+	            		saveEnergyTotals();
+	            	}
+	            	if (recorder != null) {
+	            		recorder.close();
 	            	}
 	            }
     		});
-    		processThread.start();
-    		
-    		btMenuItem.setIcon(R.drawable.ic_action_bluetooth_searching_light);
-    	}
+    	lastProcessThread = processThread;
+    	processThread.start();
     }
 
     /**
      * Main fragment that contains all of our gauges.
      */
     public static class PlaceholderFragment extends Fragment {
-        
-        public Runnable updateViews;
 
-        // data
-        public float amps;
-        public float volts;
-        public float rpms;
-        public float motorTemp;
-        public float controllerTemp;
+        // argument: true to draw the gauges and graph on a DashboardSurfaceView's render
+        // thread, which then also runs the dashboard listener
+        private static final String ARG_RENDER_THREAD = "renderThread";
+
+        // the pipeline the fragment shows, taken from its DashboardHost activity each time the
+        // view is created, since the system may recreate the fragment on its own:
+
+        // coalesces data updates into display frames
+        private DashboardUpdater dashboard;
+
+        // trip totals, reset by the reset button
+        private EnergyIntegrator energy;
+
+        // history of GRAPH_CHANNELS shown by the graph
+        private TimeSeriesStore history;
+
+        // stamped as snapshots are applied and drawn
+        private LatencyTracer latency;
+
+        // counts the updates applied and the time they take
+        private PipelineStats stats;
 
-        // graph data
-        private LineGraphSeries<DataPoint> series;
-        private int seriesXVal;
+        // end of the newest point in the graph
+        private long graphEndNanos;
+
+        // scratch space for filling the graph: points by series, and one point of every series
+        private final long[]    graphTimes = new long[ChartView.CAPACITY];
+        private final float[][] graphMin   = new float[GRAPH_CHANNELS.length][ChartView.CAPACITY];
+        private final float[][] graphMax   = new float[GRAPH_CHANNELS.length][ChartView.CAPACITY];
+        private final float[][] graphMean  = new float[GRAPH_CHANNELS.length][ChartView.CAPACITY];
+        private final float[] pointMin  = new float[GRAPH_CHANNELS.length];
+        private final float[] pointMax  = new float[GRAPH_CHANNELS.length];
+        private final float[] pointMean = new float[GRAPH_CHANNELS.length];
 
         // views
         private NeedleGauge ampGauge;
         private NeedleGauge rpmGauge;
-        private GraphView   graph;
+        private ChartView   graph;
         private CapacityGauge batGauge;
         private MotorTempGauge motorTempGauge;
         private ControllerTempGauge controllerTempGauge;
@@ -274,27 +1084,96 @@ public class MainActivity extends Activity {
         private TextView wattsText;
         private TextView ahText;
         private TextView whText;
+        private TextView lifetimeText;
+
+        // tablet detail table text, formatted without allocating
+        private DecimalTextFormatter voltsFormat;
+        private DecimalTextFormatter ampsFormat;
+        private DecimalTextFormatter wattsFormat;
+        private DecimalTextFormatter ahFormat;
+        private DecimalTextFormatter whFormat;
+        private DecimalTextFormatter lifetimeFormat;
+
+        // tells the latency tracer when the views are drawn, when they're drawn on the UI thread
+        private View tracedView;
+        private final ViewTreeObserver.OnDrawListener drawTracer = new ViewTreeObserver.OnDrawListener() {
+        	@Override
+        	public void onDraw() {
+        		latency.onDrawn();
+        	}
+        };
 
         public PlaceholderFragment() {
         }
 
+        /**
+         * Create the dashboard fragment.
+         *
+         * @param renderThread - true to draw the dashboard on a render thread of its own.
+         * @return - fragment.
+         */
+        public static PlaceholderFragment newInstance(boolean renderThread) {
+        	Bundle arguments = new Bundle();
+        	arguments.putBoolean(ARG_RENDER_THREAD, renderThread);
+        	PlaceholderFragment fragment = new PlaceholderFragment();
+        	fragment.setArguments(arguments);
+        	return fragment;
+        }
+
+        @Override
+        public void onAttach(Activity activity) {
+        	super.onAttach(activity);
+        	if (!(activity instanceof DashboardHost))
+        		throw new IllegalStateException(activity.getClass().getName() + " does not implement DashboardHost.");
+        }
+
         @Override
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                 Bundle savedInstanceState) {
-            View rootView = inflater.inflate(R.layout.fragment_main, container, false);
-            
-            ampGauge            = (NeedleGauge)         rootView.findViewById(R.id.ampGauge);
-            rpmGauge            = (NeedleGauge)         rootView.findViewById(R.id.rpmGauge);
-            graph               = (GraphView)           rootView.findViewById(R.id.graph);
-            batGauge            = (CapacityGauge)       rootView.findViewById(R.id.capacityGauge);
-            motorTempGauge      = (MotorTempGauge)      rootView.findViewById(R.id.motorTempGauge);
-            controllerTempGauge = (ControllerTempGauge) rootView.findViewById(R.id.controllerTempGauge);
+            DashboardHost host = (DashboardHost) getActivity();
+            dashboard = host.getDashboard();
+            energy    = host.getEnergy();
+            history   = host.getHistory();
+            latency   = host.getLatency();
+            stats     = host.getStats();
+
+            final DashboardSurfaceView surface;
+            View rootView;
+            if (getArguments().getBoolean(ARG_RENDER_THREAD, false)) {
+            	rootView = inflater.inflate(R.layout.fragment_surface, container, false);
+            	surface             = (DashboardSurfaceView) rootView.findViewById(R.id.dashboardSurface);
+            	ampGauge            = surface.getAmpGauge();
+            	rpmGauge            = surface.getRpmGauge();
+            	graph               = surface.getGraph();
+            	batGauge            = surface.getCapacityGauge();
+            	motorTempGauge      = surface.getMotorTempGauge();
+            	controllerTempGauge = surface.getControllerTempGauge();
+            } else {
+            	rootView = inflater.inflate(R.layout.fragment_main, container, false);
+            	surface             = null;
+            	ampGauge            = (NeedleGauge)         rootView.findViewById(R.id.ampGauge);
+            	rpmGauge            = (NeedleGauge)         rootView.findViewById(R.id.rpmGauge);
+            	graph               = (ChartView)           rootView.findViewById(R.id.graph);
+            	batGauge            = (CapacityGauge)       rootView.findViewById(R.id.capacityGauge);
+            	motorTempGauge      = (MotorTempGauge)      rootView.findViewById(R.id.motorTempGauge);
+            	controllerTempGauge = (ControllerTempGauge) rootView.findViewById(R.id.controllerTempGauge);
+            }
             voltsText           = (TextView)            rootView.findViewById(R.id.voltsTextView);
             ampsText            = (TextView)            rootView.findViewById(R.id.ampsTextView);
             wattsText           = (TextView)            rootView.findViewById(R.id.wattsTextView);
             ahText              = (TextView)            rootView.findViewById(R.id.ahTextView);
             whText              = (TextView)            rootView.findViewById(R.id.whTextView);
+            lifetimeText        = (TextView)            rootView.findViewById(R.id.lifetimeTextView);
             
+            if (voltsText != null) {
+            	voltsFormat    = new DecimalTextFormatter(voltsText,    1, " V");
+            	ampsFormat     = new DecimalTextFormatter(ampsText,     1, " A");
+            	wattsFormat    = new DecimalTextFormatter(wattsText,    1, " kW");
+            	ahFormat       = new DecimalTextFormatter(ahText,       1, " Ah");
+            	whFormat       = new DecimalTextFormatter(whText,       1, " kWh");
+            	lifetimeFormat = new DecimalTextFormatter(lifetimeText, 1, " kWh total");
+            }
+
             if (rootView.findViewById(R.id.tabletLayout) == null) {
             	// for small screen layouts, change text sizes
             	ampGauge.setLabelTextSize(16);
@@ -311,12 +1190,12 @@ public class MainActivity extends Activity {
                 }
             });
             // configure value range and ticks
-            ampGauge.setMaxSpeed(600);
+            ampGauge.setMaxSpeed(AMPS_MAX);
             ampGauge.setMajorTickStep(100);
             ampGauge.setMinorTicks(3);
-            ampGauge.addColoredRange(0,   400, Color.GREEN);
-            ampGauge.addColoredRange(400, 500, Color.YELLOW);
-            ampGauge.addColoredRange(500, 600, Color.RED);
+            ampGauge.addColoredRange(0,             AMPS_WARNING,  Color.GREEN);
+            ampGauge.addColoredRange(AMPS_WARNING,  AMPS_CRITICAL, Color.YELLOW);
+            ampGauge.addColoredRange(AMPS_CRITICAL, AMPS_MAX,      Color.RED);
             ampGauge.setTitle("Amps");
 
             // Add label converter
@@ -327,57 +1206,181 @@ public class MainActivity extends Activity {
                 }
             });
             // configure value range and ticks
-            rpmGauge.setMaxSpeed(300);
+            rpmGauge.setMaxSpeed(RPM_MAX);
             rpmGauge.setMajorTickStep(50);
             rpmGauge.setMinorTicks(3);
-            rpmGauge.addColoredRange(30, 140, Color.GREEN);
-            rpmGauge.addColoredRange(140, 180, Color.YELLOW);
-            rpmGauge.addColoredRange(180, 400, Color.RED);
+            rpmGauge.addColoredRange(RPM_NORMAL,   RPM_WARNING,  Color.GREEN);
+            rpmGauge.addColoredRange(RPM_WARNING,  RPM_CRITICAL, Color.YELLOW);
+            rpmGauge.addColoredRange(RPM_CRITICAL, 400,          Color.RED);
             rpmGauge.setTitle("RPM");
 
-            seriesXVal = 0;
-            series = new LineGraphSeries<DataPoint>();
-            series.setThickness(2);
-            series.setColor(Color.CYAN);
-            graph.addSeries(series);
-            
-            GridLabelRenderer rend = graph.getGridLabelRenderer();
-            rend.setVerticalLabelsColor(Color.WHITE);
-            rend.setHorizontalLabelsVisible(false);
-            rend.setVerticalAxisTitleColor(Color.WHITE);
-            rend.setGridColor(Color.WHITE);
-
-            Viewport viewPort = graph.getViewport();
-            viewPort.setYAxisBoundsManual(true);
-            viewPort.setMinY(0.0);
-            viewPort.setMaxY(160.0);
+            // same order as GRAPH_CHANNELS, each on its own scale
+            graph.addSeries("Volts", Color.CYAN,              0, 160);
+            graph.addSeries("Amps",  Color.YELLOW,            0, 600);
+            graph.addSeries("kW",    Color.GREEN,             0, 100);
+            graph.addSeries("Motor", Color.MAGENTA,           0, 200);
+            graph.addSeries("Ctrl",  Color.rgb(255, 128, 0),  0, 200);
+            graph.setWindowListener(new ChartView.WindowListener() {
+            	@Override
+            	public void onWindowChanged(ChartView chart) {
+            		fillGraph();
+            	}
+            });
             
-            updateViews = new Runnable() {
+            // trip totals only show in tablet mode
+            View resetButton = rootView.findViewById(R.id.resetButton);
+            if (resetButton != null) {
+            	resetButton.setOnClickListener(new View.OnClickListener() {
+            		@Override
+            		public void onClick(View v) {
+            			energy.requestTripReset();
+            		}
+            	});
+            }
+
+            // only redraw what changes at the resolution it's displayed with
+            dashboard.setResolution(SignalTable.VOLTS,           0.1f);
+            dashboard.setResolution(SignalTable.AMPS,            0.1f);
+            dashboard.setResolution(SignalTable.RPM,             1.0f);
+            dashboard.setResolution(SignalTable.MOTOR_TEMP,      1.0f);
+            dashboard.setResolution(SignalTable.CONTROLLER_TEMP, 1.0f);
+            dashboard.setResolution(SignalTable.TRIP_AMP_HOURS,          0.1f);
+            dashboard.setResolution(SignalTable.TRIP_KILOWATT_HOURS,     0.1f);
+            dashboard.setResolution(SignalTable.LIFETIME_KILOWATT_HOURS, 0.1f);
+            dashboard.setResolution(SignalTable.STATE_OF_CHARGE,         1.0f);
+            dashboard.setResolution(SignalTable.KILOWATTS,               0.1f);
+            DashboardUpdater.Listener listener = new DashboardUpdater.Listener() {
 	            @Override
-	            public void run() {
-	            	series.appendData(
-	            			new DataPoint(
-	            					seriesXVal++,
-	            					volts), true, 40);
-	            	ampGauge.setSpeed(amps);
-	            	rpmGauge.setSpeed(rpms);
-	            	batGauge.setCapacity((int)Math.round((volts / 120.0) * 100));
-	            	motorTempGauge.setTemp(Math.round(motorTemp));
-	            	controllerTempGauge.setTemp(Math.round(controllerTemp));
+	            public void onDashboardUpdate(TelemetrySnapshot snapshot, long changed) {
+	            	long startNanos = latency.onUpdateStart(snapshot);
+
+	            	float volts          = snapshot.values[SignalTable.VOLTS];
+	            	float amps           = snapshot.values[SignalTable.AMPS];
+	            	float rpms           = snapshot.values[SignalTable.RPM];
+	            	float motorTemp      = snapshot.values[SignalTable.MOTOR_TEMP];
+	            	float controllerTemp = snapshot.values[SignalTable.CONTROLLER_TEMP];
+
+	            	updateGraph(snapshot.timestampNanos);
+
+	            	boolean voltsChanged = DashboardUpdater.isChanged(changed, SignalTable.VOLTS);
+	            	boolean ampsChanged  = DashboardUpdater.isChanged(changed, SignalTable.AMPS);
+
+	            	if (ampsChanged) {
+	            		ampGauge.setSpeed(amps);
+	            	}
+	            	if (DashboardUpdater.isChanged(changed, SignalTable.RPM)) {
+	            		rpmGauge.setSpeed(rpms);
+	            	}
+	            	if (DashboardUpdater.isChanged(changed, SignalTable.STATE_OF_CHARGE)
+	            			&& !Float.isNaN(snapshot.values[SignalTable.STATE_OF_CHARGE])) {
+	            		batGauge.setCapacity(Math.round(snapshot.values[SignalTable.STATE_OF_CHARGE]));
+	            	}
+	            	if (DashboardUpdater.isChanged(changed, SignalTable.MOTOR_TEMP)) {
+	            		motorTempGauge.setTemp(Math.round(motorTemp));
+	            	}
+	            	if (DashboardUpdater.isChanged(changed, SignalTable.CONTROLLER_TEMP)) {
+	            		controllerTempGauge.setTemp(Math.round(controllerTemp));
+	            	}
 
 	            	// these only update for tablet mode
-	            	if (voltsText != null) {
-	            		voltsText.setText(String.format("%.1f V", volts));
-	            		ampsText.setText(String.format("%.1f A", amps));
-	            		wattsText.setText(String.format("%.1f kW", volts*amps/1000.0f));
-	            		ahText.setText(String.format("%.1f Ah", 0.0f));
-	            		whText.setText(String.format("%.1f kWh", 0.0f));
+	            	if (voltsFormat != null) {
+	            		if (voltsChanged) {
+	            			voltsFormat.setValue(volts);
+	            		}
+	            		if (ampsChanged) {
+	            			ampsFormat.setValue(amps);
+	            		}
+	            		if (DashboardUpdater.isChanged(changed, SignalTable.KILOWATTS)) {
+	            			wattsFormat.setValue(snapshot.values[SignalTable.KILOWATTS]);
+	            		}
+	            		if (DashboardUpdater.isChanged(changed, SignalTable.TRIP_AMP_HOURS)) {
+	            			ahFormat.setValue(snapshot.values[SignalTable.TRIP_AMP_HOURS]);
+	            		}
+	            		if (DashboardUpdater.isChanged(changed, SignalTable.TRIP_KILOWATT_HOURS)) {
+	            			whFormat.setValue(snapshot.values[SignalTable.TRIP_KILOWATT_HOURS]);
+	            		}
+	            		if (DashboardUpdater.isChanged(changed, SignalTable.LIFETIME_KILOWATT_HOURS)) {
+	            			lifetimeFormat.setValue(snapshot.values[SignalTable.LIFETIME_KILOWATT_HOURS]);
+	            		}
 	            	}
+
+	            	latency.onUpdateEnd(snapshot, startNanos);
+	            	stats.add(PipelineStats.UI_UPDATES, 1);
+	            	stats.add(PipelineStats.UPDATE_NANOS, System.nanoTime() - startNanos);
 	            }
 			};
-            
+            if (surface != null) {
+            	surface.setDashboard(dashboard, listener);
+            	surface.setRenderedListener(new Runnable() {
+            		@Override
+            		public void run() {
+            			latency.onDrawn();
+            		}
+            	});
+            } else {
+            	dashboard.setListener(listener);
+            	tracedView = rootView;
+            	tracedView.getViewTreeObserver().addOnDrawListener(drawTracer);
+            }
             
             return rootView;
         }
+
+        /**
+         * Fill the graph with the history of its window, in whole points.
+         */
+        private void fillGraph() {
+        	long point = graph.getPointNanos();
+        	long end = graph.getEndNanos();
+        	end -= ((end % point) + point) % point;
+
+        	graph.clear();
+        	int count = history.query(graph.getStartNanos(), end - 1, graph.getMaxPoints(),
+        			graphTimes, graphMin, graphMax, graphMean);
+        	for (int i = 0; i < count; i++) {
+        		for (int s = 0; s < GRAPH_CHANNELS.length; s++) {
+        			pointMin[s]  = graphMin[s][i];
+        			pointMax[s]  = graphMax[s][i];
+        			pointMean[s] = graphMean[s][i];
+        		}
+        		graph.append(graphTimes[i], pointMin, pointMax, pointMean);
+        	}
+        	graphEndNanos = end;
+        }
+
+        /**
+         * Move the graph to new data, appending any points completed since the last update.
+         *
+         * @param nowNanos - time of the newest data.
+         */
+        private void updateGraph(long nowNanos) {
+        	graph.setNow(nowNanos);
+        	if (!graph.isFollowing()) {
+        		return;
+        	}
+
+        	long point = graph.getPointNanos();
+        	if (nowNanos - graphEndNanos > graph.getEndNanos() - graph.getStartNanos()) {
+        		// more than a window behind
+        		fillGraph();
+        		return;
+        	}
+        	while (nowNanos - graphEndNanos >= point) {
+        		if (history.summarize(graphEndNanos, graphEndNanos + point, pointMin, pointMax, pointMean) > 0) {
+        			graph.append(graphEndNanos, pointMin, pointMax, pointMean);
+        		}
+        		graphEndNanos += point;
+        	}
+        }
+
+        @Override
+        public void onDestroyView() {
+        	dashboard.setListener(null);
+        	if (tracedView != null) {
+        		tracedView.getViewTreeObserver().removeOnDrawListener(drawTracer);
+        		tracedView = null;
+        	}
+        	super.onDestroyView();
+        }
     }
 }
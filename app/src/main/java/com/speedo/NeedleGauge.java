@@ -2,14 +2,14 @@ package com.speedo;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 
 import java.util.ArrayList;
@@ -25,8 +25,35 @@ public class NeedleGauge extends View {
     public static final int DEFAULT_LABEL_TEXT_SIZE_DP = 24;
     public static final int DEFAULT_LABEL_TITLE_MULTIPLER = 4;
 
+    // needle spring rate, the needle covers about 95% of a step in 5 / NEEDLE_OMEGA seconds
+    private static final double NEEDLE_OMEGA = 30;
+
+    // the needle stops animating once this close to the reading, as a fraction of max speed
+    private static final double NEEDLE_SETTLED = 0.0005;
+
+    // longest step the animation takes at once, e.g. after a stall
+    private static final double MAX_FRAME_SECONDS = 0.1;
+
     private double maxSpeed = 100.0;
     private double speed = 0;
+
+    // where the needle is drawn, moving towards speed, and how fast, in speed units per second
+    private double needleSpeed = 0;
+    private double needleVelocity = 0;
+
+    // frame time of the last animation step, 0 when the needle is at rest
+    private long needleFrameNanos;
+
+    private final Choreographer.FrameCallback needleAnimator = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            animateNeedle(frameTimeNanos);
+        }
+    };
+
+    // needle ends, and the area to redraw when it moves
+    private final float[] needleLine = new float[4];
+    private final Rect needleDirty = new Rect();
     private int defaultColor = Color.rgb(150, 150, 150);
     private int majorTickStep = 20;
     private int minorTickStep = 1;
@@ -43,7 +70,17 @@ public class NeedleGauge extends View {
     private Paint titlePaint;
     private Paint colorLinePaint;
     private String title;
-    private Bitmap mMask;
+
+    // background, ticks, labels, arcs and title, drawn once and redrawn only when they change
+    private Bitmap staticLayer;
+    private Canvas staticCanvas;
+    private boolean staticLayerValid;
+
+    // gauge geometry, computed when the size changes: the full dial, the colored arcs and the
+    // needle base
+    private final RectF oval = new RectF();
+    private final RectF arcOval = new RectF();
+    private final RectF needleBaseOval = new RectF();
 
     public NeedleGauge(Context context) {
         super(context);
@@ -64,7 +101,8 @@ public class NeedleGauge extends View {
         if (maxSpeed <= 0)
             throw new IllegalArgumentException("Non-positive value specified as max speed.");
         this.maxSpeed = maxSpeed;
-        invalidate();
+        needleSpeed = Math.min(needleSpeed, maxSpeed);
+        invalidateStaticLayer();
     }
 
     /**
@@ -77,7 +115,8 @@ public class NeedleGauge extends View {
     }
 
     /**
-     * Set the current gauge reading.
+     * Set the current gauge reading.  The needle moves to it smoothly, on the display's frames
+     * rather than in steps at whatever rate readings arrive.
      *
      * @param speed - new reading.
      */
@@ -88,10 +127,78 @@ public class NeedleGauge extends View {
     		if (speed > maxSpeed)
     			speed = maxSpeed;
     		this.speed = speed;
-    		invalidate();
+    		if (isInEditMode()) {
+    			needleSpeed = speed;
+    			invalidate();
+    		} else if (needleFrameNanos == 0) {
+    			needleFrameNanos = System.nanoTime();
+    			Choreographer.getInstance().postFrameCallback(needleAnimator);
+    		}
     	}
     }
 
+    /**
+     * Move the needle one frame towards the reading, as a critically damped spring: as fast as
+     * possible without overshooting.  Only the area covered by the needle before and after the
+     * step is redrawn, and frames stop once the needle settles.
+     *
+     * @param frameTimeNanos - time of the frame being drawn.
+     */
+    private void animateNeedle(long frameTimeNanos) {
+        double dt = Math.min(MAX_FRAME_SECONDS, Math.max(0, (frameTimeNanos - needleFrameNanos) / 1e9));
+        needleFrameNanos = frameTimeNanos;
+
+        getNeedleBounds(needleSpeed, needleDirty);
+        int left = needleDirty.left;
+        int top = needleDirty.top;
+        int right = needleDirty.right;
+        int bottom = needleDirty.bottom;
+
+        // exact solution of the spring over the step, stable at any frame rate
+        double error = needleSpeed - speed;
+        double decay = Math.exp(-NEEDLE_OMEGA * dt);
+        double b = needleVelocity + NEEDLE_OMEGA * error;
+        error = (error + b * dt) * decay;
+        needleVelocity = (needleVelocity - NEEDLE_OMEGA * b * dt) * decay;
+
+        double settled = maxSpeed * NEEDLE_SETTLED;
+        if (Math.abs(error) < settled && Math.abs(needleVelocity) < settled * NEEDLE_OMEGA) {
+            needleSpeed = speed;
+            needleVelocity = 0;
+            needleFrameNanos = 0;
+        } else {
+            needleSpeed = speed + error;
+            Choreographer.getInstance().postFrameCallback(needleAnimator);
+        }
+
+        getNeedleBounds(needleSpeed, needleDirty);
+        needleDirty.union(left, top, right, bottom);
+        invalidate(needleDirty.left, needleDirty.top, needleDirty.right, needleDirty.bottom);
+    }
+
+    /**
+     * Return whether the needle is still moving towards the reading.
+     *
+     * @return - true until the needle settles.
+     */
+    public boolean isAnimating() {
+        return needleFrameNanos != 0;
+    }
+
+    /**
+     * Stop animating and show the reading, e.g. when the thread animating the needle goes
+     * away.  Must be called on that thread.
+     */
+    public void finishAnimation() {
+        if (needleFrameNanos != 0) {
+            Choreographer.getInstance().removeFrameCallback(needleAnimator);
+            needleFrameNanos = 0;
+        }
+        needleSpeed = speed;
+        needleVelocity = 0;
+        invalidate();
+    }
+
     /**
      * Set the current major tick step (how often a value lable shows up around the dial)
      *
@@ -101,7 +208,7 @@ public class NeedleGauge extends View {
         if (majorTickStep <= 0)
             throw new IllegalArgumentException("Non-positive value specified as a major tick step.");
         this.majorTickStep = majorTickStep;
-        invalidate();
+        invalidateStaticLayer();
     }
 
     /**
@@ -111,7 +218,7 @@ public class NeedleGauge extends View {
      */
     public void setMinorTicks(int minorTickStep) {
         this.minorTickStep = minorTickStep;
-        invalidate();
+        invalidateStaticLayer();
     }
 
     /**
@@ -121,7 +228,7 @@ public class NeedleGauge extends View {
      */
     public void setLabelConverter(LabelConverter labelConverter) {
         this.labelConverter = labelConverter;
-        invalidate();
+        invalidateStaticLayer();
     }
 
     /**
@@ -131,7 +238,7 @@ public class NeedleGauge extends View {
      */
     public void setTitle(String title) {
     	this.title = title;
-    	invalidate();
+    	invalidateStaticLayer();
     }
 
     public void addColoredRange(double begin, double end, int color) {
@@ -142,7 +249,7 @@ public class NeedleGauge extends View {
         if (end > maxSpeed * (5.0/160 + 1))
             end = maxSpeed * (5.0/160 + 1);
         ranges.add(new ColoredRange(color, begin, end));
-        invalidate();
+        invalidateStaticLayer();
     }
 
     public void setLabelTextSize(int labelTextSize) {
@@ -153,9 +260,48 @@ public class NeedleGauge extends View {
         if (titlePaint != null) {
             titlePaint.setTextSize(Math.round(density * labelTextSize * DEFAULT_LABEL_TITLE_MULTIPLER));
         }
+        invalidateStaticLayer();
+    }
+
+    /**
+     * Redraw the static parts of the gauge on the next frame, after something they show changed.
+     */
+    private void invalidateStaticLayer() {
+        staticLayerValid = false;
         invalidate();
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        getOval(oval, w, h, 1);
+        getOval(arcOval, w, h, 0.8f);
+        getOval(needleBaseOval, w, h, 0.2f);
+        staticLayer = null;
+        staticCanvas = null;
+        staticLayerValid = false;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (needleSpeed != speed && !isInEditMode()) {
+            needleFrameNanos = System.nanoTime();
+            Choreographer.getInstance().postFrameCallback(needleAnimator);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Choreographer.getInstance().removeFrameCallback(needleAnimator);
+        needleFrameNanos = 0;
+        // redrawn if attached again
+        staticLayer = null;
+        staticCanvas = null;
+        staticLayerValid = false;
+    }
+
     /**
      * Draw NeedleGauge view.
      *
@@ -165,14 +311,24 @@ public class NeedleGauge extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        // Clear canvas
-        canvas.drawColor(Color.TRANSPARENT);
-
-        // Draw Metallic Arc and background
-        drawBackground(canvas);
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return;
+        }
 
-        // Draw Ticks and colored arc
-        drawTicks(canvas);
+        // Draw Metallic Arc, background, Ticks and colored arc into the static layer, when needed
+        if (staticLayer == null) {
+            staticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            staticCanvas = new Canvas(staticLayer);
+        }
+        if (!staticLayerValid) {
+            staticLayer.eraseColor(Color.TRANSPARENT);
+            drawBackground(staticCanvas);
+            drawTicks(staticCanvas);
+            staticLayerValid = true;
+        }
+        canvas.drawBitmap(staticLayer, 0, 0, null);
 
         // Draw Needle
         drawNeedle(canvas);
@@ -184,26 +340,48 @@ public class NeedleGauge extends View {
      * @param canvas - to draw.
      */
     private void drawNeedle(Canvas canvas) {
+        getNeedleLine(needleSpeed);
+        canvas.drawLine(needleLine[0], needleLine[1], needleLine[2], needleLine[3], needlePaint);
+
+        // draw small oval at base of needle
+        canvas.drawArc(needleBaseOval, 180, 180, true, backgroundPaint);
+    }
 
+    /**
+     * Computes the ends of the needle at a reading into needleLine.
+     *
+     * @param value - reading.
+     */
+    private void getNeedleLine(double value) {
         // needle length is 40% of gauge width + 10 pixels to slightly overhang
         // the arc containing the ticks.
-        RectF oval = getOval(canvas, 1);
         float radius = oval.width()*0.40f + 10;
 
         // width of needle base is 20% of gauge width
-        RectF smallOval = getOval(canvas, 0.2f);
-
-        float angle = 10 + (float) (getSpeed()/ maxSpeed*160);
-        canvas.drawLine(
-                (float) (oval.centerX() + Math.cos((180 - angle) / 180 * Math.PI) * smallOval.width()*0.5f),
-                (float) (oval.centerY() - Math.sin(angle / 180 * Math.PI) * smallOval.width()*0.5f),
-                (float) (oval.centerX() + Math.cos((180 - angle) / 180 * Math.PI) * (radius)),
-                (float) (oval.centerY() - Math.sin(angle / 180 * Math.PI) * (radius)),
-                needlePaint
-        );
+        float baseRadius = needleBaseOval.width()*0.5f;
+
+        float angle = 10 + (float) (value / maxSpeed*160);
+        double cos = Math.cos((180 - angle) / 180 * Math.PI);
+        double sin = Math.sin(angle / 180 * Math.PI);
+        needleLine[0] = (float) (oval.centerX() + cos * baseRadius);
+        needleLine[1] = (float) (oval.centerY() - sin * baseRadius);
+        needleLine[2] = (float) (oval.centerX() + cos * radius);
+        needleLine[3] = (float) (oval.centerY() - sin * radius);
+    }
 
-        // draw small oval at base of needle
-        canvas.drawArc(smallOval, 180, 180, true, backgroundPaint);
+    /**
+     * Computes the area the needle covers at a reading, including its width and antialiasing.
+     *
+     * @param value - reading.
+     * @param out - receives the area.
+     */
+    private void getNeedleBounds(double value, Rect out) {
+        getNeedleLine(value);
+        int margin = (int) Math.ceil(needlePaint.getStrokeWidth() / 2) + 2;
+        out.set((int) Math.floor(Math.min(needleLine[0], needleLine[2])) - margin,
+                (int) Math.floor(Math.min(needleLine[1], needleLine[3])) - margin,
+                (int) Math.ceil(Math.max(needleLine[0], needleLine[2])) + margin,
+                (int) Math.ceil(Math.max(needleLine[1], needleLine[3])) + margin);
     }
 
     /**
@@ -221,8 +399,6 @@ public class NeedleGauge extends View {
         float majorTicksLength = 30.0f;
         float minorTicksLength = majorTicksLength/2;
 
-        RectF oval = getOval(canvas, 1);
-
         // arc radius is 40% of gauge width
         float radius = oval.width()*0.40f;
 
@@ -268,14 +444,13 @@ public class NeedleGauge extends View {
         }
 
         // draw default gray arc
-        RectF smallOval = getOval(canvas, 0.8f);
         colorLinePaint.setColor(defaultColor);
-        canvas.drawArc(smallOval, 185, 170, false, colorLinePaint);
+        canvas.drawArc(arcOval, 185, 170, false, colorLinePaint);
 
         // draw the green, yellow, and red arcs
         for (ColoredRange range: ranges) {
             colorLinePaint.setColor(range.getColor());
-            canvas.drawArc(smallOval,
+            canvas.drawArc(arcOval,
                     (float) (190 + range.getBegin()/ maxSpeed *160),
                     (float) ((range.getEnd() - range.getBegin())/ maxSpeed *160),
                     false, colorLinePaint);
@@ -283,22 +458,20 @@ public class NeedleGauge extends View {
     }
 
     /**
-     * Returns a scaled rectangle that's width is 2X it's height that fits in the canvas. Used
+     * Computes a scaled rectangle that's width is 2X it's height that fits in the view. Used
      * as a reference for drawing the gauge.
      *
-     * @param canvas - to draw.
-     * @param factor - a scale factor to apply to the canvas width.
-     * @return - a rectangle that fits in the canvas that's scaled by facter.
+     * @param out - receives a rectangle that fits in the view that's scaled by facter.
+     * @param width - view width.
+     * @param height - view height.
+     * @param factor - a scale factor to apply to the view width.
      */
-    private RectF getOval(Canvas canvas, float factor) {
-        RectF oval;
-        int canvasWidth = canvas.getWidth() - getPaddingLeft() - getPaddingRight();
-        int canvasHeight = canvas.getHeight() - getPaddingTop() - getPaddingBottom();
+    private void getOval(RectF out, int width, int height, float factor) {
+        int canvasWidth = width - getPaddingLeft() - getPaddingRight();
+        int canvasHeight = height - getPaddingTop() - getPaddingBottom();
 
-        oval = new RectF(0, 0, canvasWidth*factor, canvasWidth*factor);
-        oval.offset((canvasWidth-oval.width())/2 + getPaddingLeft(), (canvasHeight*2-oval.height())/2 + getPaddingTop());
-
-        return oval;
+        out.set(0, 0, canvasWidth*factor, canvasWidth*factor);
+        out.offset((canvasWidth-out.width())/2 + getPaddingLeft(), (canvasHeight*2-out.height())/2 + getPaddingTop());
     }
 
     /**
@@ -307,16 +480,18 @@ public class NeedleGauge extends View {
      * @param canvas - to draw.
      */
     private void drawBackground(Canvas canvas) {
-        RectF oval = getOval(canvas, 1);
-
-        Float scale = 1.25f;
+        float scale = 1.25f;
 
         // draw base arc
         canvas.drawArc(oval, 180, 180, true, backgroundInnerPaint);
 
         // use bitmap to draw a fade from dark to light in the center of the arc
-        Bitmap mask = Bitmap.createScaledBitmap(mMask, (int)(oval.width() * scale), (int)((oval.height() * scale) / 2.0f), true);
-        canvas.drawBitmap(mask, oval.centerX() - oval.width()*scale/2.0f, oval.centerY()-oval.width()*scale/2.0f+1, maskPaint);
+        int maskWidth = (int)(oval.width() * scale);
+        int maskHeight = (int)((oval.height() * scale) / 2.0f);
+        if (maskWidth > 0 && maskHeight > 0 && !isInEditMode()) {
+            Bitmap mask = BitmapCache.get(getContext()).getTopHalf(R.drawable.spot_mask, maskWidth, maskHeight);
+            canvas.drawBitmap(mask, oval.centerX() - oval.width()*scale/2.0f, oval.centerY()-oval.width()*scale/2.0f+1, maskPaint);
+        }
         
         // draw title
         float txtX = canvas.getWidth() / 2;
@@ -328,10 +503,6 @@ public class NeedleGauge extends View {
      * Initialize view.
      */
     private void init() {
-        if (Build.VERSION.SDK_INT >= 11 && !isInEditMode()) {
-            setLayerType(View.LAYER_TYPE_HARDWARE, null);
-        }
-
         float density = getResources().getDisplayMetrics().density;
 
         backgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -355,9 +526,6 @@ public class NeedleGauge extends View {
         titlePaint.setFakeBoldText(true);
         titlePaint.setLinearText(true);
 
-        mMask = BitmapFactory.decodeResource(getResources(), R.drawable.spot_mask);
-        mMask = Bitmap.createBitmap(mMask, 0, 0, mMask.getWidth(), mMask.getHeight() / 2);
-
         maskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         maskPaint.setDither(true);
 
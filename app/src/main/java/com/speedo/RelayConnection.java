@@ -0,0 +1,161 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Connection state machine for a TelemetrySource, driven by the ingest thread:
+ *
+ *     DISCONNECTED -> CONNECTING -> CONNECTED -> (link lost) -> CONNECTING ...
+ *                         |   ^
+ *                         v   |
+ *                       BACKOFF
+ *
+ * Connect attempts time out, failed attempts are retried after a jittered exponential backoff,
+ * and a lost link is retried immediately.  stop() may be called from any thread and never
+ * blocks; it aborts a connect, read or backoff in progress.
+ */
+public class RelayConnection {
+
+    public enum State { DISCONNECTED, CONNECTING, CONNECTED, BACKOFF }
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 4000;
+
+    // backoff after the first failed attempt, doubled for each further failure up to the max
+    private static final int MIN_BACKOFF_MILLIS = 100;
+    private static final int MAX_BACKOFF_MILLIS = 1000;
+
+    private final TelemetrySource source;
+    private final Random random = new Random();
+    private final Object lock = new Object();
+
+    private volatile boolean stopped;
+    private volatile State state = State.DISCONNECTED;
+    private volatile String lastError;
+
+    // consecutive failed attempts, only used by the ingest thread
+    private int failures;
+
+    /**
+     * Constructor.
+     *
+     * @param source - where to connect to.
+     */
+    public RelayConnection(TelemetrySource source) {
+        this.source = source;
+    }
+
+    /**
+     * Ingest thread: connect, retrying with backoff until connected or stopped.
+     *
+     * @return - true when connected, false if stop() was called.
+     */
+    public boolean connect() {
+        while (!stopped) {
+            state = State.CONNECTING;
+            try {
+                source.connect(CONNECT_TIMEOUT_MILLIS);
+                if (stopped) {
+                    // stop() raced with the connect
+                    break;
+                }
+                failures = 0;
+                state = State.CONNECTED;
+                return true;
+            } catch (IOException e) {
+                lastError = e.getMessage();
+            }
+
+            failures++;
+            state = State.BACKOFF;
+            pause(backoffMillis());
+        }
+
+        source.close();
+        state = State.DISCONNECTED;
+        return false;
+    }
+
+    /**
+     * Ingest thread: the link failed or the relay closed it.  The next connect() starts
+     * immediately.
+     *
+     * @param error - description of the failure, may be null.
+     */
+    public void linkLost(String error) {
+        source.close();
+        lastError = error;
+        failures = 0;
+        state = State.DISCONNECTED;
+    }
+
+    /**
+     * Stop connecting and close the link.  Safe from any thread, returns immediately.
+     */
+    public void stop() {
+        stopped = true;
+        source.close();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Return whether stop() was called.
+     *
+     * @return - true once stopped.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Ingest thread: wait, returning early if stop() is called.
+     *
+     * @param millis - time to wait.
+     */
+    public void pause(long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        synchronized (lock) {
+            long remaining = millis;
+            while (!stopped && remaining > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = (end - System.nanoTime()) / 1000000L;
+            }
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Return why the last connect attempt failed or the link was lost.
+     *
+     * @return - description of the failure, null if none.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    public TelemetrySource getSource() {
+        return source;
+    }
+
+    /**
+     * Return the delay before the next attempt: half the exponential backoff plus a random
+     * amount up to the other half, so several clients don't retry in lockstep.
+     *
+     * @return - delay in milliseconds.
+     */
+    private long backoffMillis() {
+        int backoff = MIN_BACKOFF_MILLIS << Math.min(failures - 1, 16);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        return backoff / 2 + random.nextInt(backoff / 2 + 1);
+    }
+}
@@ -0,0 +1,202 @@
+package com.speedo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Telemetry source that plays back a capture written by CaptureInputStream, so recorded drives
+ * go through the same decode and display path as the live relay.  Chunks are delivered at their
+ * recorded times divided by the speed, or as fast as they're read when the speed is 0.
+ *
+ * The end of the capture looks like the relay closing the link, so the connection replays the
+ * capture again from the start.
+ *
+ * getCaptureNanos() gives the recorded time of the data last read, for integrating over the
+ * drive's own time whatever the replay speed.
+ */
+public class ReplayTelemetrySource implements TelemetrySource {
+
+    private final File file;
+    private final float speed;
+
+    // wakes a paced read early when closed
+    private final Object lock = new Object();
+
+    private volatile boolean closed;
+    private volatile DataInputStream capture;
+    private InputStream in;
+
+    // reading thread: recorded time of the chunk being read, since the start of the capture
+    private long captureNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param file - capture to replay.
+     * @param speed - playback speed, 1 for real time, 0 for as fast as possible.
+     */
+    public ReplayTelemetrySource(File file, float speed) {
+        if (speed < 0)
+            throw new IllegalArgumentException("Negative value specified as speed.");
+        this.file = file;
+        this.speed = speed;
+    }
+
+    @Override
+    public void connect(int timeoutMillis) throws IOException {
+        closed = false;
+        DataInputStream c = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        capture = c;
+        try {
+            if (c.readInt() != CaptureInputStream.MAGIC || c.readInt() != CaptureInputStream.VERSION) {
+                throw new IOException(file + " is not a relay capture");
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        in = new ReplayInputStream(c);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        // commands sent to a replay go nowhere
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int count) {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        DataInputStream c = capture;
+        capture = null;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Reading thread: return when the data last read was captured.  Starts over from 0 each
+     * time the capture is replayed again.
+     *
+     * @return - nanoseconds since the start of the capture.
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    @Override
+    public String getName() {
+        return "Replay " + file.getName() + (speed == 0 ? " max" : " " + speed + "x");
+    }
+
+    /**
+     * Returns the capture's chunks, each no earlier than its replay time.
+     */
+    private class ReplayInputStream extends InputStream {
+
+        private final DataInputStream capture;
+        private final long startNanos = System.nanoTime();
+        private final byte[] chunk = new byte[CaptureInputStream.MAX_CHUNK_LENGTH];
+        private int chunkLength;
+        private int chunkPosition;
+
+        ReplayInputStream(DataInputStream capture) {
+            this.capture = capture;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (chunkPosition == chunkLength && !nextChunk()) {
+                return -1;
+            }
+            return chunk[chunkPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (chunkPosition == chunkLength && !nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(count, chunkLength - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, buffer, offset, n);
+            chunkPosition += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunkLength - chunkPosition;
+        }
+
+        /**
+         * Load the next chunk, waiting until it's due.
+         *
+         * @return - false at the end of the capture.
+         * @throws IOException - if the source was closed or the capture can't be read.
+         */
+        private boolean nextChunk() throws IOException {
+            long offsetNanos;
+            int length;
+            try {
+                offsetNanos = capture.readLong();
+                length = capture.readInt();
+                if (length < 0 || length > chunk.length) {
+                    throw new IOException("Malformed chunk in " + file);
+                }
+                capture.readFully(chunk, 0, length);
+            } catch (EOFException e) {
+                // end of capture, or a chunk cut short when the capture was interrupted
+                return false;
+            }
+            chunkLength = length;
+            chunkPosition = 0;
+            captureNanos = offsetNanos;
+
+            if (speed > 0) {
+                long due = startNanos + (long) (offsetNanos / speed);
+                synchronized (lock) {
+                    long remaining;
+                    while (!closed && (remaining = due - System.nanoTime()) > 0) {
+                        try {
+                            lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+                        } catch (InterruptedException e) {
+                            throw new IOException("Replay interrupted");
+                        }
+                    }
+                }
+            }
+            if (closed) {
+                throw new IOException("Replay closed");
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * Telemetry source that connects to a paired bluetooth relay over RFCOMM using the serial port
+ * profile.
+ */
+public class RfcommTelemetrySource implements TelemetrySource {
+
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    // BluetoothSocket.connect() has no timeout, so a shared timer closes sockets that take too long
+    private static final Timer CONNECT_WATCHDOG = new Timer("RfcommConnectWatchdog", true);
+
+    private final String deviceName;
+
+    // paired device found by the first successful lookup
+    private BluetoothDevice device;
+
+    private volatile BluetoothSocket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * Constructor.
+     *
+     * @param deviceName - name of the paired device to connect to. (e.g. "CAN Relay")
+     */
+    public RfcommTelemetrySource(String deviceName) {
+        this.deviceName = deviceName;
+    }
+
+    @Override
+    public void connect(int timeoutMillis) throws IOException {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled()) {
+            throw new IOException("Bluetooth is not available");
+        }
+
+        if (device == null) {
+            for (BluetoothDevice paired : adapter.getBondedDevices()) {
+                if (deviceName.equals(paired.getName())) {
+                    device = paired;
+                    break;
+                }
+            }
+            if (device == null) {
+                throw new IOException(deviceName + " is not paired");
+            }
+        }
+
+        // discovery slows down connecting considerably
+        adapter.cancelDiscovery();
+
+        final BluetoothSocket bs = device.createRfcommSocketToServiceRecord(SPP_UUID);
+        socket = bs;
+        TimerTask timeout = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    bs.close();
+                } catch (IOException e) {
+                }
+            }
+        };
+        CONNECT_WATCHDOG.schedule(timeout, timeoutMillis);
+        try {
+            bs.connect();
+        } catch (IOException e) {
+            timeout.cancel();
+            close();
+            throw e;
+        }
+        if (!timeout.cancel()) {
+            // watchdog fired just as the connection completed
+            close();
+            throw new IOException("Connecting to " + deviceName + " timed out");
+        }
+
+        try {
+            in = bs.getInputStream();
+            out = bs.getOutputStream();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        BluetoothSocket bs = socket;
+        socket = null;
+        if (bs != null) {
+            try {
+                bs.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "RFCOMM " + deviceName;
+    }
+}
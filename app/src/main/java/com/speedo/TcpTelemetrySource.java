@@ -0,0 +1,75 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Telemetry source that reads the relay stream from a TCP socket.  Used with RelayEmulator to
+ * exercise the ingest path without the car.
+ */
+public class TcpTelemetrySource implements TelemetrySource {
+
+    private final String host;
+    private final int port;
+
+    private volatile Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * Constructor.
+     *
+     * @param host - host running the relay emulator. (10.0.2.2 is the workstation when running
+     *               in the Android emulator)
+     * @param port - TCP port.
+     */
+    public TcpTelemetrySource(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void connect(int timeoutMillis) throws IOException {
+        Socket s = new Socket();
+        socket = s;
+        try {
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress(host, port), timeoutMillis);
+            in = s.getInputStream();
+            out = s.getOutputStream();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        Socket s = socket;
+        socket = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "TCP " + host + ":" + port;
+    }
+}
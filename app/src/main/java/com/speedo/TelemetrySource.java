@@ -0,0 +1,47 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connection to something that sends the relay's SLCAN stream, e.g. the "CAN Relay" bluetooth
+ * module or a relay emulator on the network.
+ */
+public interface TelemetrySource {
+
+    /**
+     * Open the connection.  Blocks until connected, the timeout expires or close() is called.
+     *
+     * @param timeoutMillis - longest time to wait for the connection.
+     * @throws IOException - if the connection can't be made in time.
+     */
+    void connect(int timeoutMillis) throws IOException;
+
+    /**
+     * Return the stream of bytes received from the relay.  Only valid after connect().
+     *
+     * @return - input stream.
+     */
+    InputStream getInputStream();
+
+    /**
+     * Return the stream used to send commands to the relay.  Only valid after connect().
+     *
+     * @return - output stream.
+     */
+    OutputStream getOutputStream();
+
+    /**
+     * Close the connection.  Safe to call from any thread and when not connected; a connect() or
+     * read blocked in another thread fails with an IOException.
+     */
+    void close();
+
+    /**
+     * Return a short description of the source for logging.
+     *
+     * @return - description.
+     */
+    String getName();
+}
@@ -2,7 +2,6 @@ package com.speedo;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -14,13 +13,22 @@ import android.view.View;
  */
 public class TempGauge extends View {
 
-    // current temperature in fahrenheit
+    // current temperature in fahrenheit, and as drawn
     private int temp;
+    private final char[] tempText = new char[16];
+    private int tempTextLength;
+
+    // where the temperature is drawn, computed when the size changes
+    private float txtX;
+    private float txtY;
 
     private int labelSize;
     private Paint txtPaint;
     private Paint imagePaint;
-    private Bitmap image;
+    private int imageResource;
+
+    // image scaled to the view, from the shared cache
+    private Bitmap scaledImage;
 
     public TempGauge(Context context, int bitmapResource) {
         super(context);
@@ -41,9 +49,10 @@ public class TempGauge extends View {
         float density = getResources().getDisplayMetrics().density;
 
     	temp = 0;
+    	formatTemp();
     	labelSize = 24;
     	
-        image = BitmapFactory.decodeResource(getResources(), bitmapResource);
+        imageResource = bitmapResource;
 
         imagePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         imagePaint.setDither(true);
@@ -63,10 +72,37 @@ public class TempGauge extends View {
     public void setTemp(int temp) {
     	if (temp != this.temp) {
     		this.temp = temp;
+    		formatTemp();
     		invalidate();
     	}
     }
 
+    /**
+     * Format the temperature as digits followed by degrees F into tempText, without allocating.
+     */
+    private void formatTemp() {
+        int length = 0;
+        long value = temp;
+        if (value < 0) {
+            tempText[length++] = '-';
+            value = -value;
+        }
+        int digitsStart = length;
+        do {
+            tempText[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // digits were written least significant first
+        for (int i = digitsStart, j = length - 1; i < j; i++, j--) {
+            char c = tempText[i];
+            tempText[i] = tempText[j];
+            tempText[j] = c;
+        }
+        tempText[length++] = '\u00b0';
+        tempText[length++] = 'F';
+        tempTextLength = length;
+    }
+
     /**
      * Change text size of temperature data.  Default is 24.
      *
@@ -80,6 +116,14 @@ public class TempGauge extends View {
     	invalidate();
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        scaledImage = (w > 0 && h > 0) ? BitmapCache.get(getContext()).getBitmap(imageResource, w, h) : null;
+        txtX = w / 2;
+        txtY = h * 6 / 10;
+    }
+
     /**
      * Draw view.
      *
@@ -89,13 +133,11 @@ public class TempGauge extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        Bitmap scaledImage = Bitmap.createScaledBitmap(image, canvas.getWidth(), canvas.getHeight(), true);
-        canvas.drawBitmap(scaledImage, 0, 0, imagePaint);
+        if (scaledImage != null) {
+            canvas.drawBitmap(scaledImage, 0, 0, imagePaint);
+        }
 
         // draw temp text
-        String tempString = "" + temp + "\u00b0" + "F";
-        float txtX = canvas.getWidth() / 2;
-        float txtY = canvas.getHeight() * 6 / 10;
-        canvas.drawText(tempString, txtX, txtY, txtPaint);
+        canvas.drawText(tempText, 0, tempTextLength, txtX, txtY, txtPaint);
     }
 }
@@ -0,0 +1,120 @@
+package com.speedo;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with "-rf csv", printing every score of the newer
+ * run next to the baseline's with the change in percent.  Changes larger than both runs'
+ * error margins are marked, so a slower stage or a new allocation stands out.
+ *
+ * Usage: CompareResults <baseline.csv> <results.csv>
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <baseline.csv> <results.csv>");
+            System.exit(2);
+        }
+        Map<String, String[]> baseline = load(args[0]);
+        Map<String, String[]> results = load(args[1]);
+
+        System.out.printf("%-62s %14s %14s %9s%n", "Benchmark", "Baseline", "Result", "Change");
+        for (Map.Entry<String, String[]> entry : results.entrySet()) {
+            String[] result = entry.getValue();
+            String[] base = baseline.get(entry.getKey());
+            double score = Double.parseDouble(result[4]);
+            if (base == null) {
+                System.out.printf("%-62s %14s %14.3f %9s  %s%n", entry.getKey(), "-", score, "new", result[6]);
+                continue;
+            }
+            double baseScore = Double.parseDouble(base[4]);
+            String change = (baseScore != 0) ? String.format("%+8.1f%%", 100 * (score - baseScore) / baseScore)
+                    : (score == 0) ? "0" : "from 0";
+            boolean significant = Math.abs(score - baseScore) > parseError(result[5]) + parseError(base[5]);
+            System.out.printf("%-62s %14.3f %14.3f %9s%s %s%n", entry.getKey(), baseScore, score, change,
+                    significant ? " *" : "  ", result[6]);
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.printf("%-62s %14s%n", key, "removed");
+            }
+        }
+    }
+
+    /**
+     * Read a JMH CSV result file.
+     *
+     * @param path - file to read.
+     * @return - rows by benchmark name and parameters, in file order.
+     * @throws IOException - if the file can't be read or isn't a JMH CSV file.
+     */
+    private static Map<String, String[]> load(String path) throws IOException {
+        Map<String, String[]> rows = new LinkedHashMap<String, String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith("\"Benchmark\""))
+                throw new IOException(path + " is not a JMH CSV result file.");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = split(line);
+                if (fields.length < 7) {
+                    continue;
+                }
+                // benchmark without its package and mode, then any parameters after the unit
+                StringBuilder key = new StringBuilder(shortName(fields[0])).append(' ').append(fields[1]);
+                for (int i = 7; i < fields.length; i++) {
+                    key.append(' ').append(fields[i]);
+                }
+                rows.put(key.toString(), fields);
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    private static String shortName(String benchmark) {
+        int end = benchmark.indexOf(':');
+        int method = benchmark.lastIndexOf('.', (end < 0) ? benchmark.length() : end);
+        return benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1);
+    }
+
+    private static double parseError(String error) {
+        try {
+            return Double.parseDouble(error);
+        } catch (NumberFormatException e) {
+            // single shot and sample counts have no error
+            return 0;
+        }
+    }
+
+    /**
+     * Split a CSV line, allowing quoted fields with commas in them.
+     */
+    private static String[] split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+}
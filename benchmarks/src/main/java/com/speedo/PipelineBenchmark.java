@@ -0,0 +1,248 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of each stage of the ingest pipeline, in frames (or samples) per second, on a
+ * recorded-like stream of the frames the app decodes: controller status and temperatures, BMS
+ * cells and an id with no signals.  Run with the GC profiler, gc.alloc.rate.norm shows the
+ * bytes allocated per frame, which should stay 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    // frames in the stream, every stage processes this many per invocation
+    private static final int FRAMES = 1024;
+
+    // CAN ids of the stream, in broadcast order
+    private static final int CONTROLLER_STATUS_ID = 0x300;
+    private static final int CONTROLLER_TEMPS_ID = 0x301;
+    private static final int BMS_CELLS_ID = 0x6b1;
+    private static final int UNKNOWN_ID = 0x123;
+
+    // time between frames, the relay's typical rate
+    private static final long FRAME_NANOS = 2 * 1000000L;
+
+    private static final int[] GRAPH_CHANNELS = {
+            SignalTable.VOLTS, SignalTable.AMPS, SignalTable.KILOWATTS,
+            SignalTable.MOTOR_TEMP, SignalTable.CONTROLLER_TEMP };
+
+    private SignalTable signalTable;
+
+    // the stream as the relay sends it, and the same frames decoded
+    private byte[] stream;
+    private final int[] ids = new int[FRAMES];
+    private final byte[][] data = new byte[FRAMES][SlcanDecoder.MAX_DATA_LENGTH];
+
+    // decoded signals of every frame, and the channels each frame updates
+    private float[][] samples;
+    private final long[] updated = new long[FRAMES];
+
+    private SlcanDecoder decoder;
+    private AlarmEngine alarms;
+    private EnergyIntegrator energy;
+    private StateOfChargeEstimator stateOfCharge;
+    private TimeSeriesStore history;
+    private SnapshotBuffer telemetry;
+
+    // pipeline state: latest values and stream time, which only moves forward
+    private float[] values;
+    private long nowNanos;
+    private long decodedMask;
+
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = PipelineBenchmark.class.getResourceAsStream("/signals.dbc");
+        if (in == null)
+            throw new IOException("signals.dbc is not on the class path.");
+        signalTable = SignalTable.load(in);
+        int channelCount = signalTable.getChannelCount();
+
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        samples = new float[FRAMES][channelCount];
+        float[] decoded = new float[channelCount];
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] payload = data[i];
+            switch (i % 8) {
+                case 0: case 2: case 4: case 6:
+                    // volts, amps around the high current alarm, rpm
+                    ids[i] = CONTROLLER_STATUS_ID;
+                    putLittleEndian(payload, 0, 1200 + random.nextInt(100));
+                    putLittleEndian(payload, 2, 3800 + random.nextInt(400) - (i % 3 == 0 ? 4000 : 0));
+                    putLittleEndian(payload, 4, random.nextInt(200));
+                    break;
+                case 1: case 5:
+                    ids[i] = CONTROLLER_TEMPS_ID;
+                    payload[0] = (byte) (140 + random.nextInt(60));
+                    payload[1] = (byte) (100 + random.nextInt(40));
+                    break;
+                case 3:
+                    ids[i] = BMS_CELLS_ID;
+                    putLittleEndian(payload, 0, 3200 + random.nextInt(50));
+                    putLittleEndian(payload, 2, 3300 + random.nextInt(50));
+                    payload[4] = (byte) (60 + random.nextInt(20));
+                    break;
+                default:
+                    ids[i] = UNKNOWN_ID;
+                    random.nextBytes(payload);
+                    break;
+            }
+            appendSlcan(text, ids[i], payload);
+            updated[i] = signalTable.decode(ids[i], payload, payload.length, decoded);
+            System.arraycopy(decoded, 0, samples[i], 0, channelCount);
+        }
+        stream = text.toString().getBytes("US-ASCII");
+
+        decoder = new SlcanDecoder(new SlcanDecoder.FrameListener() {
+            @Override
+            public void onFrame(int id, byte[] data, int length, long timestampNanos) {
+                decodedMask |= id;
+            }
+        });
+        alarms = new AlarmEngine();
+        alarms.addHighAlarm("High current", SignalTable.AMPS, AlarmEngine.Level.WARNING, 400, 20, 250 * 1000000L);
+        alarms.addHighAlarm("Overcurrent", SignalTable.AMPS, AlarmEngine.Level.CRITICAL, 500, 20, 0);
+        alarms.addHighAlarm("High RPM", SignalTable.RPM, AlarmEngine.Level.WARNING, 140, 5, 250 * 1000000L);
+        alarms.addHighAlarm("Hot motor", SignalTable.MOTOR_TEMP, AlarmEngine.Level.WARNING, 248, 5, 250 * 1000000L);
+        alarms.addLowAlarm("Low voltage", SignalTable.VOLTS, AlarmEngine.Level.WARNING, 108, 1, 1000 * 1000000L);
+        energy = new EnergyIntegrator();
+        stateOfCharge = new StateOfChargeEstimator(100, 36, StateOfChargeEstimator.Chemistry.LIFEPO4);
+        history = new TimeSeriesStore(GRAPH_CHANNELS);
+        telemetry = new SnapshotBuffer(channelCount);
+        values = new float[channelCount];
+        nowNanos = System.nanoTime();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long slcanDecode() {
+        decoder.feed(stream, 0, stream.length, nowNanos);
+        return decodedMask;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long signalExtraction() {
+        long mask = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            mask |= signalTable.decode(ids[i], data[i], SlcanDecoder.MAX_DATA_LENGTH, values);
+        }
+        return mask;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public double energyIntegration() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            energy.addSample(nowNanos, samples[i][SignalTable.VOLTS], samples[i][SignalTable.AMPS]);
+        }
+        return energy.getTripKilowattHours();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public float stateOfChargeFilter() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            stateOfCharge.addSample(nowNanos, samples[i][SignalTable.VOLTS], samples[i][SignalTable.AMPS]);
+        }
+        return stateOfCharge.getStateOfCharge();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void alarmEvaluation() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            alarms.evaluate(nowNanos, samples[i], updated[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void historyAdd() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            history.add(nowNanos, samples[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long snapshotHandoff() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            telemetry.beginWrite().set(samples[i], nowNanos);
+            telemetry.publish();
+        }
+        return telemetry.read().sequence;
+    }
+
+    /**
+     * Every stage the ingest thread runs per frame, publishing once per frame like a relay
+     * that sends one frame per read.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long pipeline() {
+        for (int i = 0; i < FRAMES; i++) {
+            nowNanos += FRAME_NANOS;
+            long mask = signalTable.decode(ids[i], data[i], SlcanDecoder.MAX_DATA_LENGTH, values);
+            if (mask == 0) {
+                continue;
+            }
+            alarms.evaluate(nowNanos, values, mask);
+            if ((mask & ((1L << SignalTable.VOLTS) | (1L << SignalTable.AMPS))) != 0) {
+                energy.addSample(nowNanos, values[SignalTable.VOLTS], values[SignalTable.AMPS]);
+                stateOfCharge.addSample(nowNanos, values[SignalTable.VOLTS], values[SignalTable.AMPS]);
+            }
+            history.add(nowNanos, values);
+            telemetry.beginWrite().set(values, nowNanos);
+            telemetry.publish();
+        }
+        return telemetry.read().sequence;
+    }
+
+    private static void putLittleEndian(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void appendSlcan(StringBuilder out, int id, byte[] data) {
+        out.append('t');
+        appendHex(out, id, 3);
+        out.append((char) ('0' + data.length));
+        for (byte b : data) {
+            appendHex(out, b & 0xff, 2);
+        }
+        out.append('\r');
+    }
+
+    private static void appendHex(StringBuilder out, int value, int digits) {
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            out.append(Character.forDigit((value >> shift) & 0xf, 16));
+        }
+    }
+}
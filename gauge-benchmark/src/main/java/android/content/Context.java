@@ -0,0 +1,46 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.res.Resources;
+
+/**
+ * JVM stand-in for android.content.Context, with just what the gauges use.
+ */
+public class Context {
+
+    private final Resources resources;
+    private final List<ComponentCallbacks> callbacks = new ArrayList<ComponentCallbacks>();
+
+    public Context(Resources resources) {
+        this.resources = resources;
+    }
+
+    public Resources getResources() {
+        return resources;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public void registerComponentCallbacks(ComponentCallbacks callback) {
+        callbacks.add(callback);
+    }
+
+    /**
+     * Deliver onTrimMemory() as the system would, to empty caches between measurements.
+     *
+     * @param level - trim level, one of the ComponentCallbacks2 constants.
+     */
+    public void trimMemory(int level) {
+        for (ComponentCallbacks callback : callbacks) {
+            if (callback instanceof ComponentCallbacks2) {
+                ((ComponentCallbacks2) callback).onTrimMemory(level);
+            } else {
+                callback.onLowMemory();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package android.content.res;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import android.util.DisplayMetrics;
+
+/**
+ * JVM stand-in for android.content.res.Resources.  Drawables are the app's PNG files, of which
+ * only the size is read.
+ */
+public class Resources {
+
+    // file names of the drawables, indexed by the ids in com.speedo.R
+    private static final String[] DRAWABLES = { "controller", "motor", "spot_mask" };
+
+    private final DisplayMetrics metrics = new DisplayMetrics();
+    private final File drawableDirectory;
+
+    /**
+     * Constructor.
+     *
+     * @param drawableDirectory - the app's res/drawable directory.
+     * @param density - display density, e.g. 2 for xhdpi.
+     */
+    public Resources(File drawableDirectory, float density) {
+        this.drawableDirectory = drawableDirectory;
+        metrics.density = density;
+    }
+
+    public DisplayMetrics getDisplayMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return the size of a drawable as stored.
+     *
+     * @param id - drawable id.
+     * @return - width and height in pixels.
+     */
+    public int[] getDrawableSize(int id) {
+        File file = new File(drawableDirectory, DRAWABLES[id] + ".png");
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                // signature, IHDR length and type, then the size
+                in.skipBytes(16);
+                return new int[] { in.readInt(), in.readInt() };
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read " + file, e);
+        }
+    }
+}
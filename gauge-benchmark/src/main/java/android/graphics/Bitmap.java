@@ -0,0 +1,58 @@
+package android.graphics;
+
+import com.speedo.RenderCounters;
+
+/**
+ * JVM stand-in for android.graphics.Bitmap.  Keeps no pixels; creating one is counted, with
+ * the bytes the pixels would take.
+ */
+public final class Bitmap {
+
+    public enum Config { ALPHA_8, RGB_565, ARGB_4444, ARGB_8888 }
+
+    private final int width;
+    private final int height;
+
+    Bitmap(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as bitmap size.");
+        this.width = width;
+        this.height = height;
+        RenderCounters.bitmaps++;
+        RenderCounters.bitmapBytes += getByteCount();
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height);
+    }
+
+    public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height) {
+        if (x == 0 && y == 0 && width == source.width && height == source.height) {
+            return source;
+        }
+        return new Bitmap(width, height);
+    }
+
+    public static Bitmap createScaledBitmap(Bitmap source, int width, int height, boolean filter) {
+        if (width == source.width && height == source.height) {
+            return source;
+        }
+        return new Bitmap(width, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getByteCount() {
+        return width * height * 4;
+    }
+
+    public void eraseColor(int color) {
+        RenderCounters.drawOps++;
+    }
+}
@@ -0,0 +1,26 @@
+package android.graphics;
+
+import android.content.res.Resources;
+
+/**
+ * JVM stand-in for android.graphics.BitmapFactory, decoding resources to blank bitmaps of
+ * their stored size divided by the sample size.
+ */
+public class BitmapFactory {
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public boolean inScaled = true;
+        public int inSampleSize;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    public static Bitmap decodeResource(Resources resources, int id, Options options) {
+        int[] size = resources.getDrawableSize(id);
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.outWidth = size[0] / sampleSize;
+        options.outHeight = size[1] / sampleSize;
+        return options.inJustDecodeBounds ? null : new Bitmap(options.outWidth, options.outHeight);
+    }
+}
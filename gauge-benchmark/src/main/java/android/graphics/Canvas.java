@@ -0,0 +1,92 @@
+package android.graphics;
+
+import com.speedo.RenderCounters;
+
+/**
+ * JVM stand-in for android.graphics.Canvas that draws nothing and counts every call.
+ */
+public class Canvas {
+
+    private int width;
+    private int height;
+    private int saveCount = 1;
+
+    /**
+     * Constructor for a canvas of a given size, like the one a view draws on.
+     *
+     * @param width - width in pixels.
+     * @param height - height in pixels.
+     */
+    public Canvas(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public Canvas(Bitmap bitmap) {
+        this(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void drawColor(int color) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawText(String text, float x, float y, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        RenderCounters.drawOps++;
+    }
+
+    public int save() {
+        RenderCounters.canvasStateOps++;
+        return saveCount++;
+    }
+
+    public void restore() {
+        RenderCounters.canvasStateOps++;
+        saveCount--;
+    }
+
+    public void restoreToCount(int count) {
+        RenderCounters.canvasStateOps++;
+        saveCount = count;
+    }
+
+    public void rotate(float degrees, float px, float py) {
+        RenderCounters.canvasStateOps++;
+    }
+
+    public void translate(float dx, float dy) {
+        RenderCounters.canvasStateOps++;
+    }
+
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        RenderCounters.canvasStateOps++;
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Paint, holding the settings the gauges use.
+ */
+public class Paint {
+
+    public static final int ANTI_ALIAS_FLAG = 1;
+
+    public enum Style { FILL, STROKE, FILL_AND_STROKE }
+
+    public enum Align { LEFT, CENTER, RIGHT }
+
+    private int flags;
+    private int color = Color.BLACK;
+    private Style style = Style.FILL;
+    private Align textAlign = Align.LEFT;
+    private float strokeWidth;
+    private float textSize = 12;
+    private boolean dither;
+    private boolean linearText;
+    private boolean fakeBoldText;
+
+    public Paint() {
+    }
+
+    public Paint(int flags) {
+        this.flags = flags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public void setColor(int color) {
+        this.color = color;
+    }
+
+    public Style getStyle() {
+        return style;
+    }
+
+    public void setStyle(Style style) {
+        this.style = style;
+    }
+
+    public Align getTextAlign() {
+        return textAlign;
+    }
+
+    public void setTextAlign(Align textAlign) {
+        this.textAlign = textAlign;
+    }
+
+    public float getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+        this.strokeWidth = strokeWidth;
+    }
+
+    public float getTextSize() {
+        return textSize;
+    }
+
+    public void setTextSize(float textSize) {
+        this.textSize = textSize;
+    }
+
+    public void setDither(boolean dither) {
+        this.dither = dither;
+    }
+
+    public void setLinearText(boolean linearText) {
+        this.linearText = linearText;
+    }
+
+    public void setFakeBoldText(boolean fakeBoldText) {
+        this.fakeBoldText = fakeBoldText;
+    }
+}
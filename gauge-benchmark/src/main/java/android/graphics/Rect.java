@@ -0,0 +1,40 @@
+package android.graphics;
+
+public final class Rect {
+
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public Rect() {
+    }
+
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    public void union(int left, int top, int right, int bottom) {
+        if (left < right && top < bottom) {
+            if (this.left < this.right && this.top < this.bottom) {
+                this.left = Math.min(this.left, left);
+                this.top = Math.min(this.top, top);
+                this.right = Math.max(this.right, right);
+                this.bottom = Math.max(this.bottom, bottom);
+            } else {
+                set(left, top, right, bottom);
+            }
+        }
+    }
+}
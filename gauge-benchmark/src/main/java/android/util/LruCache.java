@@ -0,0 +1,48 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.util.LruCache, evicting least recently used entries once the
+ * entries' total size passes the maximum.
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private final int maxSize;
+    private int size;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public final V get(K key) {
+        return map.get(key);
+    }
+
+    public final V put(K key, V value) {
+        size += sizeOf(key, value);
+        V previous = map.put(key, value);
+        if (previous != null) {
+            size -= sizeOf(key, previous);
+        }
+        Iterator<Map.Entry<K, V>> entries = map.entrySet().iterator();
+        while (size > maxSize && entries.hasNext()) {
+            Map.Entry<K, V> eldest = entries.next();
+            size -= sizeOf(eldest.getKey(), eldest.getValue());
+            entries.remove();
+        }
+        return previous;
+    }
+
+    public final void evictAll() {
+        map.clear();
+        size = 0;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+}
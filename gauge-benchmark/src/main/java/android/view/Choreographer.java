@@ -0,0 +1,53 @@
+package android.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in for android.view.Choreographer.  Nothing runs on its own: the benchmark calls
+ * doFrame() to run the callbacks posted for the next frame.
+ */
+public final class Choreographer {
+
+    private static final Choreographer instance = new Choreographer();
+
+    // callbacks for the next frame, and the ones being run
+    private List<FrameCallback> pending = new ArrayList<FrameCallback>();
+    private List<FrameCallback> running = new ArrayList<FrameCallback>();
+
+    private Choreographer() {
+    }
+
+    public static Choreographer getInstance() {
+        return instance;
+    }
+
+    public void postFrameCallback(FrameCallback callback) {
+        pending.add(callback);
+    }
+
+    public void removeFrameCallback(FrameCallback callback) {
+        while (pending.remove(callback)) {
+        }
+    }
+
+    /**
+     * Run the callbacks posted before this frame.  Callbacks they post run on the next one.
+     *
+     * @param frameTimeNanos - time of the frame.
+     */
+    public void doFrame(long frameTimeNanos) {
+        List<FrameCallback> callbacks = pending;
+        pending = running;
+        running = callbacks;
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).doFrame(frameTimeNanos);
+        }
+        callbacks.clear();
+    }
+
+    public interface FrameCallback {
+
+        void doFrame(long frameTimeNanos);
+    }
+}
@@ -0,0 +1,160 @@
+package android.view;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+
+import com.speedo.RenderCounters;
+
+/**
+ * JVM stand-in for android.view.View, with the measure, layout and draw passes the gauges
+ * take part in.  Invalidations are counted, not acted on.
+ */
+public class View {
+
+    private final Context context;
+    private int width;
+    private int height;
+    private int measuredWidth;
+    private int measuredHeight;
+
+    public View(Context context) {
+        this.context = context;
+    }
+
+    public View(Context context, AttributeSet attrs) {
+        this(context);
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public Resources getResources() {
+        return context.getResources();
+    }
+
+    public boolean isInEditMode() {
+        return false;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    public int getPaddingLeft() {
+        return 0;
+    }
+
+    public int getPaddingRight() {
+        return 0;
+    }
+
+    public int getPaddingTop() {
+        return 0;
+    }
+
+    public int getPaddingBottom() {
+        return 0;
+    }
+
+    public void invalidate() {
+        RenderCounters.invalidates++;
+    }
+
+    public void invalidate(int left, int top, int right, int bottom) {
+        RenderCounters.invalidates++;
+    }
+
+    public void invalidate(Rect dirty) {
+        RenderCounters.invalidates++;
+    }
+
+    public final void measure(int widthMeasureSpec, int heightMeasureSpec) {
+        onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    public final int getMeasuredWidth() {
+        return measuredWidth;
+    }
+
+    public final int getMeasuredHeight() {
+        return measuredHeight;
+    }
+
+    public void layout(int left, int top, int right, int bottom) {
+        int oldWidth = width;
+        int oldHeight = height;
+        width = right - left;
+        height = bottom - top;
+        if (width != oldWidth || height != oldHeight) {
+            onSizeChanged(width, height, oldWidth, oldHeight);
+        }
+    }
+
+    public void draw(Canvas canvas) {
+        onDraw(canvas);
+    }
+
+    /**
+     * Attach to or detach from a window, which the benchmark does around a view's life.
+     *
+     * @param attached - true to attach.
+     */
+    public void setAttached(boolean attached) {
+        if (attached) {
+            onAttachedToWindow();
+        } else {
+            onDetachedFromWindow();
+        }
+    }
+
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), MeasureSpec.getSize(heightMeasureSpec));
+    }
+
+    protected final void setMeasuredDimension(int measuredWidth, int measuredHeight) {
+        this.measuredWidth = measuredWidth;
+        this.measuredHeight = measuredHeight;
+    }
+
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    }
+
+    protected void onAttachedToWindow() {
+    }
+
+    protected void onDetachedFromWindow() {
+    }
+
+    protected void onDraw(Canvas canvas) {
+    }
+
+    public static class MeasureSpec {
+
+        private static final int MODE_SHIFT = 30;
+        private static final int MODE_MASK = 3 << MODE_SHIFT;
+
+        public static final int UNSPECIFIED = 0;
+        public static final int EXACTLY = 1 << MODE_SHIFT;
+        public static final int AT_MOST = 2 << MODE_SHIFT;
+
+        public static int makeMeasureSpec(int size, int mode) {
+            return (size & ~MODE_MASK) | (mode & MODE_MASK);
+        }
+
+        public static int getMode(int measureSpec) {
+            return measureSpec & MODE_MASK;
+        }
+
+        public static int getSize(int measureSpec) {
+            return measureSpec & ~MODE_MASK;
+        }
+    }
+}
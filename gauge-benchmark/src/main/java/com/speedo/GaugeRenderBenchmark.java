@@ -0,0 +1,314 @@
+package com.speedo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Counts the work the gauges do per frame, running their real drawing code on the JVM
+ * against a Canvas that records calls instead of drawing.  For each gauge and size it reports
+ * the first frame after a size change, a frame with a new reading, and a redraw without one:
+ * draw calls, canvas save/restore/transform calls, trig calls, bitmaps created and their
+ * bytes, invalidations and bytes allocated on the heap.
+ *
+ * The counts are exact and the same on every run, so a change that adds per-frame work shows
+ * up against a saved baseline, and makes the run fail.
+ *
+ * Usage: GaugeRenderBenchmark <res/drawable dir> <results.csv> [<baseline.csv>]
+ */
+public class GaugeRenderBenchmark {
+
+    private static final float DENSITY = 2;
+
+    // frames run before measuring, so the JIT has settled, and frames measured
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 2000;
+
+    // 60 fps
+    private static final long FRAME_NANOS = 16666667;
+
+    // sizes in pixels, phone to tablet at DENSITY
+    private static final int[][] NEEDLE_SIZES = { { 320, 160 }, { 640, 320 }, { 1280, 640 } };
+    private static final int[][] TEMP_SIZES = { { 162, 105 }, { 216, 140 }, { 432, 280 } };
+    private static final int[][] CAPACITY_SIZES = { { 24, 300 }, { 48, 600 }, { 96, 1200 } };
+
+    // allocations allowed over the baseline before a row counts as a regression, for the
+    // rounding of the per-frame average
+    private static final double ALLOCATION_SLACK_BYTES = 1;
+
+    private static final String[] COLUMNS = {
+            "draw_ops", "canvas_state_ops", "trig_calls", "bitmaps", "bitmap_bytes", "invalidates",
+            "alloc_bytes" };
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Context context;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private long frameTimeNanos = System.nanoTime();
+
+    // heap allocated by this thread when the measurement started
+    private long startAllocatedBytes;
+
+    // one row per gauge, size and scenario, in run order
+    private final List<String> keys = new ArrayList<String>();
+    private final Map<String, double[]> rows = new HashMap<String, double[]>();
+
+    private GaugeRenderBenchmark(File drawableDirectory) {
+        context = new Context(new Resources(drawableDirectory, DENSITY));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: GaugeRenderBenchmark <res/drawable dir> <results.csv> [<baseline.csv>]");
+            System.exit(2);
+        }
+        GaugeRenderBenchmark benchmark = new GaugeRenderBenchmark(new File(args[0]));
+        // the first pass loads and initializes classes, which would count against first frames
+        benchmark.run();
+        benchmark.keys.clear();
+        benchmark.run();
+        benchmark.print(new PrintWriter(System.out, true));
+
+        File results = new File(args[1]);
+        File dir = results.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        benchmark.write(results);
+        System.out.println("Results saved to " + results);
+
+        if (args.length == 3 && benchmark.compare(new File(args[2])) > 0) {
+            System.exit(1);
+        }
+    }
+
+    private void run() {
+        for (int[] size : NEEDLE_SIZES) {
+            final NeedleGauge gauge = createAmpGauge();
+            measure("NeedleGauge", gauge, size, new Reading() {
+                private int frame;
+
+                @Override
+                public void next() {
+                    // sweeps up and down the dial, the needle chasing it
+                    gauge.setSpeed(300 + 250 * java.lang.Math.sin(frame++ * 0.05));
+                }
+            });
+        }
+        for (int[] size : TEMP_SIZES) {
+            final TempGauge gauge = new MotorTempGauge(context);
+            measure("TempGauge", gauge, size, new Reading() {
+                private int frame;
+
+                @Override
+                public void next() {
+                    gauge.setTemp(100 + frame++ % 100);
+                }
+            });
+        }
+        for (int[] size : CAPACITY_SIZES) {
+            final CapacityGauge gauge = new CapacityGauge(context);
+            measure("CapacityGauge", gauge, size, new Reading() {
+                private int frame;
+
+                @Override
+                public void next() {
+                    gauge.setCapacity(100 - frame++ % 101);
+                }
+            });
+        }
+    }
+
+    /**
+     * The amps gauge as MainActivity sets it up.
+     */
+    private NeedleGauge createAmpGauge() {
+        NeedleGauge gauge = new NeedleGauge(context);
+        gauge.setLabelConverter(new NeedleGauge.LabelConverter() {
+            @Override
+            public String getLabelFor(double progress, double maxProgress) {
+                return String.valueOf((int) java.lang.Math.round(progress));
+            }
+        });
+        gauge.setMaxSpeed(600);
+        gauge.setMajorTickStep(100);
+        gauge.setMinorTicks(3);
+        gauge.addColoredRange(0, 400, Color.GREEN);
+        gauge.addColoredRange(400, 500, Color.YELLOW);
+        gauge.addColoredRange(500, 600, Color.RED);
+        gauge.setTitle("Amps");
+        gauge.setLabelTextSize(16);
+        return gauge;
+    }
+
+    /**
+     * Measure a gauge at a size: the first frame after laying it out, then frames with a new
+     * reading, then redraws without one.
+     */
+    private void measure(String name, View view, int[] size, Reading reading) {
+        int width = size[0];
+        int height = size[1];
+        Canvas canvas = new Canvas(width, height);
+        String prefix = name + "," + width + "x" + height + ",";
+        // the first frame decodes and scales its artwork, as it does for a new size in the app
+        context.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        view.setAttached(true);
+
+        begin();
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+        frame(view, canvas, null);
+        end(prefix + "first", 1);
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame(view, canvas, reading);
+            frame(view, canvas, null);
+        }
+
+        begin();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame(view, canvas, reading);
+        }
+        end(prefix + "update", MEASURED_FRAMES);
+
+        // let any animation finish, then redraw as is
+        for (int i = 0; i < WARMUP_FRAMES / 10; i++) {
+            frame(view, canvas, null);
+        }
+        begin();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame(view, canvas, null);
+        }
+        end(prefix + "idle", MEASURED_FRAMES);
+
+        view.setAttached(false);
+    }
+
+    /**
+     * One display frame: a new reading if any, the frame's callbacks, then the draw.
+     */
+    private void frame(View view, Canvas canvas, Reading reading) {
+        if (reading != null) {
+            reading.next();
+        }
+        frameTimeNanos += FRAME_NANOS;
+        choreographer.doFrame(frameTimeNanos);
+        view.draw(canvas);
+    }
+
+    private void begin() {
+        RenderCounters.reset();
+        startAllocatedBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void end(String key, int frames) {
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - startAllocatedBytes;
+        double[] row = {
+                RenderCounters.drawOps, RenderCounters.canvasStateOps, RenderCounters.trigCalls,
+                RenderCounters.bitmaps, RenderCounters.bitmapBytes, RenderCounters.invalidates,
+                allocated };
+        for (int i = 0; i < row.length; i++) {
+            row[i] /= frames;
+        }
+        keys.add(key);
+        rows.put(key, row);
+    }
+
+    private void print(PrintWriter out) {
+        out.printf("%-34s", "gauge, size, frame (per frame)");
+        for (String column : COLUMNS) {
+            out.printf(" %16s", column);
+        }
+        out.println();
+        for (String key : keys) {
+            out.printf("%-34s", key);
+            for (double value : rows.get(key)) {
+                out.printf(" %16.1f", value);
+            }
+            out.println();
+        }
+    }
+
+    private void write(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.print("gauge,size,frame");
+            for (String column : COLUMNS) {
+                out.print("," + column);
+            }
+            out.println();
+            for (String key : keys) {
+                out.print(key);
+                for (double value : rows.get(key)) {
+                    out.print("," + value);
+                }
+                out.println();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Print every count that grew since a baseline.
+     *
+     * @param baseline - results of an earlier run.
+     * @return - number of counts that grew.
+     * @throws IOException - if the baseline can't be read.
+     */
+    private int compare(File baseline) throws IOException {
+        int regressions = 0;
+        BufferedReader in = new BufferedReader(new FileReader(baseline));
+        try {
+            in.readLine();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(",");
+                String key = fields[0] + "," + fields[1] + "," + fields[2];
+                double[] row = rows.get(key);
+                if (row == null) {
+                    continue;
+                }
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    double before = Double.parseDouble(fields[3 + i]);
+                    double slack = COLUMNS[i].equals("alloc_bytes") ? ALLOCATION_SLACK_BYTES : 0;
+                    if (row[i] > before + slack) {
+                        System.out.printf("%s %s: %.1f -> %.1f%n", key, COLUMNS[i], before, row[i]);
+                        regressions++;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        System.out.println((regressions == 0) ? "No regressions against " + baseline
+                : regressions + " regressions against " + baseline);
+        return regressions;
+    }
+
+    /**
+     * Gives a gauge its next reading.
+     */
+    private interface Reading {
+
+        void next();
+    }
+}
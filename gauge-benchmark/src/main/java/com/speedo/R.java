@@ -0,0 +1,14 @@
+package com.speedo;
+
+/**
+ * Stand-in for the generated resource ids the gauges use.  Drawable ids index
+ * android.content.res.Resources' file names.
+ */
+public final class R {
+
+    public static final class drawable {
+        public static final int controller = 0;
+        public static final int motor = 1;
+        public static final int spot_mask = 2;
+    }
+}
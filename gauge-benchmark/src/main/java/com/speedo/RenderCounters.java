@@ -0,0 +1,36 @@
+package com.speedo;
+
+/**
+ * Work done by the gauges, counted by the Android stand-ins and the Math shim as the gauges
+ * run on the JVM.  Counted on the benchmark thread only.
+ */
+public class RenderCounters {
+
+    // Canvas draw calls
+    public static long drawOps;
+
+    // Canvas save, restore and transform calls
+    public static long canvasStateOps;
+
+    // sin, cos, tan and the like
+    public static long trigCalls;
+
+    // bitmaps created or decoded, and their pixel bytes
+    public static long bitmaps;
+    public static long bitmapBytes;
+
+    // View.invalidate() calls of any kind
+    public static long invalidates;
+
+    private RenderCounters() {
+    }
+
+    public static void reset() {
+        drawOps = 0;
+        canvasStateOps = 0;
+        trigCalls = 0;
+        bitmaps = 0;
+        bitmapBytes = 0;
+        invalidates = 0;
+    }
+}
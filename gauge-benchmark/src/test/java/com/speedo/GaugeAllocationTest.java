@@ -0,0 +1,131 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Fails the build if drawing a gauge allocates: after the first frame at a size, frames with
+ * a new reading and redraws without one must leave the thread's allocated bytes unchanged.
+ * Run without escape analysis, see build.gradle, since ART doesn't have it.
+ */
+public class GaugeAllocationTest {
+
+    private static final float DENSITY = 2;
+
+    // frames run before measuring, so the JIT has settled, and frames measured
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 1000;
+
+    private static final long FRAME_NANOS = 16666667;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Context context = new Context(new Resources(
+            new File(System.getProperty("gauge.drawables", "../app/src/main/res/drawable")), DENSITY));
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private long frameTimeNanos = System.nanoTime();
+
+    @Test
+    public void needleGaugeDrawsWithoutAllocating() {
+        final NeedleGauge gauge = new NeedleGauge(context);
+        gauge.setLabelConverter(new NeedleGauge.LabelConverter() {
+            @Override
+            public String getLabelFor(double progress, double maxProgress) {
+                return String.valueOf((int) java.lang.Math.round(progress));
+            }
+        });
+        gauge.setMaxSpeed(600);
+        gauge.setMajorTickStep(100);
+        gauge.setMinorTicks(3);
+        gauge.addColoredRange(0, 400, Color.GREEN);
+        gauge.addColoredRange(400, 600, Color.RED);
+        gauge.setTitle("Amps");
+        assertNoAllocation(gauge, 640, 320, new Runnable() {
+            private int frame;
+
+            @Override
+            public void run() {
+                gauge.setSpeed(300 + 250 * java.lang.Math.sin(frame++ * 0.05));
+            }
+        });
+    }
+
+    @Test
+    public void tempGaugeDrawsWithoutAllocating() {
+        final TempGauge gauge = new MotorTempGauge(context);
+        assertNoAllocation(gauge, 216, 140, new Runnable() {
+            private int frame;
+
+            @Override
+            public void run() {
+                gauge.setTemp(100 + frame++ % 100);
+            }
+        });
+    }
+
+    @Test
+    public void capacityGaugeDrawsWithoutAllocating() {
+        final CapacityGauge gauge = new CapacityGauge(context);
+        assertNoAllocation(gauge, 48, 600, new Runnable() {
+            private int frame;
+
+            @Override
+            public void run() {
+                gauge.setCapacity(100 - frame++ % 101);
+            }
+        });
+    }
+
+    private void assertNoAllocation(View view, int width, int height, Runnable reading) {
+        Canvas canvas = new Canvas(width, height);
+        view.setAttached(true);
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame(view, canvas, reading);
+            frame(view, canvas, null);
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame(view, canvas, reading);
+        }
+        long updates = allocatedBytes() - start;
+
+        start = allocatedBytes();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame(view, canvas, null);
+        }
+        long redraws = allocatedBytes() - start;
+
+        view.setAttached(false);
+        assertEquals("bytes allocated by " + MEASURED_FRAMES + " frames with new readings", 0, updates);
+        assertEquals("bytes allocated by " + MEASURED_FRAMES + " redraws", 0, redraws);
+    }
+
+    private void frame(View view, Canvas canvas, Runnable reading) {
+        if (reading != null) {
+            reading.run();
+        }
+        frameTimeNanos += FRAME_NANOS;
+        choreographer.doFrame(frameTimeNanos);
+        view.draw(canvas);
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,234 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Stand-in for the "CAN Relay" module.  Serves an SLCAN stream of simulated controller frames
+ * (see res/raw/signals.dbc) over TCP at a configurable frame rate, for load testing the ingest
+ * path with TcpTelemetrySource.  Runs on the development machine, embedded in a JVM tool or
+ * from the command line:
+ *
+ *     gradle :relay-emulator:run [-Pport=<port>] [-Prate=<frames per second, 0 = as fast as possible>]
+ */
+public class RelayEmulator implements Runnable {
+
+    public static final int DEFAULT_PORT = 35000;
+    public static final int DEFAULT_FRAMES_PER_SECOND = 2000;
+
+    // most frames written in one batch
+    private static final int MAX_BATCH_FRAMES = 256;
+
+    // longest line written: "t" + 3 id digits + length + 16 data digits + "\r"
+    private static final int MAX_FRAME_BYTES = 21;
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private final int port;
+    private final int framesPerSecond;
+
+    private volatile boolean running;
+    private volatile long framesSent;
+    private ServerSocket server;
+    private Thread thread;
+
+    private final byte[] batch = new byte[MAX_BATCH_FRAMES * MAX_FRAME_BYTES];
+    private final byte[] payload = new byte[8];
+
+    /**
+     * Constructor.
+     *
+     * @param port - TCP port to listen on.
+     * @param framesPerSecond - frame rate to send, 0 to send as fast as the client reads.
+     */
+    public RelayEmulator(int port, int framesPerSecond) {
+        if (framesPerSecond < 0)
+            throw new IllegalArgumentException("Negative value specified as frame rate.");
+        this.port = port;
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * Start listening on the loopback interface and serving frames on a background thread.
+     *
+     * @throws IOException - if the port can't be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        server = new ServerSocket(port, 1, InetAddress.getByName(null));
+        running = true;
+        thread = new Thread(this, "RelayEmulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop serving and close the port.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+            }
+            server = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Return the total number of frames written to clients.
+     *
+     * @return - frames sent.
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Socket client = null;
+            try {
+                client = server.accept();
+                client.setTcpNoDelay(true);
+                serve(client.getOutputStream());
+            } catch (IOException e) {
+                // client went away or server closed, wait for the next one
+            } finally {
+                if (client != null) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write frames to one client until it disconnects or the emulator stops.
+     *
+     * @param out - client stream.
+     * @throws IOException - when the client disconnects.
+     */
+    private void serve(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        long sent = 0;
+
+        while (running) {
+            int due;
+            if (framesPerSecond == 0) {
+                due = MAX_BATCH_FRAMES;
+            } else {
+                long target = (System.nanoTime() - start) * framesPerSecond / 1000000000L;
+                due = (int) Math.min(target - sent, MAX_BATCH_FRAMES);
+            }
+
+            if (due <= 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            int length = 0;
+            for (int i = 0; i < due; i++) {
+                length = encodeFrame(sent + i, length);
+            }
+            out.write(batch, 0, length);
+            sent += due;
+            framesSent += due;
+        }
+    }
+
+    /**
+     * Append the n'th simulated frame to the batch buffer.  Alternates between the controller
+     * status and temperature messages, with a BMS frame every 10th frame.
+     *
+     * @param n - frame number.
+     * @param pos - write position in batch.
+     * @return - new write position.
+     */
+    private int encodeFrame(long n, int pos) {
+        int step = (int) (n / 2);
+        int id;
+        int length;
+
+        if (n % 10 == 9) {
+            // BmsCells: min/max cell volts (mV), max cell temp (degF + 40)
+            id = 0x6B1;
+            length = 5;
+            putShort(0, 3200 + step % 100);
+            putShort(2, 3300 + step % 100);
+            payload[4] = (byte) (40 + 70 + step % 30);
+        } else if (n % 2 == 0) {
+            // ControllerStatus: volts (0.1 V), amps (0.1 A), rpm
+            id = 0x300;
+            length = 6;
+            putShort(0, step % 1400);
+            putShort(2, (step % 500) * 10);
+            putShort(4, step % 300);
+        } else {
+            // ControllerTemps: motor and controller temps (degF + 40)
+            id = 0x301;
+            length = 2;
+            payload[0] = (byte) (40 + step % 200);
+            payload[1] = (byte) (40 + (step + 50) % 200);
+        }
+
+        batch[pos++] = 't';
+        batch[pos++] = HEX_DIGITS[(id >> 8) & 0xf];
+        batch[pos++] = HEX_DIGITS[(id >> 4) & 0xf];
+        batch[pos++] = HEX_DIGITS[id & 0xf];
+        batch[pos++] = (byte) ('0' + length);
+        for (int i = 0; i < length; i++) {
+            batch[pos++] = HEX_DIGITS[(payload[i] >> 4) & 0xf];
+            batch[pos++] = HEX_DIGITS[payload[i] & 0xf];
+        }
+        batch[pos++] = '\r';
+        return pos;
+    }
+
+    /**
+     * Store a 16 bit little endian value in the payload buffer.
+     *
+     * @param offset - byte offset.
+     * @param value - value to store.
+     */
+    private void putShort(int offset, int value) {
+        payload[offset] = (byte) value;
+        payload[offset + 1] = (byte) (value >> 8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int rate = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_FRAMES_PER_SECOND;
+
+        RelayEmulator emulator = new RelayEmulator(port, rate);
+        emulator.start();
+        System.out.println("Serving SLCAN frames on port " + port + " at "
+                + (rate == 0 ? "maximum rate" : rate + " frames/s"));
+
+        long last = 0;
+        while (true) {
+            Thread.sleep(1000);
+            long sent = emulator.getFramesSent();
+            System.out.println((sent - last) + " frames/s, " + sent + " total");
+            last = sent;
+        }
+    }
+}
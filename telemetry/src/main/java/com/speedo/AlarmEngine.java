@@ -0,0 +1,171 @@
+package com.speedo;
+
+import java.util.Arrays;
+
+/**
+ * Threshold alarms on decoded signals, evaluated on the ingest thread for every frame so an
+ * alarm is raised on the sample that crosses its threshold, whatever the UI is doing.
+ *
+ * Each alarm has a raise threshold and a clear threshold on the safe side of it (hysteresis),
+ * and optionally a debounce time the condition must hold before the alarm changes state.
+ * Alarms are added before evaluation starts; after that the engine belongs to the ingest
+ * thread and the listener is called there.
+ */
+public class AlarmEngine {
+
+    public enum Level { WARNING, CRITICAL }
+
+    private Alarm[] alarms = new Alarm[0];
+
+    // channels that have at least one alarm
+    private long alarmChannels;
+
+    private Listener listener;
+
+    /**
+     * Add an alarm raised when a signal goes above a threshold.
+     *
+     * @param name - shown to the driver.
+     * @param channel - signal channel.
+     * @param level - severity.
+     * @param threshold - raised at or above this value.
+     * @param hysteresis - cleared below threshold - hysteresis.
+     * @param debounceNanos - how long the condition must hold before the state changes.
+     * @return - the alarm.
+     */
+    public Alarm addHighAlarm(String name, int channel, Level level, float threshold, float hysteresis,
+            long debounceNanos) {
+        return add(new Alarm(name, channel, level, true, threshold, threshold - hysteresis, debounceNanos));
+    }
+
+    /**
+     * Add an alarm raised when a signal goes below a threshold.
+     *
+     * @param name - shown to the driver.
+     * @param channel - signal channel.
+     * @param level - severity.
+     * @param threshold - raised at or below this value.
+     * @param hysteresis - cleared above threshold + hysteresis.
+     * @param debounceNanos - how long the condition must hold before the state changes.
+     * @return - the alarm.
+     */
+    public Alarm addLowAlarm(String name, int channel, Level level, float threshold, float hysteresis,
+            long debounceNanos) {
+        return add(new Alarm(name, channel, level, false, threshold, threshold + hysteresis, debounceNanos));
+    }
+
+    private Alarm add(Alarm alarm) {
+        if (alarm.channel < 0 || alarm.channel >= SignalTable.MAX_CHANNELS)
+            throw new IllegalArgumentException("Channel out of range.");
+        if (alarm.debounceNanos < 0)
+            throw new IllegalArgumentException("Negative value specified as debounce.");
+        alarms = Arrays.copyOf(alarms, alarms.length + 1);
+        alarms[alarms.length - 1] = alarm;
+        alarmChannels |= 1L << alarm.channel;
+        return alarm;
+    }
+
+    /**
+     * Set the object told about alarms being raised and cleared.  Called on the ingest thread.
+     *
+     * @param listener - listener, or null.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Ingest thread: check the alarms on the signals a frame updated.
+     *
+     * @param timestampNanos - System.nanoTime() of the frame.
+     * @param values - signal values, indexed by channel.
+     * @param updated - mask of the channels the frame updated.
+     */
+    public void evaluate(long timestampNanos, float[] values, long updated) {
+        if ((updated & alarmChannels) == 0) {
+            return;
+        }
+        for (Alarm alarm : alarms) {
+            if ((updated & (1L << alarm.channel)) == 0) {
+                continue;
+            }
+            float value = values[alarm.channel];
+            boolean violated = alarm.high ? value >= alarm.raise : value <= alarm.raise;
+            boolean safe = alarm.high ? value < alarm.clear : value > alarm.clear;
+
+            // the state this sample argues for, inside the hysteresis band the current state
+            boolean wanted = alarm.active ? !safe : violated;
+            if (wanted == alarm.active) {
+                alarm.pending = false;
+                continue;
+            }
+            if (!alarm.pending) {
+                alarm.pending = true;
+                alarm.pendingSinceNanos = timestampNanos;
+            }
+            if (timestampNanos - alarm.pendingSinceNanos >= alarm.debounceNanos) {
+                alarm.pending = false;
+                alarm.active = wanted;
+                if (listener != null) {
+                    listener.onAlarmChanged(alarm, wanted, value, timestampNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ingest thread: clear every alarm, e.g. when the link to the car is lost and the last
+     * values no longer mean anything.  The listener is told about alarms that were active.
+     *
+     * @param timestampNanos - System.nanoTime() of the reset.
+     */
+    public void reset(long timestampNanos) {
+        for (Alarm alarm : alarms) {
+            alarm.pending = false;
+            if (alarm.active) {
+                alarm.active = false;
+                if (listener != null) {
+                    listener.onAlarmChanged(alarm, false, Float.NaN, timestampNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * One threshold on one signal.
+     */
+    public static class Alarm {
+        public final String name;
+        public final int channel;
+        public final Level level;
+
+        private final boolean high;
+        private final float raise;
+        private final float clear;
+        private final long debounceNanos;
+
+        // ingest thread state
+        private boolean active;
+        private boolean pending;
+        private long pendingSinceNanos;
+
+        private Alarm(String name, int channel, Level level, boolean high, float raise, float clear,
+                long debounceNanos) {
+            this.name = name;
+            this.channel = channel;
+            this.level = level;
+            this.high = high;
+            this.raise = raise;
+            this.clear = clear;
+            this.debounceNanos = debounceNanos;
+        }
+    }
+
+    /**
+     * Told when an alarm is raised or cleared.  The value is NaN when cleared by reset().
+     */
+    public interface Listener {
+
+        void onAlarmChanged(Alarm alarm, boolean active, float value, long timestampNanos);
+    }
+}
@@ -0,0 +1,47 @@
+package com.speedo;
+
+/**
+ * Running sum of doubles with Neumaier compensation, so adding millions of tiny increments to a
+ * large total doesn't lose them to rounding.
+ */
+public class CompensatedSum {
+
+    private double sum;
+
+    // low order bits lost from sum
+    private double compensation;
+
+    /**
+     * Add a value to the sum.
+     *
+     * @param value - value to add.
+     */
+    public void add(double value) {
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+    }
+
+    /**
+     * Return the sum.
+     *
+     * @return - compensated sum.
+     */
+    public double get() {
+        return sum + compensation;
+    }
+
+    /**
+     * Replace the sum, e.g. to restore a saved total.
+     *
+     * @param value - new sum.
+     */
+    public void set(double value) {
+        sum = value;
+        compensation = 0;
+    }
+}
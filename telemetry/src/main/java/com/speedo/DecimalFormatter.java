@@ -0,0 +1,111 @@
+package com.speedo;
+
+/**
+ * Formats a number with a fixed number of decimals into a char array, without allocating.
+ *
+ * The exact binary value of the double is rounded half up, as BigDecimal does, so
+ * 31.349999999999998 shows as 31.3.  String.format rounds the shortest decimal that reads back
+ * as the double instead, and differs where that decimal ends in a 5 the exact value is just
+ * below: 0.15 is 0.1499999999999999944... and formats as "0.1" here but "0.2" with
+ * String.format.  Values that round to zero have no minus sign, and values too large for a
+ * long are shown as "Infinity".
+ */
+public final class DecimalFormatter {
+
+    // longest formatted number: sign, 19 digits, separator
+    public static final int MAX_LENGTH = 21;
+
+    public static final int MAX_DECIMALS = 6;
+
+    private static final long[] POWERS_OF_TEN = {
+            1, 10, 100, 1000, 10000, 100000, 1000000 };
+
+    // 2^27 + 1, splits a double into two halves whose products are exact (Dekker)
+    private static final double SPLITTER = 134217729.0;
+
+    // from here up every double is a whole number
+    private static final double TWO_TO_52 = 4503599627370496.0;
+
+    private DecimalFormatter() {
+    }
+
+    /**
+     * Format a number with a fixed number of decimals, rounding its exact value half away from
+     * zero.
+     *
+     * @param value - number to format.
+     * @param decimals - number of decimals, 0 to 6.
+     * @param separator - decimal separator.
+     * @param out - receives the text, at least MAX_LENGTH characters.
+     * @return - length of the text.
+     */
+    public static int format(double value, int decimals, char separator, char[] out) {
+        if (decimals < 0 || decimals > MAX_DECIMALS)
+            throw new IllegalArgumentException("Number of decimals out of range.");
+        if (Double.isNaN(value)) {
+            return copy("NaN", out);
+        }
+        double scale = POWERS_OF_TEN[decimals];
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * scale;
+        if (scaled >= Long.MAX_VALUE) {
+            return copy((value < 0) ? "-Infinity" : "Infinity", out);
+        }
+        long rounded = round(magnitude, scale, scaled);
+        long digits = rounded;
+
+        // written backwards from the end of the buffer, then moved to the start
+        int pos = MAX_LENGTH;
+        for (int i = 0; i < decimals; i++) {
+            out[--pos] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        if (decimals > 0) {
+            out[--pos] = separator;
+        }
+        do {
+            out[--pos] = (char) ('0' + digits % 10);
+            digits /= 10;
+        } while (digits != 0);
+        if (value < 0 && rounded != 0) {
+            out[--pos] = '-';
+        }
+
+        int length = MAX_LENGTH - pos;
+        System.arraycopy(out, pos, out, 0, length);
+        return length;
+    }
+
+    /**
+     * Round magnitude * scale half up.  The double product is itself rounded, e.g.
+     * 31.349999999999998 * 10 gives 313.5, so the rounding error of the product is worked out
+     * exactly and decides which side of the half the exact product is on.
+     *
+     * @param magnitude - non-negative value.
+     * @param scale - power of ten below 2^26, so it splits without a low half.
+     * @param scaled - magnitude * scale as a double, below Long.MAX_VALUE.
+     * @return - the exact product rounded half up.
+     */
+    private static long round(double magnitude, double scale, double scaled) {
+        double t = SPLITTER * magnitude;
+        double high = t - (t - magnitude);
+        double low = magnitude - high;
+        // magnitude * scale == scaled + error exactly
+        double error = (high * scale - scaled) + low * scale;
+
+        if (scaled < TWO_TO_52) {
+            double whole = Math.floor(scaled);
+            // exact, and its sign with the error's decides the rounding
+            double aboveHalf = (scaled - whole) - 0.5;
+            return (long) whole + ((aboveHalf + error >= 0) ? 1 : 0);
+        }
+        // scaled is whole, the fraction is all in the error
+        double errorWhole = Math.floor(error);
+        return (long) scaled + (long) errorWhole + ((error - errorWhole >= 0.5) ? 1 : 0);
+    }
+
+    private static int copy(String text, char[] out) {
+        text.getChars(0, text.length(), out, 0);
+        return text.length();
+    }
+}
@@ -0,0 +1,188 @@
+package com.speedo;
+
+/**
+ * Integrates pack current and power over time into amp-hours and kilowatt-hours, using the
+ * trapezoidal rule on the arrival timestamps of the samples.  Energy drawn from the pack
+ * (positive current) and energy regenerated into it (negative current) are accumulated
+ * separately, for the current trip and for the lifetime of the app.
+ *
+ * Samples are added by the ingest thread; requestTripReset() may be called from any thread.
+ * Each sample must be later than the one before: a sample at the same time as the previous one
+ * adds no interval and only replaces it as the start of the next.  The ingest thread stamps
+ * every frame of a read with the time of the read, so it adds one sample per read, averaging
+ * the current and the power of the frames of the read.
+ */
+public class EnergyIntegrator {
+
+    // indexes of the totals kept for the trip and the lifetime
+    public static final int DRAWN_AMP_HOURS = 0;
+    public static final int REGEN_AMP_HOURS = 1;
+    public static final int DRAWN_KILOWATT_HOURS = 2;
+    public static final int REGEN_KILOWATT_HOURS = 3;
+    public static final int TOTAL_COUNT = 4;
+
+    // samples further apart than this (e.g. across a reconnect) aren't integrated
+    private static final long MAX_GAP_NANOS = 2000000000L;
+
+    private static final double NANOS_PER_HOUR = 3600.0 * 1000000000.0;
+
+    // totals in amp-nanoseconds and watt-nanoseconds, converted on the way out
+    private final CompensatedSum[] trip = new CompensatedSum[TOTAL_COUNT];
+    private final CompensatedSum[] lifetime = new CompensatedSum[TOTAL_COUNT];
+
+    private boolean hasLastSample;
+    private long lastNanos;
+    private double lastAmps;
+    private double lastWatts;
+
+    private volatile boolean tripResetRequested;
+
+    public EnergyIntegrator() {
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            trip[i] = new CompensatedSum();
+            lifetime[i] = new CompensatedSum();
+        }
+    }
+
+    /**
+     * Add a sample and integrate the interval since the previous one.
+     *
+     * @param timestampNanos - System.nanoTime() of the sample.
+     * @param volts - pack voltage.
+     * @param amps - pack current, positive when discharging.
+     */
+    public void addSample(long timestampNanos, float volts, float amps) {
+        addSample(timestampNanos, (double) amps, (double) volts * amps);
+    }
+
+    /**
+     * Add a sample of current and power and integrate the interval since the previous one.  Use
+     * this to add an average over several frames: the average of volts times amps isn't the
+     * average volts times the average amps.
+     *
+     * @param timestampNanos - System.nanoTime() of the sample.
+     * @param amps - pack current, positive when discharging.
+     * @param watts - pack power, positive when discharging.
+     */
+    public void addSample(long timestampNanos, double amps, double watts) {
+        if (tripResetRequested) {
+            tripResetRequested = false;
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                trip[i].set(0);
+            }
+        }
+
+        long dt = timestampNanos - lastNanos;
+        if (hasLastSample && dt > 0 && dt <= MAX_GAP_NANOS) {
+            integrate(lastAmps, amps, dt, DRAWN_AMP_HOURS, REGEN_AMP_HOURS);
+            integrate(lastWatts, watts, dt, DRAWN_KILOWATT_HOURS, REGEN_KILOWATT_HOURS);
+        }
+        hasLastSample = true;
+        lastNanos = timestampNanos;
+        lastAmps = amps;
+        lastWatts = watts;
+    }
+
+    /**
+     * Start a new trip with the next sample.  Safe from any thread.
+     */
+    public void requestTripReset() {
+        tripResetRequested = true;
+    }
+
+    /**
+     * Return a trip total.
+     *
+     * @param total - DRAWN_AMP_HOURS, REGEN_AMP_HOURS, DRAWN_KILOWATT_HOURS or REGEN_KILOWATT_HOURS.
+     * @return - total in Ah or kWh.
+     */
+    public double getTrip(int total) {
+        return toHours(total, trip[total].get());
+    }
+
+    /**
+     * Return a lifetime total.
+     *
+     * @param total - DRAWN_AMP_HOURS, REGEN_AMP_HOURS, DRAWN_KILOWATT_HOURS or REGEN_KILOWATT_HOURS.
+     * @return - total in Ah or kWh.
+     */
+    public double getLifetime(int total) {
+        return toHours(total, lifetime[total].get());
+    }
+
+    /**
+     * Restore saved totals.  Call before the first sample.
+     *
+     * @param total - which total.
+     * @param tripValue - trip total in Ah or kWh.
+     * @param lifetimeValue - lifetime total in Ah or kWh.
+     */
+    public void restore(int total, double tripValue, double lifetimeValue) {
+        double scale = (total < DRAWN_KILOWATT_HOURS) ? NANOS_PER_HOUR : NANOS_PER_HOUR * 1000.0;
+        trip[total].set(tripValue * scale);
+        lifetime[total].set(lifetimeValue * scale);
+    }
+
+    /**
+     * Return net amp-hours used on this trip (drawn minus regenerated).
+     *
+     * @return - Ah.
+     */
+    public double getTripAmpHours() {
+        return getTrip(DRAWN_AMP_HOURS) - getTrip(REGEN_AMP_HOURS);
+    }
+
+    /**
+     * Return net kilowatt-hours used on this trip (drawn minus regenerated).
+     *
+     * @return - kWh.
+     */
+    public double getTripKilowattHours() {
+        return getTrip(DRAWN_KILOWATT_HOURS) - getTrip(REGEN_KILOWATT_HOURS);
+    }
+
+    /**
+     * Return net kilowatt-hours used over the lifetime of the app.
+     *
+     * @return - kWh.
+     */
+    public double getLifetimeKilowattHours() {
+        return getLifetime(DRAWN_KILOWATT_HOURS) - getLifetime(REGEN_KILOWATT_HOURS);
+    }
+
+    /**
+     * Add the trapezoid between two samples to the drawn and regen totals.  When the value
+     * changes sign in the interval, the trapezoid is split at the zero crossing so each part is
+     * credited to the right total.
+     *
+     * @param from - value at the start of the interval.
+     * @param to - value at the end of the interval.
+     * @param dt - interval in nanoseconds.
+     * @param drawn - index of the total for positive values.
+     * @param regen - index of the total for negative values.
+     */
+    private void integrate(double from, double to, long dt, int drawn, int regen) {
+        if ((from >= 0) == (to >= 0)) {
+            accumulate((from + to) * 0.5 * dt, drawn, regen);
+        } else {
+            double crossing = dt * from / (from - to);
+            accumulate(from * 0.5 * crossing, drawn, regen);
+            accumulate(to * 0.5 * (dt - crossing), drawn, regen);
+        }
+    }
+
+    private void accumulate(double area, int drawn, int regen) {
+        if (area >= 0) {
+            trip[drawn].add(area);
+            lifetime[drawn].add(area);
+        } else {
+            trip[regen].add(-area);
+            lifetime[regen].add(-area);
+        }
+    }
+
+    private static double toHours(int total, double nanoseconds) {
+        double hours = nanoseconds / NANOS_PER_HOUR;
+        return (total < DRAWN_KILOWATT_HOURS) ? hours : hours / 1000.0;
+    }
+}
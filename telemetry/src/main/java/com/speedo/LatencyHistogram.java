@@ -0,0 +1,136 @@
+package com.speedo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies in fixed memory.  Buckets are log spaced, 16 per power of two, so
+ * any latency from nanoseconds to days is kept within 6.25% (one bucket is 1/16 of its lower
+ * bound wide) and percentiles can be read at any time without storing samples.
+ *
+ * Recorded by one thread, read by any.
+ */
+public class LatencyHistogram {
+
+    // sub-buckets per power of two, as a power of two
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS per power of two up to 2^63
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    // written by the recording thread only
+    private volatile long count;
+    private volatile long max;
+
+    /**
+     * Constructor.
+     *
+     * @param name - what is measured, e.g. a pipeline stage.
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Recording thread: add a latency.
+     *
+     * @param nanos - latency, negative values count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = getBucket(nanos);
+        // single writer, so plain increments are safe
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        if (nanos > max) {
+            max = nanos;
+        }
+        count = count + 1;
+    }
+
+    /**
+     * Return the number of latencies recorded.
+     *
+     * @return - count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Return the largest latency recorded.
+     *
+     * @return - max latency in nanoseconds, 0 if none.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Return the latency that a share of the recorded latencies are at or below, rounded up to
+     * the end of its bucket.
+     *
+     * @param percentile - share in percent, e.g. 99.9.
+     * @return - latency in nanoseconds, 0 if none were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = count;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    public long getBucketValue(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Return the largest latency that falls in a bucket.
+     *
+     * @param bucket - bucket index.
+     * @return - latency in nanoseconds.
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Return the bucket a latency falls in.
+     *
+     * @param nanos - non-negative latency.
+     * @return - bucket index.
+     */
+    static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+}
@@ -0,0 +1,100 @@
+package com.speedo;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Health counters of the ingest pipeline, from bytes read to dashboard updates, for diagnosing
+ * the dash in the car.  Every counter has a single writer, which adds to it with an ordered
+ * store rather than a locked or CAS update, so counting costs the hot path next to nothing;
+ * any thread can read them.
+ *
+ * Time counters hold the nanoseconds spent in a stage and are shown as a share of wall time.
+ */
+public class PipelineStats {
+
+    public static final int BYTES_READ = 0;
+    public static final int FRAMES_DECODED = 1;
+    public static final int MALFORMED_FRAMES = 2;
+    public static final int UNKNOWN_IDS = 3;
+    public static final int RECONNECTS = 4;
+    public static final int PUBLISHES = 5;
+    public static final int UI_UPDATES = 6;
+    public static final int POLL_RESPONSES = 7;
+    public static final int POLL_TIMEOUTS = 8;
+    public static final int DECODE_NANOS = 9;
+    public static final int PUBLISH_NANOS = 10;
+    public static final int UPDATE_NANOS = 11;
+
+    private static final String[] NAMES = {
+            "bytes read", "frames decoded", "malformed frames", "unknown CAN ids", "reconnects",
+            "snapshots published", "UI updates", "poll responses", "poll timeouts",
+            "decode time", "publish time", "UI update time" };
+
+    // counters from DECODE_NANOS on are times
+    private static final int FIRST_TIME = DECODE_NANOS;
+
+    private final AtomicLongArray counters = new AtomicLongArray(NAMES.length);
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Writer of the counter only: add to a counter.
+     *
+     * @param counter - counter index.
+     * @param delta - amount to add.
+     */
+    public void add(int counter, long delta) {
+        counters.lazySet(counter, counters.get(counter) + delta);
+    }
+
+    public long get(int counter) {
+        return counters.get(counter);
+    }
+
+    /**
+     * Return an array to pass to dump(), so each reader gets rates over its own interval.
+     *
+     * @return - array holding the counters as of creation.
+     */
+    public long[] newSample() {
+        long[] sample = new long[NAMES.length + 1];
+        for (int i = 0; i < NAMES.length; i++) {
+            sample[i] = counters.get(i);
+        }
+        sample[NAMES.length] = System.nanoTime();
+        return sample;
+    }
+
+    /**
+     * Write every counter with its total and its rate since the previous dump with the same
+     * sample array.  UI updates lost to coalescing are the snapshots published but never
+     * shown.
+     *
+     * @param out - receives one line per counter.
+     * @param previous - from newSample(), updated to the counters as of this dump.
+     */
+    public void dump(PrintWriter out, long[] previous) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - previous[NAMES.length]) / 1e9;
+        long[] current = new long[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            current[i] = counters.get(i);
+        }
+
+        out.printf("uptime %.0f s, rates over the last %.1f s%n", (now - startNanos) / 1e9, seconds);
+        for (int i = 0; i < FIRST_TIME; i++) {
+            out.printf("%-20s %12d %10.1f/s%n", NAMES[i], current[i], (current[i] - previous[i]) / seconds);
+        }
+        long coalesced = Math.max(0, current[PUBLISHES] - current[UI_UPDATES]);
+        long recentCoalesced = Math.max(0, (current[PUBLISHES] - previous[PUBLISHES])
+                - (current[UI_UPDATES] - previous[UI_UPDATES]));
+        out.printf("%-20s %12d %10.1f/s%n", "UI updates coalesced", coalesced, recentCoalesced / seconds);
+        for (int i = FIRST_TIME; i < NAMES.length; i++) {
+            out.printf("%-20s %10d ms %9.2f %%%n", NAMES[i], current[i] / 1000000,
+                    (current[i] - previous[i]) / (seconds * 1e7));
+        }
+
+        System.arraycopy(current, 0, previous, 0, NAMES.length);
+        previous[NAMES.length] = now;
+    }
+}
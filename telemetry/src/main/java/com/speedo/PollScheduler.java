@@ -0,0 +1,445 @@
+package com.speedo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sends request frames to controllers that only report when polled, each at its own rate.
+ * Requests that are due together go out in one write, within a byte budget that leaves the
+ * serial link room for everything else.  A request is outstanding until its response is
+ * decoded or its timeout passes, and isn't sent again meanwhile.
+ *
+ * Polls are loaded from a text file, one per line, '#' starts a comment:
+ *
+ *     <name> <rate Hz> <timeout ms> <request id> <request data> <response id> [<response prefix>]
+ *
+ * Ids and data are hex, '-' for no data; 8 digit ids are extended.  A response is a frame with the response id
+ * whose data starts with the prefix, e.g. the mode and PID echoed by an OBD-II reply.
+ *
+ * The scheduler runs on its own thread so a slow write never stalls decoding.  onFrame() is
+ * called by the ingest thread.  Responses and timeouts are counted per poll, and in total in
+ * the pipeline stats when set.
+ */
+public class PollScheduler {
+
+    // most request bytes written per second, and in one write
+    private static final int MAX_BYTES_PER_SECOND = 2000;
+    private static final int MAX_BATCH_BYTES = 256;
+
+    // 't' or 'T', id, length digit, data, '\r'
+    private static final int MAX_REQUEST_BYTES = 1 + 8 + 1 + 16 + 1;
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+
+    // poll definitions, as parallel arrays
+    private final String[] names;
+    private final long[] periodNanos;
+    private final long[] timeoutNanos;
+    private final byte[][] requests;
+    private final int[] responseIds;
+    private final byte[][] responsePrefixes;
+
+    // written by the ingest thread
+    private final AtomicLongArray respondedNanos;
+    private final AtomicLongArray responseCounts;
+
+    // written by the scheduler thread; start() waits for the previous one to exit, so there is
+    // one writer at a time
+    private final AtomicLongArray timeoutCounts;
+
+    // totals of responses and timeouts, may be null
+    private volatile PipelineStats stats;
+
+    // polling the current connection, null when stopped
+    private Worker worker;
+
+    // thread of the last worker stopped, which may still be exiting
+    private Thread stoppedThread;
+
+    private PollScheduler(List<Poll> polls) {
+        int n = polls.size();
+        names = new String[n];
+        periodNanos = new long[n];
+        timeoutNanos = new long[n];
+        requests = new byte[n][];
+        responseIds = new int[n];
+        responsePrefixes = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            Poll poll = polls.get(i);
+            names[i] = poll.name;
+            periodNanos[i] = poll.periodNanos;
+            timeoutNanos[i] = poll.timeoutNanos;
+            requests[i] = poll.request;
+            responseIds[i] = poll.responseId;
+            responsePrefixes[i] = poll.responsePrefix;
+        }
+        respondedNanos = new AtomicLongArray(n);
+        responseCounts = new AtomicLongArray(n);
+        timeoutCounts = new AtomicLongArray(n);
+    }
+
+    /**
+     * Load poll definitions.
+     *
+     * @param in - definitions, closed when done.
+     * @return - scheduler, not started.
+     * @throws IOException - if the stream can't be read or contains a malformed definition.
+     */
+    public static PollScheduler load(InputStream in) throws IOException {
+        List<Poll> polls = new ArrayList<Poll>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                polls.add(parse(line.split("\\s+"), lineNumber));
+            }
+        } finally {
+            reader.close();
+        }
+        return new PollScheduler(polls);
+    }
+
+    private static Poll parse(String[] fields, int lineNumber) throws IOException {
+        if (fields.length < 6 || fields.length > 7) {
+            throw new IOException("Malformed poll definition on line " + lineNumber);
+        }
+        Poll poll = new Poll();
+        poll.name = fields[0];
+        try {
+            double rate = Double.parseDouble(fields[1]);
+            int timeoutMillis = Integer.parseInt(fields[2]);
+            if (rate <= 0 || timeoutMillis <= 0) {
+                throw new IOException("Non-positive rate or timeout on line " + lineNumber);
+            }
+            poll.periodNanos = (long) (1e9 / rate);
+            poll.timeoutNanos = timeoutMillis * 1000000L;
+
+            int requestId = parseId(fields[3]);
+            byte[] data = parseHex(fields[4]);
+            if (data.length > SlcanDecoder.MAX_DATA_LENGTH) {
+                throw new IOException("Request data too long on line " + lineNumber);
+            }
+            poll.request = encode(requestId, data);
+
+            poll.responseId = parseId(fields[5]);
+            poll.responsePrefix = (fields.length > 6) ? parseHex(fields[6]) : new byte[0];
+            if (poll.responsePrefix.length > SlcanDecoder.MAX_DATA_LENGTH) {
+                throw new IOException("Response prefix too long on line " + lineNumber);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number on line " + lineNumber);
+        }
+        return poll;
+    }
+
+    private static int parseId(String hex) {
+        long id = Long.parseLong(hex, 16);
+        if (hex.length() == 8) {
+            if (id > 0x1fffffff) {
+                throw new NumberFormatException();
+            }
+            return (int) id | SlcanDecoder.EXTENDED_ID_FLAG;
+        }
+        if (hex.length() > 3 || id > 0x7ff) {
+            throw new NumberFormatException();
+        }
+        return (int) id;
+    }
+
+    private static byte[] parseHex(String hex) {
+        if (hex.equals("-")) {
+            return new byte[0];
+        }
+        if (hex.length() % 2 != 0) {
+            throw new NumberFormatException();
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Build the SLCAN transmit command for a frame.
+     *
+     * @param id - CAN id, with SlcanDecoder.EXTENDED_ID_FLAG set for extended ids.
+     * @param data - frame payload.
+     * @return - command, ending in '\r'.
+     */
+    static byte[] encode(int id, byte[] data) {
+        boolean extended = (id & SlcanDecoder.EXTENDED_ID_FLAG) != 0;
+        int idDigits = extended ? 8 : 3;
+        id &= ~SlcanDecoder.EXTENDED_ID_FLAG;
+        byte[] command = new byte[1 + idDigits + 1 + 2 * data.length + 1];
+        int pos = 0;
+        command[pos++] = (byte) (extended ? 'T' : 't');
+        for (int shift = (idDigits - 1) * 4; shift >= 0; shift -= 4) {
+            command[pos++] = HEX_DIGITS[(id >>> shift) & 0xf];
+        }
+        command[pos++] = HEX_DIGITS[data.length];
+        for (byte b : data) {
+            command[pos++] = HEX_DIGITS[(b >> 4) & 0xf];
+            command[pos++] = HEX_DIGITS[b & 0xf];
+        }
+        command[pos] = '\r';
+        return command;
+    }
+
+    /**
+     * Return the number of polls.
+     *
+     * @return - poll count, 0 if there's nothing to poll.
+     */
+    public int getPollCount() {
+        return names.length;
+    }
+
+    public String getName(int poll) {
+        return names[poll];
+    }
+
+    public long getResponseCount(int poll) {
+        return responseCounts.get(poll);
+    }
+
+    public long getTimeoutCount(int poll) {
+        return timeoutCounts.get(poll);
+    }
+
+    /**
+     * Set where response and timeout totals are counted.  Call before start().
+     *
+     * @param stats - receives PipelineStats.POLL_RESPONSES and POLL_TIMEOUTS, or null.
+     */
+    public void setStats(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Start polling a connection on a new thread, once the thread polling the previous one has
+     * exited.  Its link should be closed by then, so it isn't stuck writing.
+     *
+     * @param out - relay command stream.
+     */
+    public synchronized void start(OutputStream out) {
+        stop();
+        if (stoppedThread != null) {
+            try {
+                stoppedThread.join();
+            } catch (InterruptedException e) {
+                // the caller is being stopped, don't start another
+                Thread.currentThread().interrupt();
+                return;
+            }
+            stoppedThread = null;
+        }
+        worker = new Worker(out);
+        worker.thread.start();
+    }
+
+    /**
+     * Stop polling.  Returns without waiting for the thread, which exits at its next wakeup or
+     * when its write fails because the link was closed.
+     */
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.stop();
+            stoppedThread = worker.thread;
+            worker = null;
+        }
+    }
+
+    /**
+     * Ingest thread: note a decoded frame that may be a response.
+     *
+     * @param id - CAN id, with SlcanDecoder.EXTENDED_ID_FLAG set for extended ids.
+     * @param data - frame payload.
+     * @param length - number of valid bytes in data.
+     * @param timestampNanos - arrival time of the frame.
+     */
+    public void onFrame(int id, byte[] data, int length, long timestampNanos) {
+        PipelineStats stats = this.stats;
+        for (int i = 0; i < responseIds.length; i++) {
+            if (responseIds[i] != id || !startsWith(data, length, responsePrefixes[i])) {
+                continue;
+            }
+            // single writer, so a plain increment is safe
+            responseCounts.lazySet(i, responseCounts.get(i) + 1);
+            respondedNanos.lazySet(i, timestampNanos);
+            if (stats != null) {
+                stats.add(PipelineStats.POLL_RESPONSES, 1);
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Requests for one connection.  The outstanding state starts afresh with each connection.
+     */
+    private class Worker implements Runnable {
+        private final OutputStream out;
+        private final long[] nextDueNanos = new long[names.length];
+        private final long[] sentNanos = new long[names.length];
+        private final boolean[] outstanding = new boolean[names.length];
+        private final byte[] batch = new byte[MAX_BATCH_BYTES];
+
+        private final Thread thread = new Thread(this, "PollScheduler");
+
+        private volatile boolean stopped;
+
+        Worker(OutputStream out) {
+            this.out = out;
+        }
+
+        void stop() {
+            stopped = true;
+            thread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            long budget = MAX_BATCH_BYTES;
+            long start = System.nanoTime();
+            for (int i = 0; i < names.length; i++) {
+                nextDueNanos[i] = start;
+            }
+            long budgetNanos = start;
+
+            try {
+                while (!stopped) {
+                    long now = System.nanoTime();
+
+                    // retire answered and timed out requests
+                    for (int i = 0; i < names.length; i++) {
+                        if (!outstanding[i]) {
+                            continue;
+                        }
+                        if (respondedNanos.get(i) - sentNanos[i] >= 0) {
+                            outstanding[i] = false;
+                        } else if (now - sentNanos[i] >= timeoutNanos[i]) {
+                            outstanding[i] = false;
+                            timeoutCounts.lazySet(i, timeoutCounts.get(i) + 1);
+                            PipelineStats stats = PollScheduler.this.stats;
+                            if (stats != null) {
+                                stats.add(PipelineStats.POLL_TIMEOUTS, 1);
+                            }
+                        }
+                    }
+
+                    // refill the byte budget, a batch at most, keeping fractions of a byte
+                    long earned = (now - budgetNanos) * MAX_BYTES_PER_SECOND / 1000000000L;
+                    if (budget + earned >= MAX_BATCH_BYTES) {
+                        budget = MAX_BATCH_BYTES;
+                        budgetNanos = now;
+                    } else {
+                        budget += earned;
+                        budgetNanos += earned * 1000000000L / MAX_BYTES_PER_SECOND;
+                    }
+
+                    // most overdue first, until the batch or the budget is full
+                    int length = 0;
+                    while (true) {
+                        int next = -1;
+                        for (int i = 0; i < names.length; i++) {
+                            if (!outstanding[i] && nextDueNanos[i] - now <= 0
+                                    && (next < 0 || nextDueNanos[i] - nextDueNanos[next] < 0)) {
+                                next = i;
+                            }
+                        }
+                        if (next < 0 || length + requests[next].length > Math.min(budget, MAX_BATCH_BYTES)) {
+                            break;
+                        }
+                        System.arraycopy(requests[next], 0, batch, length, requests[next].length);
+                        length += requests[next].length;
+
+                        outstanding[next] = true;
+                        sentNanos[next] = now;
+                        nextDueNanos[next] += periodNanos[next];
+                        if (nextDueNanos[next] - now < 0) {
+                            // fell behind, skip the missed polls rather than bursting
+                            nextDueNanos[next] = now + periodNanos[next];
+                        }
+                    }
+                    if (length > 0) {
+                        out.write(batch, 0, length);
+                        out.flush();
+                        budget -= length;
+                    }
+
+                    // sleep until a request times out, or until one is due and the budget allows
+                    // it; timeouts don't wait for the budget
+                    long timeoutWake = now + 1000000000L;
+                    long sendWake = now + 1000000000L;
+                    for (int i = 0; i < names.length; i++) {
+                        if (outstanding[i]) {
+                            long timeout = sentNanos[i] + timeoutNanos[i];
+                            if (timeout - timeoutWake < 0) {
+                                timeoutWake = timeout;
+                            }
+                        }
+                        // an outstanding poll that comes due may have been answered by then
+                        long due = nextDueNanos[i];
+                        if ((!outstanding[i] || due - now > 0) && due - sendWake < 0) {
+                            sendWake = due;
+                        }
+                    }
+                    if (budget < MAX_REQUEST_BYTES) {
+                        long refill = now + (MAX_REQUEST_BYTES - budget) * 1000000000L / MAX_BYTES_PER_SECOND;
+                        if (refill - sendWake > 0) {
+                            sendWake = refill;
+                        }
+                    }
+                    long wake = (timeoutWake - sendWake < 0) ? timeoutWake : sendWake;
+                    long sleep = wake - System.nanoTime();
+                    if (sleep > 0) {
+                        Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (IOException e) {
+                // link closed, the ingest thread reconnects and restarts polling
+            }
+        }
+    }
+
+    /**
+     * Poll definition as read from the file.
+     */
+    private static class Poll {
+        String name;
+        long periodNanos;
+        long timeoutNanos;
+        byte[] request;
+        int responseId;
+        byte[] responsePrefix;
+    }
+}
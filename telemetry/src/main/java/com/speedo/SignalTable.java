@@ -0,0 +1,390 @@
+package com.speedo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Signal definitions loaded from a DBC-style file and compiled into a dispatch table indexed by
+ * CAN id.  Every signal is assigned a channel, and decode() writes the physical values of the
+ * signals carried by a frame into a float array indexed by channel.
+ *
+ * Only BO_ and SG_ lines are used; everything else in the file is ignored.  The gauges' signals
+ * always get the fixed channels below, any other signal gets the next free channel in file order.
+ */
+public class SignalTable {
+
+    // channels of the signals shown on the dashboard
+    public static final int VOLTS = 0;
+    public static final int AMPS = 1;
+    public static final int RPM = 2;
+    public static final int MOTOR_TEMP = 3;
+    public static final int CONTROLLER_TEMP = 4;
+
+    // channels computed by the app rather than decoded from frames
+    public static final int TRIP_AMP_HOURS = 5;
+    public static final int TRIP_KILOWATT_HOURS = 6;
+    public static final int LIFETIME_KILOWATT_HOURS = 7;
+    public static final int STATE_OF_CHARGE = 8;
+    public static final int KILOWATTS = 9;
+
+    // signal names for the channels above
+    private static final String[] DISPLAYED_SIGNALS = {
+            "Volts", "Amps", "Rpm", "MotorTemp", "ControllerTemp",
+            "TripAmpHours", "TripKilowattHours", "LifetimeKilowattHours", "StateOfCharge", "Kilowatts"
+    };
+
+    // decode() reports updated channels as a bit mask
+    public static final int MAX_CHANNELS = 64;
+
+    private static final int STANDARD_ID_COUNT = 0x800;
+
+    // BO_ <id> <name>: <dlc> <transmitter>
+    private static final Pattern MESSAGE_PATTERN =
+            Pattern.compile("^BO_\\s+(\\d+)\\s+(\\w+)\\s*:\\s*(\\d+)\\s*(\\w*)\\s*$");
+
+    // SG_ <name> [M|mN] : <start>|<length>@<order><sign> (<factor>,<offset>) [<min>|<max>] "<unit>" <receivers>
+    private static final Pattern SIGNAL_PATTERN = Pattern.compile(
+            "^SG_\\s+(\\w+)\\s*(M|m\\d+)?\\s*:\\s*(\\d+)\\|(\\d+)@([01])([+-])\\s*"
+            + "\\(\\s*([^,\\s]+)\\s*,\\s*([^)\\s]+)\\s*\\).*$");
+
+    // messages for standard ids, indexed by id
+    private final Message[] standardMessages = new Message[STANDARD_ID_COUNT];
+
+    // messages for extended ids, sorted by id
+    private int[] extendedIds = new int[0];
+    private Message[] extendedMessages = new Message[0];
+
+    private final List<String> channelNames = new ArrayList<String>();
+
+    private SignalTable() {
+        channelNames.addAll(Arrays.asList(DISPLAYED_SIGNALS));
+    }
+
+    /**
+     * Load and compile a signal definition file.
+     *
+     * @param in - DBC-style definitions, closed when done.
+     * @return - compiled table.
+     * @throws IOException - if the stream can't be read or contains a malformed definition.
+     */
+    public static SignalTable load(InputStream in) throws IOException {
+        SignalTable table = new SignalTable();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            table.parse(reader);
+        } finally {
+            reader.close();
+        }
+        return table;
+    }
+
+    /**
+     * Decode the signals carried by a frame.
+     *
+     * @param id - CAN id, with SlcanDecoder.EXTENDED_ID_FLAG set for extended ids.
+     * @param data - frame payload.
+     * @param length - number of valid bytes in data.
+     * @param values - receives physical values, indexed by channel.
+     * @return - bit mask of the channels written, 0 if the id carries no known signal.
+     */
+    public long decode(int id, byte[] data, int length, float[] values) {
+        Message message = getMessage(id);
+        if (message == null) {
+            return 0;
+        }
+
+        // payload as little endian (intel) and big endian (motorola) 64 bit words
+        long little = 0;
+        long big = 0;
+        for (int i = 0; i < length; i++) {
+            long b = data[i] & 0xffL;
+            little |= b << (8 * i);
+            big |= b << (8 * (7 - i));
+        }
+
+        long updated = 0;
+        for (int i = 0; i < message.count; i++) {
+            if (length < message.minLength[i]) {
+                continue;
+            }
+            long raw = ((message.bigEndian[i] ? big : little) >>> message.shift[i]) & message.mask[i];
+            if (message.signed[i]) {
+                int unused = 64 - message.bits[i];
+                raw = (raw << unused) >> unused;
+            }
+            int channel = message.channel[i];
+            values[channel] = (float) (raw * message.factor[i] + message.offset[i]);
+            updated |= 1L << channel;
+        }
+        return updated;
+    }
+
+    /**
+     * Return whether any signal is defined for a CAN id.
+     *
+     * @param id - CAN id, with SlcanDecoder.EXTENDED_ID_FLAG set for extended ids.
+     * @return - true if decode() knows the id.
+     */
+    public boolean isKnownId(int id) {
+        return getMessage(id) != null;
+    }
+
+    private Message getMessage(int id) {
+        if ((id & SlcanDecoder.EXTENDED_ID_FLAG) == 0) {
+            return standardMessages[id & (STANDARD_ID_COUNT - 1)];
+        }
+        int index = Arrays.binarySearch(extendedIds, id);
+        return (index >= 0) ? extendedMessages[index] : null;
+    }
+
+    /**
+     * Return the number of channels.  Arrays passed to decode() must be at least this long.
+     *
+     * @return - channel count.
+     */
+    public int getChannelCount() {
+        return channelNames.size();
+    }
+
+    /**
+     * Return the signal name of a channel.
+     *
+     * @param channel - channel index.
+     * @return - signal name.
+     */
+    public String getChannelName(int channel) {
+        return channelNames.get(channel);
+    }
+
+    /**
+     * Return the channel of a signal.
+     *
+     * @param name - signal name.
+     * @return - channel index, or -1 if no such signal.
+     */
+    public int getChannel(String name) {
+        return channelNames.indexOf(name);
+    }
+
+    /**
+     * Parse definitions and fill in the dispatch table.
+     *
+     * @param reader - definitions.
+     * @throws IOException - on read failure or malformed definition.
+     */
+    private void parse(BufferedReader reader) throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        List<List<SignalDefinition>> signals = new ArrayList<List<SignalDefinition>>();
+        List<SignalDefinition> current = null;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.startsWith("BO_ ")) {
+                Matcher m = MESSAGE_PATTERN.matcher(line);
+                if (!m.matches()) {
+                    throw new IOException("Malformed message definition on line " + lineNumber);
+                }
+                // DBC ids are unsigned 32 bit, extended ids have bit 31 set
+                int id = (int) parseLong(m.group(1), 0xffffffffL, lineNumber);
+                if ((id & SlcanDecoder.EXTENDED_ID_FLAG) == 0 && id >= STANDARD_ID_COUNT) {
+                    throw new IOException("Standard id out of range on line " + lineNumber);
+                }
+                current = new ArrayList<SignalDefinition>();
+                if ((id & ~SlcanDecoder.EXTENDED_ID_FLAG) > 0x1fffffff) {
+                    // pseudo message used by DBC editors for unassigned signals, never on the bus
+                    continue;
+                }
+                ids.add(id);
+                signals.add(current);
+            } else if (line.startsWith("SG_ ")) {
+                Matcher m = SIGNAL_PATTERN.matcher(line);
+                if (current == null || !m.matches()) {
+                    throw new IOException("Malformed signal definition on line " + lineNumber);
+                }
+                if (m.group(2) != null) {
+                    // multiplexed signals aren't supported
+                    continue;
+                }
+                SignalDefinition signal = new SignalDefinition();
+                signal.name = m.group(1);
+                signal.startBit = (int) parseLong(m.group(3), Integer.MAX_VALUE, lineNumber);
+                signal.bits = (int) parseLong(m.group(4), Integer.MAX_VALUE, lineNumber);
+                signal.bigEndian = m.group(5).equals("0");
+                signal.signed = m.group(6).equals("-");
+                try {
+                    signal.factor = Double.parseDouble(m.group(7));
+                    signal.offset = Double.parseDouble(m.group(8));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed scale or offset on line " + lineNumber);
+                }
+                if (signal.bits < 1 || signal.bits > 64 || signal.startBit > 63) {
+                    throw new IOException("Signal doesn't fit in a frame on line " + lineNumber);
+                }
+                current.add(signal);
+            }
+        }
+
+        int extendedCount = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (ids.get(i) < 0 && !signals.get(i).isEmpty()) {
+                extendedCount++;
+            }
+        }
+        extendedIds = new int[extendedCount];
+        extendedMessages = new Message[extendedCount];
+
+        int next = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (signals.get(i).isEmpty()) {
+                // nothing to decode, leave the slot empty so the id is skipped
+                continue;
+            }
+            int id = ids.get(i);
+            Message message = compile(signals.get(i));
+            if ((id & SlcanDecoder.EXTENDED_ID_FLAG) == 0) {
+                if (standardMessages[id] != null) {
+                    throw new IOException("Duplicate definition of message " + id);
+                }
+                standardMessages[id] = message;
+            } else {
+                // keep extended ids sorted for the binary search in decode()
+                int index = next++;
+                while (index > 0 && extendedIds[index - 1] > id) {
+                    extendedIds[index] = extendedIds[index - 1];
+                    extendedMessages[index] = extendedMessages[index - 1];
+                    index--;
+                }
+                if (index > 0 && extendedIds[index - 1] == id) {
+                    throw new IOException("Duplicate definition of message " + (id & 0xffffffffL));
+                }
+                extendedIds[index] = id;
+                extendedMessages[index] = message;
+            }
+        }
+    }
+
+    /**
+     * Parse a decimal number of the file.
+     *
+     * @param digits - digits matched by a pattern.
+     * @param max - largest value allowed.
+     * @param lineNumber - line of the number, for the error.
+     * @return - value.
+     * @throws IOException - if the number is too large.
+     */
+    private static long parseLong(String digits, long max, int lineNumber) throws IOException {
+        try {
+            long value = Long.parseLong(digits);
+            if (value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // more digits than a long holds
+        }
+        throw new IOException("Number out of range on line " + lineNumber);
+    }
+
+    /**
+     * Precompute extraction parameters for the signals of one message.
+     *
+     * @param definitions - parsed signals.
+     * @return - compiled message.
+     * @throws IOException - if a signal doesn't fit in 8 bytes or there are too many channels.
+     */
+    private Message compile(List<SignalDefinition> definitions) throws IOException {
+        Message message = new Message(definitions.size());
+        for (int i = 0; i < message.count; i++) {
+            SignalDefinition signal = definitions.get(i);
+
+            int lsb;
+            int msb;
+            if (signal.bigEndian) {
+                // motorola start bit is the msb, numbered within its byte; convert to a bit
+                // position in the big endian word built by decode()
+                msb = (7 - signal.startBit / 8) * 8 + signal.startBit % 8;
+                lsb = msb - signal.bits + 1;
+            } else {
+                lsb = signal.startBit;
+                msb = lsb + signal.bits - 1;
+            }
+            if (lsb < 0 || msb > 63) {
+                throw new IOException("Signal " + signal.name + " doesn't fit in a frame");
+            }
+
+            int channel = channelNames.indexOf(signal.name);
+            if (channel < 0) {
+                if (channelNames.size() >= MAX_CHANNELS) {
+                    throw new IOException("Too many signals, limit is " + MAX_CHANNELS);
+                }
+                channel = channelNames.size();
+                channelNames.add(signal.name);
+            }
+
+            message.channel[i] = channel;
+            message.shift[i] = lsb;
+            message.bits[i] = signal.bits;
+            message.mask[i] = (signal.bits == 64) ? -1L : (1L << signal.bits) - 1;
+            message.bigEndian[i] = signal.bigEndian;
+            message.signed[i] = signal.signed;
+            message.factor[i] = signal.factor;
+            message.offset[i] = signal.offset;
+            message.minLength[i] = signal.bigEndian ? 8 - lsb / 8 : msb / 8 + 1;
+        }
+        return message;
+    }
+
+    /**
+     * Signal as read from the file, before compiling.
+     */
+    private static class SignalDefinition {
+        String name;
+        int startBit;
+        int bits;
+        boolean bigEndian;
+        boolean signed;
+        double factor;
+        double offset;
+    }
+
+    /**
+     * Compiled signals of one CAN id, stored as parallel arrays.
+     */
+    private static class Message {
+        final int count;
+        final int[] channel;
+        final int[] shift;
+        final int[] bits;
+        final long[] mask;
+        final boolean[] bigEndian;
+        final boolean[] signed;
+        final double[] factor;
+        final double[] offset;
+
+        // frame length needed to contain the signal
+        final int[] minLength;
+
+        Message(int count) {
+            this.count = count;
+            channel = new int[count];
+            shift = new int[count];
+            bits = new int[count];
+            mask = new long[count];
+            bigEndian = new boolean[count];
+            signed = new boolean[count];
+            factor = new double[count];
+            offset = new double[count];
+            minLength = new int[count];
+        }
+    }
+}
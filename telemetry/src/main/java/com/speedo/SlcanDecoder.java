@@ -0,0 +1,253 @@
+package com.speedo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes the SLCAN (Lawicel ASCII) stream sent by the "CAN Relay" module.  Frames look like
+ * "tIIILDD..\r" for standard ids and "TIIIIIIIILDD..\r" for extended ids.  Bytes are read into
+ * a reusable buffer and each line is split and parsed in place, so decoding a frame does not
+ * allocate.
+ */
+public class SlcanDecoder {
+
+    // flag or'ed into the id of frames with a 29 bit identifier (same convention as DBC files)
+    public static final int EXTENDED_ID_FLAG = 0x80000000;
+
+    public static final int MAX_DATA_LENGTH = 8;
+
+    // 'T' + 8 id digits + length digit + 16 data digits + optional 4 digit timestamp
+    private static final int MAX_LINE_LENGTH = 30;
+
+    private static final int DEFAULT_READ_BUFFER_SIZE = 1024;
+
+    // ascii -> hex digit value, -1 if not a hex digit
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private final FrameListener listener;
+    private final byte[] readBuffer;
+
+    // partial line carried between reads
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength;
+    private boolean lineOverflow;
+
+    // payload of the frame currently being delivered
+    private final byte[] data = new byte[MAX_DATA_LENGTH];
+
+    private long framesDecoded;
+    private long malformedFrames;
+
+    // System.nanoTime() at which the last read() returned data
+    private long readNanos;
+
+    public SlcanDecoder(FrameListener listener) {
+        this(listener, DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener - receives each decoded frame.
+     * @param readBufferSize - size of the buffer used by read().
+     */
+    public SlcanDecoder(FrameListener listener, int readBufferSize) {
+        if (readBufferSize <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as read buffer size.");
+        this.listener = listener;
+        this.readBuffer = new byte[readBufferSize];
+    }
+
+    /**
+     * Read whatever is available from the stream (blocking until at least one byte arrives) and
+     * decode all complete frames.  Frames are stamped with the time the read returned.
+     *
+     * @param in - stream to read.
+     * @return - number of bytes read, or -1 at end of stream.
+     * @throws IOException - if the read fails.
+     */
+    public int read(InputStream in) throws IOException {
+        int count = in.read(readBuffer, 0, readBuffer.length);
+        if (count > 0) {
+            readNanos = System.nanoTime();
+            feed(readBuffer, 0, count, readNanos);
+        }
+        return count;
+    }
+
+    /**
+     * Decode a chunk of the stream.  Lines may be split across calls.
+     *
+     * @param buffer - bytes to decode.
+     * @param offset - index of first byte.
+     * @param count - number of bytes.
+     * @param timestampNanos - System.nanoTime() at which the bytes arrived.
+     */
+    public void feed(byte[] buffer, int offset, int count, long timestampNanos) {
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '\r' || b == '\n') {
+                if (lineOverflow) {
+                    malformedFrames++;
+                } else if (lineLength > 0) {
+                    decodeLine(timestampNanos);
+                }
+                lineLength = 0;
+                lineOverflow = false;
+            } else if (lineLength < MAX_LINE_LENGTH) {
+                line[lineLength++] = b;
+            } else {
+                lineOverflow = true;
+            }
+        }
+    }
+
+    /**
+     * Drop any partially received line, e.g. after reconnecting.
+     */
+    public void reset() {
+        lineLength = 0;
+        lineOverflow = false;
+    }
+
+    /**
+     * Return the number of frames delivered to the listener.
+     *
+     * @return - frames decoded.
+     */
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    /**
+     * Return the number of frame lines that could not be parsed.
+     *
+     * @return - malformed frames.
+     */
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    /**
+     * Return when the last read() returned data, which is when decoding it started.
+     *
+     * @return - System.nanoTime() of the read, 0 if nothing was read yet.
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Parse the line currently held in line[].  Status replies from the relay ('z', 'Z' acks)
+     * are ignored, anything else that isn't a well formed data or remote frame is counted as
+     * malformed.
+     *
+     * @param timestampNanos - arrival time of the line.
+     */
+    private void decodeLine(long timestampNanos) {
+        int idDigits;
+        boolean remote;
+        switch (line[0]) {
+            case 't':
+                idDigits = 3;
+                remote = false;
+                break;
+            case 'T':
+                idDigits = 8;
+                remote = false;
+                break;
+            case 'r':
+                idDigits = 3;
+                remote = true;
+                break;
+            case 'R':
+                idDigits = 8;
+                remote = true;
+                break;
+            case 'z':
+            case 'Z':
+                return;
+            default:
+                malformedFrames++;
+                return;
+        }
+
+        int pos = 1;
+        if (lineLength < pos + idDigits + 1) {
+            malformedFrames++;
+            return;
+        }
+
+        int id = 0;
+        for (int i = 0; i < idDigits; i++) {
+            int digit = HEX_VALUES[line[pos++] & 0xff];
+            if (digit < 0) {
+                malformedFrames++;
+                return;
+            }
+            id = (id << 4) | digit;
+        }
+        if (idDigits == 3) {
+            if (id > 0x7ff) {
+                malformedFrames++;
+                return;
+            }
+        } else {
+            if (id > 0x1fffffff) {
+                malformedFrames++;
+                return;
+            }
+            id |= EXTENDED_ID_FLAG;
+        }
+
+        int length = line[pos++] - '0';
+        if (length < 0 || length > MAX_DATA_LENGTH) {
+            malformedFrames++;
+            return;
+        }
+
+        if (!remote) {
+            // data bytes, optionally followed by a 4 digit relay timestamp that we don't use
+            int remaining = lineLength - pos;
+            if (remaining != length * 2 && remaining != length * 2 + 4) {
+                malformedFrames++;
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                int hi = HEX_VALUES[line[pos++] & 0xff];
+                int lo = HEX_VALUES[line[pos++] & 0xff];
+                if ((hi | lo) < 0) {
+                    malformedFrames++;
+                    return;
+                }
+                data[i] = (byte) ((hi << 4) | lo);
+            }
+        }
+
+        framesDecoded++;
+        listener.onFrame(id, data, remote ? 0 : length, timestampNanos);
+    }
+
+    /**
+     * Receives decoded frames.  The data array is reused for every frame and is only valid for
+     * the duration of the call.
+     */
+    public interface FrameListener {
+
+        void onFrame(int id, byte[] data, int length, long timestampNanos);
+    }
+}
@@ -0,0 +1,77 @@
+package com.speedo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffered handoff of TelemetrySnapshots from one writer thread to one reader thread.
+ * The writer fills a private snapshot and swaps it with the shared one; the reader swaps the
+ * shared one with its own only when it is newer.  Neither side ever waits or allocates, and the
+ * reader always sees every field of a snapshot from the same publish.
+ */
+public class SnapshotBuffer {
+
+    // low bits of shared hold the index of the shared buffer, FRESH is set when it's unread
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final TelemetrySnapshot[] buffers = new TelemetrySnapshot[3];
+    private final AtomicInteger shared = new AtomicInteger(1);
+
+    // owned by the writer thread
+    private int writeIndex = 0;
+    private long sequence;
+
+    // owned by the reader thread
+    private int readIndex = 2;
+
+    /**
+     * Constructor.
+     *
+     * @param channelCount - number of signal channels in each snapshot.
+     */
+    public SnapshotBuffer(int channelCount) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new TelemetrySnapshot(channelCount);
+        }
+    }
+
+    /**
+     * Writer: return the snapshot to fill for the next publish().  Its contents are stale, so
+     * every field must be written.
+     *
+     * @return - snapshot owned by the writer until publish().
+     */
+    public TelemetrySnapshot beginWrite() {
+        return buffers[writeIndex];
+    }
+
+    /**
+     * Writer: make the snapshot returned by beginWrite() visible to the reader.
+     */
+    public void publish() {
+        buffers[writeIndex].sequence = ++sequence;
+        writeIndex = shared.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Reader: return the most recently published snapshot.  The snapshot stays unchanged until
+     * the next call to read().
+     *
+     * @return - latest snapshot (sequence 0 if nothing was published yet).
+     */
+    public TelemetrySnapshot read() {
+        if ((shared.get() & FRESH) != 0) {
+            readIndex = shared.getAndSet(readIndex) & INDEX_MASK;
+        }
+        return buffers[readIndex];
+    }
+
+    /**
+     * Return whether a snapshot was published since the reader's last read().
+     *
+     * @return - true if read() would return a newer snapshot.
+     */
+    public boolean hasUpdate() {
+        return (shared.get() & FRESH) != 0;
+    }
+}
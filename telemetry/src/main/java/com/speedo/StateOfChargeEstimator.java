@@ -0,0 +1,207 @@
+package com.speedo;
+
+/**
+ * Estimates battery state of charge by counting coulombs, corrected toward the open circuit
+ * voltage curve of the pack's chemistry whenever the pack has been resting long enough for
+ * the voltage to recover.
+ *
+ * The starting point is the estimate saved by the previous run, see restore(), unless the pack
+ * has rested since it was saved, e.g. charging with the app off, in which case it's the open
+ * circuit voltage.  Without a saved estimate it's the open circuit voltage too.  The voltage is
+ * only trusted for this when the current is near zero and the voltage has been received: until
+ * then, e.g. when started under load, there is no estimate.
+ *
+ * The reported value only falls while discharging and only rises while charging, so load
+ * sag, regen pulses and corrections don't make the gauge jump around.
+ *
+ * As with EnergyIntegrator, each sample must be later than the one before.
+ */
+public class StateOfChargeEstimator {
+
+    /**
+     * Supported chemistries, each with its resting cell voltage at 0%, 10%, ... 100% charge.
+     */
+    public enum Chemistry {
+        LIFEPO4(new float[] {
+                2.50f, 3.00f, 3.20f, 3.22f, 3.25f, 3.26f, 3.27f, 3.28f, 3.30f, 3.33f, 3.40f }),
+        NMC(new float[] {
+                3.00f, 3.45f, 3.55f, 3.62f, 3.68f, 3.74f, 3.80f, 3.88f, 3.96f, 4.06f, 4.18f }),
+        LEAD_ACID(new float[] {
+                1.98f, 2.00f, 2.01f, 2.02f, 2.04f, 2.05f, 2.07f, 2.08f, 2.10f, 2.11f, 2.12f });
+
+        private final float[] restingCellVolts;
+
+        Chemistry(float[] restingCellVolts) {
+            this.restingCellVolts = restingCellVolts;
+        }
+    }
+
+    // the pack counts as resting below this current (fraction of capacity per hour)...
+    private static final double REST_CURRENT_C_RATE = 0.01;
+
+    // ...for at least this long
+    private static final long REST_NANOS = 60 * 1000000000L;
+
+    // time constant for pulling the estimate toward the open circuit voltage when resting
+    private static final double CORRECTION_NANOS = 120 * 1000000000.0;
+
+    // pack voltages below this fraction of the empty voltage are missing readings, e.g. volts
+    // not received yet when they come in another message than amps
+    private static final double MIN_VALID_VOLTS_FRACTION = 0.5;
+
+    // samples further apart than this aren't integrated
+    private static final long MAX_GAP_NANOS = 2000000000L;
+
+    private static final double NANOS_PER_HOUR = 3600.0 * 1000000000.0;
+
+    private final double capacityAmpHours;
+    private final int seriesCells;
+    private final Chemistry chemistry;
+    private final double restAmps;
+    private final double minValidVolts;
+
+    // estimate saved by a previous run, and how long ago, NaN if none
+    private double restored = Double.NaN;
+    private long restoredAgeNanos;
+
+    private long lastNanos;
+    private double lastAmps;
+    private long restStartNanos;
+
+    // whether there is an estimate yet, the coulomb counted estimate and the value reported,
+    // in percent
+    private boolean initialized;
+    private double estimate;
+    private double reported;
+
+    /**
+     * Constructor.
+     *
+     * @param capacityAmpHours - usable pack capacity.
+     * @param seriesCells - number of cells in series.
+     * @param chemistry - cell chemistry.
+     */
+    public StateOfChargeEstimator(double capacityAmpHours, int seriesCells, Chemistry chemistry) {
+        if (capacityAmpHours <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as capacity.");
+        if (seriesCells <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as cell count.");
+        this.capacityAmpHours = capacityAmpHours;
+        this.seriesCells = seriesCells;
+        this.chemistry = chemistry;
+        this.restAmps = capacityAmpHours * REST_CURRENT_C_RATE;
+        this.minValidVolts = chemistry.restingCellVolts[0] * seriesCells * MIN_VALID_VOLTS_FRACTION;
+    }
+
+    /**
+     * Start from an estimate saved by a previous run.  Call before the first sample.
+     *
+     * @param percent - saved state of charge.
+     * @param ageNanos - time since it was saved.
+     */
+    public void restore(double percent, long ageNanos) {
+        restored = Math.max(0.0, Math.min(100.0, percent));
+        restoredAgeNanos = Math.max(0, ageNanos);
+    }
+
+    /**
+     * Update the estimate with a new sample.
+     *
+     * @param timestampNanos - System.nanoTime() of the sample.
+     * @param volts - pack voltage.
+     * @param amps - pack current, positive when discharging.
+     */
+    public void addSample(long timestampNanos, float volts, float amps) {
+        boolean validVolts = volts >= minValidVolts;
+        if (!initialized) {
+            boolean resting = Math.abs(amps) < restAmps && validVolts;
+            if (!Double.isNaN(restored) && !(resting && restoredAgeNanos >= REST_NANOS)) {
+                initialize(restored);
+            } else if (resting) {
+                initialize(getOpenCircuitStateOfCharge(volts));
+            }
+            lastNanos = timestampNanos;
+            lastAmps = amps;
+            restStartNanos = timestampNanos;
+            return;
+        }
+
+        long dt = timestampNanos - lastNanos;
+        if (dt > 0 && dt <= MAX_GAP_NANOS) {
+            // coulomb counting, trapezoidal
+            double ampNanos = (lastAmps + amps) * 0.5 * dt;
+            estimate -= ampNanos / NANOS_PER_HOUR / capacityAmpHours * 100.0;
+
+            boolean resting = Math.abs(amps) < restAmps;
+            if (!resting) {
+                restStartNanos = timestampNanos;
+            } else if (validVolts && timestampNanos - restStartNanos >= REST_NANOS) {
+                // voltage has recovered, pull the estimate toward the resting voltage curve
+                double weight = Math.min(1.0, dt / CORRECTION_NANOS);
+                estimate += (getOpenCircuitStateOfCharge(volts) - estimate) * weight;
+            }
+            estimate = Math.max(0.0, Math.min(100.0, estimate));
+
+            if (amps > restAmps) {
+                reported = Math.min(reported, estimate);
+            } else if (amps < -restAmps) {
+                reported = Math.max(reported, estimate);
+            } else if (resting && timestampNanos - restStartNanos >= REST_NANOS) {
+                reported = estimate;
+            }
+        }
+        lastNanos = timestampNanos;
+        lastAmps = amps;
+    }
+
+    private void initialize(double percent) {
+        initialized = true;
+        estimate = percent;
+        reported = percent;
+    }
+
+    /**
+     * Return whether there is an estimate yet, i.e. one was restored or the pack was seen at
+     * rest.
+     *
+     * @return - true once getStateOfCharge() is an estimate.
+     */
+    public boolean hasEstimate() {
+        return initialized;
+    }
+
+    /**
+     * Return the state of charge to display, and to save for restore().
+     *
+     * @return - percent [0-100]; before there is an estimate the restored one, or 100 if none
+     *         was restored.
+     */
+    public float getStateOfCharge() {
+        if (initialized) {
+            return (float) reported;
+        }
+        return Double.isNaN(restored) ? 100.0f : (float) restored;
+    }
+
+    /**
+     * Look up the state of charge that matches a resting pack voltage.
+     *
+     * @param volts - pack voltage.
+     * @return - percent [0-100].
+     */
+    public double getOpenCircuitStateOfCharge(float volts) {
+        float[] curve = chemistry.restingCellVolts;
+        float cellVolts = volts / seriesCells;
+
+        if (cellVolts <= curve[0]) {
+            return 0.0;
+        }
+        for (int i = 1; i < curve.length; i++) {
+            if (cellVolts <= curve[i]) {
+                double fraction = (cellVolts - curve[i - 1]) / (curve[i] - curve[i - 1]);
+                return (i - 1 + fraction) * 100.0 / (curve.length - 1);
+            }
+        }
+        return 100.0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.speedo;
+
+/**
+ * One consistent set of readings handed from the ingest thread to the UI through a
+ * SnapshotBuffer.
+ */
+public class TelemetrySnapshot {
+
+    // latest value of every signal, indexed by channel (see SignalTable)
+    public final float[] values;
+
+    // publish count, increases by one for each snapshot published
+    public long sequence;
+
+    // System.nanoTime() at which the newest data in the snapshot arrived
+    public long timestampNanos;
+
+    // System.nanoTime() at which the snapshot was published, for latency tracing
+    public long publishNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param channelCount - number of signal channels.
+     */
+    public TelemetrySnapshot(int channelCount) {
+        values = new float[channelCount];
+    }
+
+    /**
+     * Copy all readings into this snapshot.
+     *
+     * @param values - value of every channel.
+     * @param timestampNanos - arrival time of the newest value.
+     */
+    public void set(float[] values, long timestampNanos) {
+        System.arraycopy(values, 0, this.values, 0, this.values.length);
+        this.timestampNanos = timestampNanos;
+    }
+}
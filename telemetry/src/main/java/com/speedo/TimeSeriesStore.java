@@ -0,0 +1,376 @@
+package com.speedo;
+
+import java.util.Arrays;
+
+/**
+ * Bounded memory history of a few signals for graphing.  Recent samples are kept at full rate,
+ * and every sample is also folded into min/max/mean buckets of 10 ms, 100 ms, 1 s, 10 s and
+ * 1 min, each tier kept in a ring of its own.  The finer tiers cover minutes, the coarsest
+ * covers days.
+ *
+ * query() answers from the finest tier that covers the requested span with at most a few
+ * entries per requested point, merging neighbouring entries down to the requested number of
+ * points.  The cost of a query depends on the width of the graph, not on how much history
+ * there is.
+ *
+ * Written by the ingest thread, queried by the UI thread.
+ */
+public class TimeSeriesStore {
+
+    // tier 0 holds raw samples, the rest hold buckets of these durations
+    private static final long[] BUCKET_NANOS = {
+            0, 10 * 1000000L, 100 * 1000000L, 1000 * 1000000L, 10000 * 1000000L, 60000 * 1000000L };
+
+    private static final int RAW_CAPACITY = 16384;
+    private static final int BUCKET_CAPACITY = 4096;
+
+    // a tier is used for a query if it has at most this many entries per point
+    private static final int MAX_ENTRIES_PER_POINT = 8;
+
+    // a tier is used for a summary if it has at most this many entries in the interval
+    private static final int MAX_SUMMARY_ENTRIES = 64;
+
+    // signal channel of each series
+    private final int[] channels;
+
+    private final Tier[] tiers = new Tier[BUCKET_NANOS.length];
+
+    /**
+     * Constructor.
+     *
+     * @param channels - signal channel of each series, series are numbered in this order.
+     */
+    public TimeSeriesStore(int[] channels) {
+        this.channels = channels.clone();
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(BUCKET_NANOS[i], (i == 0) ? RAW_CAPACITY : BUCKET_CAPACITY, channels.length);
+        }
+    }
+
+    /**
+     * Return the number of series.
+     *
+     * @return - series count.
+     */
+    public int getSeriesCount() {
+        return channels.length;
+    }
+
+    /**
+     * Ingest thread: add a sample of every series.
+     *
+     * @param timestampNanos - System.nanoTime() of the sample, not before the previous one.
+     * @param values - signal values, indexed by channel.
+     */
+    public synchronized void add(long timestampNanos, float[] values) {
+        for (Tier tier : tiers) {
+            tier.add(timestampNanos, values, channels);
+        }
+    }
+
+    /**
+     * Forget all samples.
+     */
+    public synchronized void clear() {
+        for (Tier tier : tiers) {
+            tier.clear();
+        }
+    }
+
+    /**
+     * Copy the history of a time span as at most maxPoints points.  Each point is the min, max
+     * and mean of one or more neighbouring entries of a tier; raw samples have the same min, max
+     * and mean.  Buckets still being filled are included.  All series share the point times.
+     *
+     * @param startNanos - start of the span, System.nanoTime() based.
+     * @param endNanos - end of the span.
+     * @param maxPoints - most points wanted (at least 2), at most the length of the arrays.
+     * @param times - receives the time of each point (bucket start for buckets).
+     * @param min - receives the minimum of each point, indexed by series then point.
+     * @param max - receives the maximum of each point, indexed by series then point.
+     * @param mean - receives the mean of each point, indexed by series then point.
+     * @return - number of points copied.
+     */
+    public synchronized int query(long startNanos, long endNanos, int maxPoints,
+            long[] times, float[][] min, float[][] max, float[][] mean) {
+        if (maxPoints < 2 || maxPoints > times.length)
+            throw new IllegalArgumentException("maxPoints out of range.");
+
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            if (!tier.covers(startNanos) && i < tiers.length - 1) {
+                // older part of the span has been dropped from this tier
+                continue;
+            }
+            int first = tier.search(startNanos);
+            int last = tier.search(endNanos + 1);
+            boolean withOpen = tier.isOpenIn(startNanos, endNanos);
+            int count = last - first + (withOpen ? 1 : 0);
+            if (count <= maxPoints * MAX_ENTRIES_PER_POINT || i == tiers.length - 1) {
+                // one less than maxPoints per group, since aligned groups can straddle the ends
+                int group = (count <= maxPoints) ? 1 : (count + maxPoints - 2) / (maxPoints - 1);
+                return tier.copy(first, last, withOpen, group, maxPoints, times, min, max, mean);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compute the min, max and mean of an interval, from the finest tier that covers it in a
+     * few entries.
+     *
+     * @param startNanos - start of the interval, System.nanoTime() based.
+     * @param endNanos - end of the interval, exclusive.
+     * @param min - receives the minimum of each series.
+     * @param max - receives the maximum of each series.
+     * @param mean - receives the mean of each series.
+     * @return - number of entries summarized, 0 if the interval has no data.
+     */
+    public synchronized int summarize(long startNanos, long endNanos, float[] min, float[] max, float[] mean) {
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            if (!tier.covers(startNanos) && i < tiers.length - 1) {
+                continue;
+            }
+            int first = tier.search(startNanos);
+            int last = tier.search(endNanos);
+            boolean withOpen = tier.isOpenIn(startNanos, endNanos - 1);
+            if (last - first <= MAX_SUMMARY_ENTRIES || i == tiers.length - 1) {
+                return tier.summarize(first, last, withOpen, min, max, mean);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Closed samples or buckets of one resolution in a ring, plus the open bucket being filled.
+     */
+    private static class Tier {
+        final long bucketNanos;
+        final int capacity;
+        final int seriesCount;
+
+        final long[] times;
+        final float[] min;
+        final float[] max;
+        final float[] mean;
+
+        // ring position of the oldest entry, and number of entries
+        int head;
+        int count;
+
+        // bucket being filled
+        boolean open;
+        long openStart;
+        int openSamples;
+        final float[] openMin;
+        final float[] openMax;
+        final double[] openSum;
+
+        Tier(long bucketNanos, int capacity, int seriesCount) {
+            this.bucketNanos = bucketNanos;
+            this.capacity = capacity;
+            this.seriesCount = seriesCount;
+            times = new long[capacity];
+            min = new float[capacity * seriesCount];
+            max = (bucketNanos == 0) ? min : new float[capacity * seriesCount];
+            mean = (bucketNanos == 0) ? min : new float[capacity * seriesCount];
+            openMin = new float[seriesCount];
+            openMax = new float[seriesCount];
+            openSum = new double[seriesCount];
+        }
+
+        void add(long timestampNanos, float[] values, int[] channels) {
+            if (bucketNanos == 0) {
+                int slot = append(timestampNanos);
+                for (int s = 0; s < seriesCount; s++) {
+                    min[slot * seriesCount + s] = values[channels[s]];
+                }
+                return;
+            }
+
+            if (open && timestampNanos - openStart >= bucketNanos) {
+                close();
+            }
+            if (!open) {
+                open = true;
+                // buckets start on multiples of their duration
+                openStart = timestampNanos - ((timestampNanos % bucketNanos) + bucketNanos) % bucketNanos;
+                openSamples = 0;
+                Arrays.fill(openMin, Float.POSITIVE_INFINITY);
+                Arrays.fill(openMax, Float.NEGATIVE_INFINITY);
+                Arrays.fill(openSum, 0);
+            }
+            for (int s = 0; s < seriesCount; s++) {
+                float v = values[channels[s]];
+                if (v < openMin[s]) openMin[s] = v;
+                if (v > openMax[s]) openMax[s] = v;
+                openSum[s] += v;
+            }
+            openSamples++;
+        }
+
+        void close() {
+            int slot = append(openStart);
+            for (int s = 0; s < seriesCount; s++) {
+                int i = slot * seriesCount + s;
+                min[i] = openMin[s];
+                max[i] = openMax[s];
+                mean[i] = (float) (openSum[s] / openSamples);
+            }
+            open = false;
+        }
+
+        int append(long time) {
+            int slot;
+            if (count < capacity) {
+                slot = (head + count) % capacity;
+                count++;
+            } else {
+                // full, overwrite the oldest
+                slot = head;
+                head = (head + 1) % capacity;
+            }
+            times[slot] = time;
+            return slot;
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+            open = false;
+        }
+
+        /**
+         * @return - whether nothing from a time on has been dropped, i.e. the ring hasn't
+         *         wrapped yet or its oldest entry is no later than the time.
+         */
+        boolean covers(long time) {
+            return count < capacity || getTime(0) <= time;
+        }
+
+        long getTime(int index) {
+            return times[(head + index) % capacity];
+        }
+
+        /**
+         * @return - index of the first closed entry at or after a time.
+         */
+        int search(long time) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getTime(mid) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean isOpenIn(long startNanos, long endNanos) {
+            return open && openStart + bucketNanos > startNanos && openStart <= endNanos;
+        }
+
+        /**
+         * Copy entries, merging them in groups of a number of entries.  Bucket groups are
+         * aligned to time so points don't shift as the span moves.
+         */
+        int copy(int first, int last, boolean withOpen, int group, int maxPoints,
+                long[] outTimes, float[][] outMin, float[][] outMax, float[][] outMean) {
+            long groupNanos = bucketNanos * group;
+            long key = Long.MIN_VALUE;
+            int members = 0;
+            int n = -1;
+
+            int end = last + (withOpen ? 1 : 0);
+            for (int index = first; index < end; index++) {
+                int slot = (head + index) % capacity;
+                long time = (index < last) ? times[slot] : openStart;
+
+                long k = (groupNanos == 0) ? (index - first) / group : floorDiv(time, groupNanos);
+                boolean start = k != key;
+                if (start) {
+                    if (n == maxPoints - 1) {
+                        break;
+                    }
+                    finishMean(outMean, n, members);
+                    key = k;
+                    n++;
+                    members = 0;
+                    outTimes[n] = time;
+                }
+                for (int s = 0; s < seriesCount; s++) {
+                    float lo;
+                    float hi;
+                    float avg;
+                    if (index < last) {
+                        int i = slot * seriesCount + s;
+                        lo = min[i];
+                        hi = max[i];
+                        avg = mean[i];
+                    } else {
+                        lo = openMin[s];
+                        hi = openMax[s];
+                        avg = (float) (openSum[s] / openSamples);
+                    }
+                    if (start) {
+                        outMin[s][n] = lo;
+                        outMax[s][n] = hi;
+                        outMean[s][n] = avg;
+                    } else {
+                        if (lo < outMin[s][n]) outMin[s][n] = lo;
+                        if (hi > outMax[s][n]) outMax[s][n] = hi;
+                        // groups of buckets average the bucket means
+                        outMean[s][n] += avg;
+                    }
+                }
+                members++;
+            }
+            finishMean(outMean, n, members);
+            return n + 1;
+        }
+
+        private void finishMean(float[][] outMean, int n, int members) {
+            if (n >= 0 && members > 1) {
+                for (int s = 0; s < seriesCount; s++) {
+                    outMean[s][n] /= members;
+                }
+            }
+        }
+
+        int summarize(int first, int last, boolean withOpen, float[] outMin, float[] outMax, float[] outMean) {
+            int n = last - first + (withOpen ? 1 : 0);
+            if (n == 0) {
+                return 0;
+            }
+            for (int s = 0; s < seriesCount; s++) {
+                float lo = Float.POSITIVE_INFINITY;
+                float hi = Float.NEGATIVE_INFINITY;
+                double sum = 0;
+                for (int index = first; index < last; index++) {
+                    int i = ((head + index) % capacity) * seriesCount + s;
+                    lo = Math.min(lo, min[i]);
+                    hi = Math.max(hi, max[i]);
+                    sum += mean[i];
+                }
+                if (withOpen) {
+                    lo = Math.min(lo, openMin[s]);
+                    hi = Math.max(hi, openMax[s]);
+                    sum += openSum[s] / openSamples;
+                }
+                outMin[s] = lo;
+                outMax[s] = hi;
+                outMean[s] = (float) (sum / n);
+            }
+            return n;
+        }
+
+        static long floorDiv(long x, long y) {
+            long q = x / y;
+            return (x % y < 0) ? q - 1 : q;
+        }
+    }
+}
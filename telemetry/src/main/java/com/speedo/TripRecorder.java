@@ -0,0 +1,503 @@
+package com.speedo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Records decoded signals to memory mapped segment files in a directory.  Segments are
+ * preallocated, filled and then rotated; the oldest are deleted once there are too many.
+ *
+ * Segment layout:
+ *
+ *     header:  magic (int), version (byte), channel count (byte),
+ *              wall clock time of segment start in ms (long),
+ *              channel names (length byte + UTF-8 each)
+ *     blocks:  payload length (int), CRC32 of payload (int), payload
+ *     end:     payload length 0
+ *
+ * A block is a group commit of records.  Each record is the time since the previous record
+ * in microseconds (varint), a mask of the channels that changed (varint), and for each of
+ * those the float bits xor'ed with the channel's previous bits (varint).  The first record of
+ * a segment is relative to the segment start and all-zero previous values, so segments decode
+ * on their own.
+ *
+ * Blocks are copied into the mapping as they fill up or age.  A background thread commits a
+ * block that ages while no samples arrive, e.g. when the link goes quiet, and forces the
+ * mapping to storage periodically.  After power loss the last block of a segment may be torn;
+ * open() finds the first block with a bad length or checksum and truncates there.
+ *
+ * All methods except the flusher run on the ingest thread.  The two share the block under the
+ * recorder's lock, which the flusher only takes a couple of times a second.
+ */
+public class TripRecorder {
+
+    public static final String FILE_SUFFIX = ".trip";
+
+    private static final int MAGIC = 0x53504454;
+    private static final int VERSION = 1;
+
+    // default segment size and count, at most 32 MB of storage
+    public static final int DEFAULT_SEGMENT_BYTES = 2 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    // group commit once a block has this many bytes or its first record is this old
+    private static final int BLOCK_BYTES = 4096;
+    private static final long COMMIT_INTERVAL_NANOS = 500 * 1000000L;
+
+    // how often the flusher checks for an aged block, and forces committed blocks to storage
+    private static final long IDLE_COMMIT_INTERVAL_MILLIS = COMMIT_INTERVAL_NANOS / 1000000;
+    private static final long FORCE_INTERVAL_MILLIS = 2000;
+
+    private static final int BLOCK_HEADER_BYTES = 8;
+
+    // time + mask + a value for every channel, all varints
+    private static final int MAX_RECORD_BYTES = 10 + 10 + SignalTable.MAX_CHANNELS * 5;
+
+    private final File directory;
+    private final String[] channelNames;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    // block being built
+    private final byte[] block = new byte[BLOCK_BYTES + MAX_RECORD_BYTES];
+    private int blockLength;
+    private long blockStartNanos;
+
+    // encoder state, reset for each segment
+    private final int[] lastBits;
+    private long segmentStartNanos;
+    private long lastMicros;
+
+    private final CRC32 crc = new CRC32();
+
+    private int segmentIndex;
+    private RandomAccessFile file;
+    private MappedByteBuffer mapped;
+
+    private Thread flusher;
+    private volatile boolean dirty;
+
+    public TripRecorder(File directory, String[] channelNames) {
+        this(directory, channelNames, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Constructor.  Recordings take up to segmentBytes * maxSegments of storage.
+     *
+     * @param directory - where segment files are kept.
+     * @param channelNames - names of the recorded channels, indexed by channel.
+     * @param segmentBytes - size of each segment file.
+     * @param maxSegments - number of segments kept, oldest deleted first.
+     */
+    public TripRecorder(File directory, String[] channelNames, int segmentBytes, int maxSegments) {
+        if (channelNames.length > SignalTable.MAX_CHANNELS)
+            throw new IllegalArgumentException("Too many channels.");
+        if (segmentBytes < 16 * (BLOCK_BYTES + MAX_RECORD_BYTES))
+            throw new IllegalArgumentException("Segment size too small.");
+        if (maxSegments <= 0)
+            throw new IllegalArgumentException("Non-positive value specified as segment count.");
+        this.directory = directory;
+        this.channelNames = channelNames.clone();
+        this.lastBits = new int[channelNames.length];
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Repair segments left by a crash, drop the oldest, and start a new segment.
+     *
+     * @throws IOException - if the directory can't be used.
+     */
+    public void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        File[] segments = listSegments(directory);
+        for (File segment : segments) {
+            if (segment.length() == segmentBytes) {
+                // full size means it was never closed
+                recover(segment);
+            }
+        }
+        for (int i = 0; i <= segments.length - maxSegments; i++) {
+            segments[i].delete();
+        }
+        segmentIndex = (segments.length > 0) ? parseIndex(segments[segments.length - 1]) + 1 : 0;
+
+        startSegment(System.nanoTime());
+
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long forcedMillis = System.currentTimeMillis();
+                while (!Thread.interrupted()) {
+                    try {
+                        Thread.sleep(IDLE_COMMIT_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    commitIfAged(System.nanoTime());
+                    if (System.currentTimeMillis() - forcedMillis >= FORCE_INTERVAL_MILLIS) {
+                        forcedMillis = System.currentTimeMillis();
+                        force();
+                    }
+                }
+            }
+        }, "TripRecorderFlush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Record the channels that changed in a sample.
+     *
+     * @param timestampNanos - System.nanoTime() of the sample.
+     * @param values - value of every channel.
+     * @param updated - mask of the channels updated by the sample.
+     * @throws IOException - if a new segment can't be created.
+     */
+    public synchronized void append(long timestampNanos, float[] values, long updated) throws IOException {
+        // check the record fits the segment before encoding, since records depend on the
+        // previous one in the same segment
+        if (mapped.position() + BLOCK_HEADER_BYTES + blockLength + MAX_RECORD_BYTES + 4 > segmentBytes) {
+            commit();
+            closeSegment();
+            segmentIndex++;
+            startSegment(timestampNanos);
+        }
+
+        long changed = 0;
+        for (long bits = updated; bits != 0; bits &= bits - 1) {
+            int channel = Long.numberOfTrailingZeros(bits);
+            if (channel < lastBits.length && Float.floatToRawIntBits(values[channel]) != lastBits[channel]) {
+                changed |= 1L << channel;
+            }
+        }
+        if (changed == 0) {
+            return;
+        }
+
+        if (blockLength == 0) {
+            blockStartNanos = timestampNanos;
+        }
+
+        long micros = Math.max((timestampNanos - segmentStartNanos) / 1000, lastMicros);
+        int pos = putVarint(block, blockLength, micros - lastMicros);
+        lastMicros = micros;
+        pos = putVarint(block, pos, changed);
+        for (long bits = changed; bits != 0; bits &= bits - 1) {
+            int channel = Long.numberOfTrailingZeros(bits);
+            int raw = Float.floatToRawIntBits(values[channel]);
+            pos = putVarint(block, pos, (raw ^ lastBits[channel]) & 0xffffffffL);
+            lastBits[channel] = raw;
+        }
+        blockLength = pos;
+
+        if (blockLength >= BLOCK_BYTES || timestampNanos - blockStartNanos >= COMMIT_INTERVAL_NANOS) {
+            commit();
+        }
+    }
+
+    /**
+     * Commit pending records, force everything to storage and close the current segment.
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.interrupt();
+            flusher = null;
+        }
+        synchronized (this) {
+            if (mapped != null) {
+                commit();
+                closeSegment();
+            }
+        }
+    }
+
+    /**
+     * Flusher thread: commit the pending block if it's older than the commit interval, so it
+     * doesn't wait for the next sample when the link goes quiet.
+     *
+     * @param nowNanos - System.nanoTime().
+     */
+    private synchronized void commitIfAged(long nowNanos) {
+        if (mapped != null && blockLength > 0 && nowNanos - blockStartNanos >= COMMIT_INTERVAL_NANOS) {
+            commit();
+        }
+    }
+
+    /**
+     * Copy the current block into the mapping, followed by an end marker.
+     */
+    private void commit() {
+        if (blockLength == 0) {
+            return;
+        }
+        crc.reset();
+        crc.update(block, 0, blockLength);
+
+        int start = mapped.position();
+        mapped.position(start + BLOCK_HEADER_BYTES);
+        mapped.put(block, 0, blockLength);
+        mapped.putInt(mapped.position(), 0);
+        mapped.putInt(start + 4, (int) crc.getValue());
+        // length last, so a block is never valid before its payload is in place
+        mapped.putInt(start, blockLength);
+
+        blockLength = 0;
+        dirty = true;
+    }
+
+    /**
+     * Flusher thread: force committed blocks to storage.
+     */
+    private synchronized void force() {
+        if (dirty && mapped != null) {
+            dirty = false;
+            mapped.force();
+        }
+    }
+
+    /**
+     * Create and map the next segment and write its header.
+     *
+     * @param startNanos - System.nanoTime() the segment's times are relative to.
+     * @throws IOException - if the file can't be created.
+     */
+    private synchronized void startSegment(long startNanos) throws IOException {
+        File segment = new File(directory, String.format("%08d", segmentIndex) + FILE_SUFFIX);
+        file = new RandomAccessFile(segment, "rw");
+        file.setLength(segmentBytes);
+        mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+
+        mapped.putInt(MAGIC);
+        mapped.put((byte) VERSION);
+        mapped.put((byte) channelNames.length);
+        mapped.putLong(System.currentTimeMillis() - (System.nanoTime() - startNanos) / 1000000);
+        for (String name : channelNames) {
+            byte[] bytes = name.getBytes("UTF-8");
+            mapped.put((byte) bytes.length);
+            mapped.put(bytes);
+        }
+        mapped.putInt(mapped.position(), 0);
+
+        segmentStartNanos = startNanos;
+        lastMicros = 0;
+        Arrays.fill(lastBits, 0);
+
+        // old segments beyond the limit
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            segments[i].delete();
+        }
+    }
+
+    /**
+     * Force the current segment to storage, trim it to its used length and close it.
+     */
+    private synchronized void closeSegment() {
+        try {
+            mapped.force();
+            file.setLength(mapped.position() + 4);
+        } catch (IOException e) {
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+            }
+            file = null;
+            mapped = null;
+            dirty = false;
+        }
+    }
+
+    /**
+     * Truncate a segment after its last intact block.
+     *
+     * @param segment - segment file.
+     * @throws IOException - if the segment can't be read or truncated.
+     */
+    private static void recover(File segment) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            int end = scanBlocks(buffer, null);
+            if (end < 0) {
+                // not a segment we can read
+                raf.setLength(0);
+            } else {
+                raf.setLength(end + 4);
+                raf.seek(end);
+                raf.writeInt(0);
+            }
+        } finally {
+            raf.close();
+        }
+        if (segment.length() == 0) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Read the records of a segment.  Stops at the end marker or the first damaged block.
+     *
+     * @param segment - segment file.
+     * @param listener - receives each record.
+     * @throws IOException - if the file can't be read or isn't a segment.
+     */
+    public static void read(File segment, RecordListener listener) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "r");
+        try {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (scanBlocks(buffer, listener) < 0) {
+                throw new IOException(segment + " is not a trip segment");
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Walk the blocks of a segment, checking each one and optionally decoding its records.
+     *
+     * @param buffer - segment contents.
+     * @param listener - receives decoded records, or null to only check.
+     * @return - offset of the first byte after the last intact block, or -1 if the header
+     *           is invalid.
+     */
+    private static int scanBlocks(ByteBuffer buffer, RecordListener listener) throws IOException {
+        if (buffer.remaining() < 14 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            return -1;
+        }
+        int channelCount = buffer.get() & 0xff;
+        long startMillis = buffer.getLong();
+        String[] names = new String[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            if (buffer.remaining() < 1) {
+                return -1;
+            }
+            byte[] bytes = new byte[buffer.get() & 0xff];
+            if (buffer.remaining() < bytes.length) {
+                return -1;
+            }
+            buffer.get(bytes);
+            names[i] = new String(bytes, "UTF-8");
+        }
+
+        float[] values = new float[channelCount];
+        int[] bits = new int[channelCount];
+        long[] position = new long[2];
+        long micros = 0;
+        CRC32 check = new CRC32();
+        byte[] payload = new byte[BLOCK_BYTES + MAX_RECORD_BYTES];
+
+        while (buffer.remaining() >= BLOCK_HEADER_BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length <= 0 || length > payload.length || length > buffer.remaining()) {
+                return start;
+            }
+            buffer.get(payload, 0, length);
+            check.reset();
+            check.update(payload, 0, length);
+            if ((int) check.getValue() != expected) {
+                return start;
+            }
+
+            if (listener != null) {
+                position[0] = 0;
+                while (position[0] < length) {
+                    micros += getVarint(payload, position);
+                    long changed = getVarint(payload, position);
+                    for (long b = changed; b != 0; b &= b - 1) {
+                        int channel = Long.numberOfTrailingZeros(b);
+                        if (channel >= channelCount) {
+                            throw new IOException("Record refers to unknown channel " + channel);
+                        }
+                        bits[channel] ^= (int) getVarint(payload, position);
+                        values[channel] = Float.intBitsToFloat(bits[channel]);
+                    }
+                    listener.onRecord(names, startMillis, micros, values, changed);
+                }
+            }
+        }
+        return buffer.position();
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles();
+        if (segments == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File f : segments) {
+            if (f.getName().endsWith(FILE_SUFFIX)) {
+                segments[count++] = f;
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        // zero padded names sort in index order
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static int parseIndex(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int putVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long getVarint(byte[] buffer, long[] position) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int pos = (int) position[0];
+        while (true) {
+            if (shift > 63) {
+                throw new IOException("Malformed varint");
+            }
+            byte b = buffer[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        position[0] = pos;
+        return value;
+    }
+
+    /**
+     * Receives records read back from a segment.
+     */
+    public interface RecordListener {
+
+        /**
+         * @param channelNames - names of the segment's channels.
+         * @param startMillis - wall clock time of the segment start.
+         * @param micros - time of the record since the segment start.
+         * @param values - value of every channel after this record.
+         * @param changed - mask of the channels the record changed.
+         */
+        void onRecord(String[] channelNames, long startMillis, long micros, float[] values, long changed);
+    }
+}
@@ -0,0 +1,129 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AlarmEngineTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private static final int TEMP = SignalTable.MOTOR_TEMP;
+    private static final int VOLTS = SignalTable.VOLTS;
+
+    private final AlarmEngine engine = new AlarmEngine();
+    private final float[] values = new float[SignalTable.MAX_CHANNELS];
+    private final List<String> changes = new ArrayList<String>();
+    private final long start = System.nanoTime();
+
+    public AlarmEngineTest() {
+        engine.setListener(new AlarmEngine.Listener() {
+            @Override
+            public void onAlarmChanged(AlarmEngine.Alarm alarm, boolean active, float value, long timestampNanos) {
+                changes.add(alarm.name + (active ? " on " : " off ") + value);
+            }
+        });
+    }
+
+    @Test
+    public void highAlarmReleasesBelowHysteresis() {
+        engine.addHighAlarm("Hot", TEMP, AlarmEngine.Level.WARNING, 248, 10, 0);
+        sample(0, TEMP, 247);
+        assertChanges();
+        sample(1, TEMP, 248);
+        assertChanges("Hot on 248.0");
+        // inside the band stays raised, below it clears
+        sample(2, TEMP, 240);
+        sample(3, TEMP, 238);
+        assertChanges("Hot on 248.0");
+        sample(4, TEMP, 237.9f);
+        assertChanges("Hot on 248.0", "Hot off 237.9");
+        // and inside the band doesn't raise it again
+        sample(5, TEMP, 247);
+        assertChanges("Hot on 248.0", "Hot off 237.9");
+    }
+
+    @Test
+    public void lowAlarmReleasesAboveHysteresis() {
+        engine.addLowAlarm("Low", VOLTS, AlarmEngine.Level.CRITICAL, 80, 5, 0);
+        sample(0, VOLTS, 81);
+        sample(1, VOLTS, 80);
+        assertChanges("Low on 80.0");
+        sample(2, VOLTS, 85);
+        assertChanges("Low on 80.0");
+        sample(3, VOLTS, 85.5f);
+        assertChanges("Low on 80.0", "Low off 85.5");
+    }
+
+    @Test
+    public void debounceDelaysChanges() {
+        engine.addHighAlarm("Hot", TEMP, AlarmEngine.Level.WARNING, 248, 10, 100 * MILLIS);
+        sample(0, TEMP, 250);
+        sample(99, TEMP, 260);
+        assertChanges();
+        sample(100, TEMP, 255);
+        assertChanges("Hot on 255.0");
+
+        // a dip that doesn't last restarts the debounce
+        sample(200, TEMP, 200);
+        sample(250, TEMP, 250);
+        sample(260, TEMP, 200);
+        sample(359, TEMP, 200);
+        assertChanges("Hot on 255.0");
+        sample(360, TEMP, 200);
+        assertChanges("Hot on 255.0", "Hot off 200.0");
+    }
+
+    @Test
+    public void evaluatesOnlyUpdatedChannels() {
+        engine.addHighAlarm("Hot", TEMP, AlarmEngine.Level.WARNING, 248, 10, 0);
+        values[TEMP] = 300;
+        engine.evaluate(start, values, 1L << VOLTS);
+        assertChanges();
+        engine.evaluate(start, values, (1L << VOLTS) | (1L << TEMP));
+        assertChanges("Hot on 300.0");
+    }
+
+    @Test
+    public void resetClearsActiveAlarms() {
+        engine.addHighAlarm("Hot", TEMP, AlarmEngine.Level.WARNING, 248, 10, 0);
+        engine.addLowAlarm("Low", VOLTS, AlarmEngine.Level.CRITICAL, 80, 5, 0);
+        sample(0, TEMP, 300);
+        engine.reset(start + MILLIS);
+        assertChanges("Hot on 300.0", "Hot off NaN");
+        // raised again by the next violating sample
+        sample(2, TEMP, 300);
+        assertChanges("Hot on 300.0", "Hot off NaN", "Hot on 300.0");
+    }
+
+    @Test
+    public void rejectsBadAlarms() {
+        try {
+            engine.addHighAlarm("Bad", SignalTable.MAX_CHANNELS, AlarmEngine.Level.WARNING, 0, 0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Channel"));
+        }
+        try {
+            engine.addLowAlarm("Bad", VOLTS, AlarmEngine.Level.WARNING, 0, 0, -1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Negative"));
+        }
+    }
+
+    private void sample(long millis, int channel, float value) {
+        values[channel] = value;
+        engine.evaluate(start + millis * MILLIS, values, 1L << channel);
+    }
+
+    private void assertChanges(String... expected) {
+        assertEquals(Arrays.asList(expected), changes);
+    }
+}
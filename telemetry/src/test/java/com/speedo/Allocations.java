@@ -0,0 +1,24 @@
+package com.speedo;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap bytes allocated by the calling thread, from HotSpot's per-thread counter, for tests
+ * that check a hot path doesn't allocate.
+ */
+final class Allocations {
+
+    // allocated by the counter query itself and the JIT's bookkeeping, far below one object per
+    // iteration of any loop measured with it
+    static final long NOISE_BYTES = 1024;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    static long current() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
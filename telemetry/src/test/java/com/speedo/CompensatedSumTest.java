@@ -0,0 +1,43 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompensatedSumTest {
+
+    @Test
+    public void keepsTinyIncrementsOfLargeTotal() {
+        CompensatedSum sum = new CompensatedSum();
+        sum.set(1.0);
+        double naive = 1.0;
+        for (int i = 0; i < 10000000; i++) {
+            sum.add(1e-16);
+            naive += 1e-16;
+        }
+        // each increment is below half an ulp of 1, so the naive sum never moves
+        assertEquals(1.0, naive, 0);
+        assertEquals(1.0 + 1e-9, sum.get(), 1e-15);
+    }
+
+    @Test
+    public void keepsSmallValuesAcrossLargerOnes() {
+        // Kahan's sum gives 0 here, Neumaier's the exact 2
+        CompensatedSum sum = new CompensatedSum();
+        sum.add(1.0);
+        sum.add(1e100);
+        sum.add(1.0);
+        sum.add(-1e100);
+        assertEquals(2.0, sum.get(), 0);
+        assertEquals(0.0, 1.0 + 1e100 + 1.0 - 1e100, 0);
+    }
+
+    @Test
+    public void setDropsCompensation() {
+        CompensatedSum sum = new CompensatedSum();
+        sum.set(1.0);
+        sum.add(1e-16);
+        sum.set(5.0);
+        assertEquals(5.0, sum.get(), 0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DecimalFormatterTest {
+
+    private final char[] out = new char[DecimalFormatter.MAX_LENGTH];
+
+    @Test
+    public void formatsFixedDecimals() {
+        assertEquals("12.3", format(12.34, 1));
+        assertEquals("12", format(12.34, 0));
+        assertEquals("0.000100", format(0.0001, 6));
+        assertEquals("-7.50", format(-7.5, 2));
+        assertEquals("1234567.0", format(1234567, 1));
+        assertEquals("12,3", new String(out, 0, DecimalFormatter.format(12.34, 1, ',', out)));
+    }
+
+    @Test
+    public void roundsExactValueHalfUp() {
+        // 31.349999999999998 times 10 is 313.5 as a double, but the exact value is below the half
+        assertEquals("31.3", format(31.349999999999998, 1));
+        // 0.125 and 2.5 are exact halves, rounded away from zero
+        assertEquals("0.13", format(0.125, 2));
+        assertEquals("3", format(2.5, 0));
+        assertEquals("-3", format(-2.5, 0));
+        // the doubles nearest 1.005 and 0.15 are a little below them, unlike String.format
+        assertEquals("1.00", format(1.005, 2));
+        assertEquals("0.1", format(0.15, 1));
+        assertEquals("0.2", String.format(Locale.US, "%.1f", 0.15));
+        // and the one nearest 0.45 a little above
+        assertEquals("0.5", format(0.45, 1));
+    }
+
+    @Test
+    public void leavesSignOffZero() {
+        assertEquals("0.0", format(-0.0, 1));
+        assertEquals("0.0", format(-0.04, 1));
+        assertEquals("-0.1", format(-0.05, 1));
+        assertEquals("0", format(-0.4, 0));
+    }
+
+    @Test
+    public void formatsSpecialValues() {
+        assertEquals("NaN", format(Double.NaN, 1));
+        assertEquals("Infinity", format(Double.POSITIVE_INFINITY, 1));
+        assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY, 1));
+        assertEquals("-Infinity", format(-1e19, 0));
+    }
+
+    @Test
+    public void matchesBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+            int decimals = i % (DecimalFormatter.MAX_DECIMALS + 1);
+            double value;
+            switch (i % 4) {
+            case 0:
+                // near halves, where the rounding of the double product matters
+                value = (random.nextInt(2000000) - 1000000 + 0.5) / Math.pow(10, decimals);
+                break;
+            case 1:
+                value = Math.nextUp((random.nextInt(2000000) + 0.5) / Math.pow(10, decimals));
+                break;
+            case 2:
+                value = (random.nextDouble() - 0.5) * 1000;
+                break;
+            default:
+                // anything that fits a long when scaled
+                value = random.nextLong() / Math.pow(10, decimals + random.nextInt(19));
+                break;
+            }
+            String expected = exact(value, decimals);
+            assertEquals(value + " to " + decimals, expected, format(value, decimals));
+        }
+    }
+
+    @Test
+    public void formatsLargeValues() {
+        // beyond 2^52 / 10 the product is whole and the fraction is only in its rounding error
+        double[] values = { 4.503599627370497e14, 9.007199254740993e15 / 10, 1.2345678901234567e17,
+                Math.nextAfter(9.223372036854775807e17, 0), 4.5035996273704955e14 };
+        for (double value : values) {
+            assertEquals(exact(value, 1), format(value, 1));
+            assertEquals(exact(value, 0), format(value, 0));
+        }
+    }
+
+    @Test
+    public void formatsWithoutAllocating() {
+        double value = 0;
+        for (int i = 0; i < 100000; i++) {
+            DecimalFormatter.format(value += 0.37, 1, '.', out);
+        }
+        long start = Allocations.current();
+        for (int i = 0; i < 100000; i++) {
+            DecimalFormatter.format(value += 0.37, 1, '.', out);
+        }
+        long allocated = Allocations.current() - start;
+        assertTrue(allocated + " bytes allocated", allocated < Allocations.NOISE_BYTES);
+    }
+
+    private static String exact(double value, int decimals) {
+        String text = new BigDecimal(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+        // no minus sign on zero
+        return text.matches("-0\\.?0*") ? text.substring(1) : text;
+    }
+
+    private String format(double value, int decimals) {
+        return new String(out, 0, DecimalFormatter.format(value, decimals, '.', out));
+    }
+}
@@ -0,0 +1,88 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class EnergyIntegratorTest {
+
+    private static final long SECOND_NANOS = 1000000000L;
+
+    // one amp or watt for a second, in Ah or kWh
+    private static final double AMP_SECOND = 1 / 3600.0;
+    private static final double WATT_SECOND = 1 / 3600.0 / 1000.0;
+
+    private static final double EPSILON = 1e-12;
+
+    private final EnergyIntegrator energy = new EnergyIntegrator();
+    private final long start = System.nanoTime();
+
+    @Test
+    public void integratesConstantDraw() {
+        // 100 V at 10 A for an hour, one sample a second
+        for (int i = 0; i <= 3600; i++) {
+            energy.addSample(start + i * SECOND_NANOS, 100f, 10f);
+        }
+        assertEquals(10.0, energy.getTrip(EnergyIntegrator.DRAWN_AMP_HOURS), 1e-9);
+        assertEquals(1.0, energy.getTrip(EnergyIntegrator.DRAWN_KILOWATT_HOURS), 1e-9);
+        assertEquals(0.0, energy.getTrip(EnergyIntegrator.REGEN_AMP_HOURS), 0);
+        assertEquals(1.0, energy.getLifetimeKilowattHours(), 1e-9);
+    }
+
+    @Test
+    public void integratesTrapezoids() {
+        // 0 to 10 A over a second, then 10 to 30 A over half a second
+        energy.addSample(start, 100f, 0f);
+        energy.addSample(start + SECOND_NANOS, 100f, 10f);
+        energy.addSample(start + SECOND_NANOS * 3 / 2, 100f, 30f);
+        assertEquals((5 + 10) * AMP_SECOND, energy.getTripAmpHours(), EPSILON);
+        assertEquals((500 + 1000) * WATT_SECOND, energy.getTripKilowattHours(), EPSILON);
+    }
+
+    @Test
+    public void splitsIntervalAtZeroCrossing() {
+        // 30 A to -10 A over 2 seconds crosses zero after 1.5
+        energy.addSample(start, 100f, 30f);
+        energy.addSample(start + 2 * SECOND_NANOS, 100f, -10f);
+        assertEquals(22.5 * AMP_SECOND, energy.getTrip(EnergyIntegrator.DRAWN_AMP_HOURS), EPSILON);
+        assertEquals(2.5 * AMP_SECOND, energy.getTrip(EnergyIntegrator.REGEN_AMP_HOURS), EPSILON);
+        assertEquals(20 * AMP_SECOND, energy.getTripAmpHours(), EPSILON);
+    }
+
+    @Test
+    public void skipsGapsAndBackwardTimestamps() {
+        energy.addSample(start, 100f, 10f);
+        // a reconnect: more than 2 seconds isn't integrated
+        energy.addSample(start + 3 * SECOND_NANOS, 100f, 10f);
+        assertEquals(0.0, energy.getTripAmpHours(), 0);
+
+        // backwards and repeated timestamps add nothing, but become the start of the next interval
+        energy.addSample(start + 2 * SECOND_NANOS, 100f, 20f);
+        energy.addSample(start + 2 * SECOND_NANOS, 100f, 30f);
+        assertEquals(0.0, energy.getTripAmpHours(), 0);
+        energy.addSample(start + 3 * SECOND_NANOS, 100f, 30f);
+        assertEquals(30 * AMP_SECOND, energy.getTripAmpHours(), EPSILON);
+    }
+
+    @Test
+    public void integratesAveragePower() {
+        // two frames a read, 100 V at 10 A and 50 V at 30 A: 1250 W, not 75 V * 20 A
+        energy.addSample(start, 20.0, 1250.0);
+        energy.addSample(start + SECOND_NANOS, 20.0, 1250.0);
+        assertEquals(20 * AMP_SECOND, energy.getTripAmpHours(), EPSILON);
+        assertEquals(1250 * WATT_SECOND, energy.getTripKilowattHours(), EPSILON);
+    }
+
+    @Test
+    public void tripResetKeepsLifetime() {
+        energy.restore(EnergyIntegrator.DRAWN_KILOWATT_HOURS, 2.0, 100.0);
+        energy.addSample(start, 100f, 10f);
+        energy.addSample(start + SECOND_NANOS, 100f, 10f);
+        assertEquals(2.0 + 1000 * WATT_SECOND, energy.getTripKilowattHours(), EPSILON);
+
+        energy.requestTripReset();
+        energy.addSample(start + 2 * SECOND_NANOS, 100f, 10f);
+        assertEquals(1000 * WATT_SECOND, energy.getTripKilowattHours(), EPSILON);
+        assertEquals(100.0 + 2000 * WATT_SECOND, energy.getLifetimeKilowattHours(), 1e-9);
+    }
+}
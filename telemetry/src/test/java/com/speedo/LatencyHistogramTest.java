@@ -0,0 +1,95 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveBucketEach() {
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, LatencyHistogram.getBucket(i));
+            assertEquals(i, LatencyHistogram.getBucketUpperBound(i));
+        }
+        // then 16 buckets per power of two, 1, 2, 4... wide
+        assertEquals(16, LatencyHistogram.getBucket(16));
+        assertEquals(31, LatencyHistogram.getBucket(31));
+        assertEquals(32, LatencyHistogram.getBucket(32));
+        assertEquals(32, LatencyHistogram.getBucket(33));
+        assertEquals(33, LatencyHistogram.getBucketUpperBound(32));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        long lower = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            long upper = LatencyHistogram.getBucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.getBucket(lower));
+            assertEquals(i, LatencyHistogram.getBucket(upper));
+            // at most 1/16 of the lower bound wide
+            assertTrue(i + " is " + lower + " to " + upper, upper - lower <= Math.max(0, lower / 16));
+            lower = upper + 1;
+        }
+        // the last bucket ends at the largest long
+        assertEquals(0, lower - Long.MIN_VALUE);
+    }
+
+    @Test
+    public void extremeValues() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(histogram.getBucketCount() - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBound(histogram.getBucketCount() - 1));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getBucketValue(0));
+        assertEquals(1, histogram.getBucketValue(histogram.getBucketCount() - 1));
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentile(50));
+        // 1 to 1000 microseconds, each once
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        checkPercentile(histogram, 50, 500000);
+        checkPercentile(histogram, 99, 990000);
+        checkPercentile(histogram, 99.9, 999000);
+        // never above the largest recorded
+        assertEquals(1000000, histogram.getPercentile(100));
+        // the end of the smallest bucket, 1000 to 1023
+        assertEquals(1023, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void keepsValuesWithinBound() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long upper = LatencyHistogram.getBucketUpperBound(LatencyHistogram.getBucket(value));
+            assertTrue(value + " to " + upper, upper >= value && upper - value <= value / 16);
+        }
+    }
+
+    private static void checkPercentile(LatencyHistogram histogram, double percentile, long exact) {
+        long reported = histogram.getPercentile(percentile);
+        // the end of the bucket, or the largest recorded if that is in the bucket
+        long upper = LatencyHistogram.getBucketUpperBound(LatencyHistogram.getBucket(exact));
+        assertEquals(Math.min(upper, histogram.getMax()), reported);
+        assertTrue(reported >= exact && reported - exact <= exact / 16);
+    }
+}
@@ -0,0 +1,183 @@
+package com.speedo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PollSchedulerTest {
+
+    private PollScheduler scheduler;
+
+    @After
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void loadsDefinitions() throws IOException {
+        scheduler = load("# comment\n"
+                + "\n"
+                + "Current   50 40  7DF      02015B   7E8      415B   # trailing comment\n"
+                + "Temp      1  500 18DA10F1 0322E001 18DAF110\n"
+                + "Ping      2  100 123      -        456\n");
+        assertEquals(3, scheduler.getPollCount());
+        assertEquals("Current", scheduler.getName(0));
+        assertEquals("Temp", scheduler.getName(1));
+        assertEquals("Ping", scheduler.getName(2));
+    }
+
+    @Test
+    public void rejectsMalformedDefinitions() {
+        String[] malformed = {
+                "Few 1 100 7DF 01",
+                "Many 1 100 7DF 01 7E8 41 42",
+                "Rate 0 100 7DF 01 7E8",
+                "Timeout 1 0 7DF 01 7E8",
+                "Number x 100 7DF 01 7E8",
+                // standard ids are 3 digits up to 7FF, extended ones 8 digits up to 1FFFFFFF
+                "Standard 1 100 800 01 7E8",
+                "Digits 1 100 07DF 01 7E8",
+                "Extended 1 100 20000000 01 7E8",
+                "Response 1 100 7DF 01 7E80",
+                "OddData 1 100 7DF 012 7E8",
+                "LongData 1 100 7DF 010203040506070809 7E8",
+                "LongPrefix 1 100 7DF 01 7E8 010203040506070809" };
+        for (String line : malformed) {
+            try {
+                load("# first\n" + line + "\n");
+                fail("Accepted " + line);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith("line 2"));
+            }
+        }
+    }
+
+    @Test
+    public void encodesTransmitCommands() {
+        assertArrayEquals("t7DF302015B\r".getBytes(),
+                PollScheduler.encode(0x7df, new byte[] { 0x02, 0x01, 0x5b }));
+        assertArrayEquals("T18DA10F140322E001\r".getBytes(),
+                PollScheduler.encode(0x18da10f1 | SlcanDecoder.EXTENDED_ID_FLAG,
+                        new byte[] { 0x03, 0x22, (byte) 0xe0, 0x01 }));
+        assertArrayEquals("t0010\r".getBytes(), PollScheduler.encode(0x001, new byte[0]));
+        assertArrayEquals("t7FF2FF80\r".getBytes(), PollScheduler.encode(0x7ff, new byte[] { -1, -128 }));
+    }
+
+    @Test
+    public void unansweredRequestTimesOutOnce() throws Exception {
+        scheduler = load("Slow 1 20 7DF 020105 7E8 4105\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        scheduler.start(out);
+        Thread.sleep(300);
+
+        // one request in the second, retired when its timeout passed
+        assertEquals("t7DF3020105\r", out.toString("US-ASCII"));
+        assertEquals(1, scheduler.getTimeoutCount(0));
+        assertEquals(0, scheduler.getResponseCount(0));
+    }
+
+    @Test
+    public void responseRetiresRequest() throws Exception {
+        scheduler = load("Fast 10 1000 7DF 020105 7E8 4105\n");
+        PipelineStats stats = new PipelineStats();
+        scheduler.setStats(stats);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        scheduler.start(out);
+        for (int i = 0; i < 5; i++) {
+            waitForRequests(out, i + 1);
+            // another PID, then the answer
+            scheduler.onFrame(0x7e8, new byte[] { 0x41, 0x0c, 0, 0 }, 4, System.nanoTime());
+            scheduler.onFrame(0x7e8, new byte[] { 0x41, 0x05, 100 }, 3, System.nanoTime());
+        }
+        // answered requests are sent again at the poll rate, long before the timeout
+        waitForRequests(out, 6);
+        assertEquals(5, scheduler.getResponseCount(0));
+        assertEquals(0, scheduler.getTimeoutCount(0));
+        assertEquals(5, stats.get(PipelineStats.POLL_RESPONSES));
+    }
+
+    @Test
+    public void staysWithinByteBudget() throws Exception {
+        // 20 polls of 27 byte requests at 100 Hz want 54 KB/s, the budget is 2000 bytes/s
+        StringBuilder definitions = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            definitions.append("P").append(i).append(" 100 5 18DA10F1 0102030405060708 18DAF110\n");
+        }
+        scheduler = load(definitions.toString());
+        PipelineStats stats = new PipelineStats();
+        scheduler.setStats(stats);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        scheduler.start(out);
+        Thread.sleep(1000);
+        int written = out.size();
+        long timeouts = stats.get(PipelineStats.POLL_TIMEOUTS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // a full batch at the start, then the refill rate
+        assertTrue("wrote " + written, written <= 256 + 2000 * seconds);
+        assertTrue("wrote " + written, written >= 1500);
+        // timeouts are retired while the budget is spent, at most one request per poll is
+        // still outstanding
+        int requests = written / 27;
+        assertTrue(requests + " requests, " + timeouts + " timeouts", requests - timeouts <= 20);
+    }
+
+    @Test
+    public void restartWaitsForPreviousWorker() throws Exception {
+        scheduler = load("Slow 100 5 7DF 020105 7E8\n");
+        for (int i = 0; i < 20; i++) {
+            scheduler.start(new ByteArrayOutputStream());
+            Thread.sleep(2);
+            scheduler.stop();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        scheduler.start(out);
+        waitForRequests(out, 1);
+        assertEquals(1, countThreads("PollScheduler"));
+    }
+
+    private static PollScheduler load(String definitions) throws IOException {
+        return PollScheduler.load(new ByteArrayInputStream(definitions.getBytes("UTF-8")));
+    }
+
+    private static void waitForRequests(ByteArrayOutputStream out, int count) throws Exception {
+        long deadline = System.nanoTime() + 2000000000L;
+        while (countRequests(out) < count) {
+            assertTrue("waiting for " + count + " requests", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static int countRequests(ByteArrayOutputStream out) {
+        int count = 0;
+        for (byte b : out.toByteArray()) {
+            if (b == '\r') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countThreads(String name) {
+        Thread[] threads = new Thread[Thread.activeCount() + 16];
+        int n = Thread.enumerate(threads);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (threads[i].getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,158 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SignalTableTest {
+
+    private static final String DEFINITIONS = ""
+            + "VERSION \"\"\n"
+            + "\n"
+            + "BO_ 768 ControllerStatus: 8 Controller\n"
+            + " SG_ Volts : 0|16@1+ (0.1,0) [0|200] \"V\" Speedo\n"
+            + " SG_ Amps : 16|16@1- (0.1,0) [-600|600] \"A\" Speedo\n"
+            + " SG_ Rpm : 32|16@1+ (1,0) [0|10000] \"rpm\" Speedo\n"
+            + "\n"
+            + "BO_ 769 ControllerTemps: 8 Controller\n"
+            + " SG_ MotorTemp : 0|8@1+ (1,-40) [-40|215] \"degF\" Speedo\n"
+            + " SG_ Mux M : 8|8@1+ (1,0) [0|255] \"\" Speedo\n"
+            + " SG_ Muxed m1 : 16|8@1+ (1,0) [0|255] \"\" Speedo\n"
+            + "\n"
+            + "BO_ 1024 Motorola: 8 BMS\n"
+            + " SG_ Big : 7|16@0+ (1,0) [0|65535] \"\" Speedo\n"
+            + " SG_ Nibbles : 19|12@0- (0.5,10) [0|0] \"\" Speedo\n"
+            + " SG_ Tail : 56|8@1+ (1,0) [0|255] \"\" Speedo\n"
+            + "\n"
+            // 0x18FF50E5 with the DBC extended flag
+            + "BO_ 2566869221 Extended: 8 BMS\n"
+            + " SG_ CellVolts : 0|16@1+ (0.001,0) [0|5] \"V\" Speedo\n"
+            + "\n"
+            + "BO_ 3221225472 VECTOR__INDEPENDENT_SIG_MSG: 0 Vector__XXX\n"
+            + " SG_ Unassigned : 0|8@1+ (1,0) [0|0] \"\" Vector__XXX\n"
+            + "\n"
+            + "CM_ BO_ 768 \"comment\";\n";
+
+    private final SignalTable table;
+    private final float[] values;
+
+    public SignalTableTest() throws IOException {
+        table = load(DEFINITIONS);
+        values = new float[table.getChannelCount()];
+    }
+
+    @Test
+    public void assignsDisplayedChannelsThenFileOrder() {
+        assertEquals(SignalTable.VOLTS, table.getChannel("Volts"));
+        assertEquals(SignalTable.MOTOR_TEMP, table.getChannel("MotorTemp"));
+        assertEquals(SignalTable.KILOWATTS + 1, table.getChannel("Big"));
+        assertEquals(SignalTable.KILOWATTS + 2, table.getChannel("Nibbles"));
+        assertEquals(SignalTable.KILOWATTS + 3, table.getChannel("Tail"));
+        assertEquals(SignalTable.KILOWATTS + 4, table.getChannel("CellVolts"));
+        assertEquals(SignalTable.KILOWATTS + 5, table.getChannelCount());
+        // multiplexed and unassigned signals are left out
+        assertEquals(-1, table.getChannel("Mux"));
+        assertEquals(-1, table.getChannel("Muxed"));
+        assertEquals(-1, table.getChannel("Unassigned"));
+    }
+
+    @Test
+    public void decodesIntelSignals() {
+        // 1234 = 0x04d2, -1234 = 0xfb2e, 3000 = 0x0bb8, all little endian
+        byte[] data = { (byte) 0xd2, 0x04, 0x2e, (byte) 0xfb, (byte) 0xb8, 0x0b, 0, 0 };
+        long updated = table.decode(768, data, 8, values);
+        assertEquals((1L << SignalTable.VOLTS) | (1L << SignalTable.AMPS) | (1L << SignalTable.RPM), updated);
+        assertEquals(123.4f, values[SignalTable.VOLTS], 0.001f);
+        assertEquals(-123.4f, values[SignalTable.AMPS], 0.001f);
+        assertEquals(3000, values[SignalTable.RPM], 0);
+    }
+
+    @Test
+    public void appliesOffset() {
+        table.decode(769, new byte[] { 100, 0, 0 }, 3, values);
+        assertEquals(60, values[SignalTable.MOTOR_TEMP], 0);
+        table.decode(769, new byte[] { 0 }, 1, values);
+        assertEquals(-40, values[SignalTable.MOTOR_TEMP], 0);
+    }
+
+    @Test
+    public void decodesMotorolaSignals() {
+        // Big is bytes 0-1, Nibbles the low nibble of byte 2 and all of byte 3
+        byte[] data = { 0x12, 0x34, (byte) 0xaf, (byte) 0xfe, 0, 0, 0, 0x7f };
+        long updated = table.decode(1024, data, 8, values);
+        assertEquals(7L << (SignalTable.KILOWATTS + 1), updated);
+        assertEquals(0x1234, values[table.getChannel("Big")], 0);
+        // 0xffe is -2 in 12 bits
+        assertEquals(-2 * 0.5f + 10, values[table.getChannel("Nibbles")], 0);
+        assertEquals(0x7f, values[table.getChannel("Tail")], 0);
+
+        // 0x800 is the most negative 12 bit value
+        data[2] = 0x08;
+        data[3] = 0x00;
+        table.decode(1024, data, 8, values);
+        assertEquals(-2048 * 0.5f + 10, values[table.getChannel("Nibbles")], 0);
+    }
+
+    @Test
+    public void skipsSignalsBeyondShortFrame() {
+        values[table.getChannel("Tail")] = -1;
+        long updated = table.decode(1024, new byte[] { 0x12, 0x34, 0x0f, (byte) 0xff }, 4, values);
+        assertEquals(3L << (SignalTable.KILOWATTS + 1), updated);
+        assertEquals(-1, values[table.getChannel("Tail")], 0);
+    }
+
+    @Test
+    public void decodesExtendedIds() {
+        int id = 0x18ff50e5 | SlcanDecoder.EXTENDED_ID_FLAG;
+        assertTrue(table.isKnownId(id));
+        table.decode(id, new byte[] { (byte) 0xe4, 0x0c }, 2, values);
+        assertEquals(3.300f, values[table.getChannel("CellVolts")], 0.0001f);
+
+        // the same number as a standard id, and an unknown extended id
+        assertFalse(table.isKnownId(0x0e5));
+        assertEquals(0, table.decode(0x18ff50e6 | SlcanDecoder.EXTENDED_ID_FLAG, new byte[8], 8, values));
+    }
+
+    @Test
+    public void rejectsMalformedDefinitions() {
+        String[] malformed = {
+                "BO_ 99999999999999999999 Huge: 8 Controller",
+                "BO_ 4294967296 Wide: 8 Controller",
+                "BO_ 2048 Standard: 8 Controller",
+                "BO_ 768 Status: 8 Controller\n SG_ Volts : 99999999999|16@1+ (0.1,0) [0|0] \"\" Speedo",
+                "BO_ 768 Status: 8 Controller\n SG_ Volts : 0|99999999999@1+ (0.1,0) [0|0] \"\" Speedo",
+                "BO_ 768 Status: 8 Controller\n SG_ Volts : 0|16@1+ (x,0) [0|0] \"\" Speedo",
+                "BO_ 768 Status: 8 Controller\n SG_ Volts : 60|8@1+ (1,0) [0|0] \"\" Speedo",
+                "BO_ 768 Status: 8 Controller\n SG_ Volts : 64|8@1+ (1,0) [0|0] \"\" Speedo",
+                " SG_ Orphan : 0|8@1+ (1,0) [0|0] \"\" Speedo",
+                "BO_ 768 A: 8 C\n SG_ X : 0|8@1+ (1,0) [0|0] \"\" S\nBO_ 768 B: 8 C\n SG_ Y : 0|8@1+ (1,0) [0|0] \"\" S" };
+        for (String definitions : malformed) {
+            try {
+                load("VERSION \"\"\n" + definitions + "\n");
+                fail("Accepted " + definitions);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void numberErrorsNameTheLine() {
+        try {
+            load("VERSION \"\"\n\nBO_ 99999999999999999999 Huge: 8 Controller\n");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("line 3"));
+        }
+    }
+
+    private static SignalTable load(String definitions) throws IOException {
+        return SignalTable.load(new ByteArrayInputStream(definitions.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,236 @@
+package com.speedo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlcanDecoderTest {
+
+    private final List<Frame> frames = new ArrayList<Frame>();
+
+    private final SlcanDecoder decoder = new SlcanDecoder(new SlcanDecoder.FrameListener() {
+        @Override
+        public void onFrame(int id, byte[] data, int length, long timestampNanos) {
+            frames.add(new Frame(id, Arrays.copyOf(data, length), timestampNanos));
+        }
+    });
+
+    @Test
+    public void decodesStandardFrame() {
+        feed("t3008E204A00F00000000\r", 7);
+        assertEquals(1, frames.size());
+        assertEquals(0x300, frames.get(0).id);
+        assertArrayEquals(bytes(0xe2, 0x04, 0xa0, 0x0f, 0, 0, 0, 0), frames.get(0).data);
+        assertEquals(7, frames.get(0).timestampNanos);
+        assertEquals(1, decoder.getFramesDecoded());
+        assertEquals(0, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void decodesExtendedFrame() {
+        feed("T1ABCDEF02beef\r", 0);
+        assertEquals(1, frames.size());
+        assertEquals(0x1abcdef0 | SlcanDecoder.EXTENDED_ID_FLAG, frames.get(0).id);
+        assertArrayEquals(bytes(0xbe, 0xef), frames.get(0).data);
+    }
+
+    @Test
+    public void decodesRemoteFramesWithoutData() {
+        feed("r1232\rR000001236\r", 0);
+        assertEquals(2, frames.size());
+        assertEquals(0x123, frames.get(0).id);
+        assertEquals(0, frames.get(0).data.length);
+        assertEquals(0x123 | SlcanDecoder.EXTENDED_ID_FLAG, frames.get(1).id);
+        assertEquals(0, frames.get(1).data.length);
+    }
+
+    @Test
+    public void acceptsRelayTimestamp() {
+        feed("t30120102ABCD\r", 0);
+        assertEquals(1, frames.size());
+        assertArrayEquals(bytes(0x01, 0x02), frames.get(0).data);
+        assertEquals(0, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void joinsLinesSplitAcrossReads() {
+        String stream = "t30020102\rt3011AA\nT123456783112233\r";
+        // every split point, including between \r and the next frame
+        for (int split = 0; split <= stream.length(); split++) {
+            frames.clear();
+            decoder.reset();
+            feed(stream.substring(0, split), 1);
+            feed(stream.substring(split), 2);
+            assertEquals("split at " + split, 3, frames.size());
+            assertEquals(0x300, frames.get(0).id);
+            assertEquals(0x301, frames.get(1).id);
+            assertArrayEquals(bytes(0xaa), frames.get(1).data);
+            assertEquals(0x12345678 | SlcanDecoder.EXTENDED_ID_FLAG, frames.get(2).id);
+            assertArrayEquals(bytes(0x11, 0x22, 0x33), frames.get(2).data);
+        }
+    }
+
+    @Test
+    public void resetDropsPartialLine() {
+        feed("t3002AB", 0);
+        decoder.reset();
+        feed("t3011CD\r", 0);
+        assertEquals(1, frames.size());
+        assertEquals(0x301, frames.get(0).id);
+        assertEquals(0, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void ignoresAcksAndEmptyLines() {
+        feed("z\rZ\r\r\n\n", 0);
+        assertEquals(0, frames.size());
+        assertEquals(0, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void countsMalformedFrames() {
+        String[] bad = {
+                "x300100",                      // unknown frame type
+                "t30",                          // truncated id
+                "t3G01AA",                      // bad id digit
+                "t8001AA",                      // standard id over 0x7ff
+                "T2000000001AA",                // extended id over 0x1fffffff
+                "t3009",                        // length over 8
+                "t3002AA",                      // fewer data digits than length
+                "t3001AABB",                    // more data digits than length, not a timestamp
+                "t3001AG",                      // bad data digit
+                "t3008000000000000000000000000000", // longer than any frame
+        };
+        for (String line : bad) {
+            feed(line + "\r", 0);
+        }
+        assertEquals(0, frames.size());
+        assertEquals(bad.length, decoder.getMalformedFrames());
+
+        // and decoding carries on afterwards
+        feed("t3001AA\r", 0);
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void readStampsFramesWithReadTime() throws IOException {
+        long before = System.nanoTime();
+        ByteArrayInputStream in = new ByteArrayInputStream("t3001AA\r".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(8, decoder.read(in));
+        assertEquals(1, frames.size());
+        assertEquals(decoder.getReadNanos(), frames.get(0).timestampNanos);
+        assertTrue(frames.get(0).timestampNanos >= before);
+        assertEquals(-1, decoder.read(in));
+    }
+
+    @Test
+    public void decodingDoesNotAllocate() {
+        byte[] stream = stream(1024);
+        SlcanDecoder counting = new SlcanDecoder(new CountingListener());
+        // warm up so the loop is compiled before measuring
+        for (int i = 0; i < 2000; i++) {
+            counting.feed(stream, 0, stream.length, i);
+        }
+
+        int rounds = 200;
+        long start = Allocations.current();
+        for (int i = 0; i < rounds; i++) {
+            counting.feed(stream, 0, stream.length, i);
+        }
+        long allocated = Allocations.current() - start;
+
+        assertEquals(0, counting.getMalformedFrames());
+        assertTrue(allocated + " bytes allocated decoding " + rounds * 1024 + " frames",
+                allocated < Allocations.NOISE_BYTES);
+    }
+
+    @Test
+    public void decodesOverTenThousandFramesPerSecond() {
+        byte[] stream = stream(1024);
+        CountingListener listener = new CountingListener();
+        SlcanDecoder counting = new SlcanDecoder(listener);
+        for (int i = 0; i < 1000; i++) {
+            counting.feed(stream, 0, stream.length, i);
+        }
+
+        int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            counting.feed(stream, 0, stream.length, i);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double framesPerSecond = rounds * 1024 / seconds;
+
+        assertTrue(listener.idSum != 0);
+        assertTrue(String.format("%.0f frames/s", framesPerSecond), framesPerSecond > 10000);
+    }
+
+    /**
+     * A stream of standard and extended frames of every length, some with timestamps.
+     */
+    private static byte[] stream(int frameCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < frameCount; i++) {
+            int length = i % 9;
+            if (i % 4 == 3) {
+                text.append('T').append(String.format("%08X", 0x18000000 + i));
+            } else {
+                text.append('t').append(String.format("%03X", i & 0x7ff));
+            }
+            text.append(length);
+            for (int j = 0; j < length; j++) {
+                text.append(String.format("%02x", (i + j) & 0xff));
+            }
+            if (i % 2 == 0) {
+                text.append(String.format("%04X", i & 0xffff));
+            }
+            text.append('\r');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void feed(String text, long timestampNanos) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        decoder.feed(bytes, 0, bytes.length, timestampNanos);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static class Frame {
+
+        final int id;
+        final byte[] data;
+        final long timestampNanos;
+
+        Frame(int id, byte[] data, long timestampNanos) {
+            this.id = id;
+            this.data = data;
+            this.timestampNanos = timestampNanos;
+        }
+    }
+
+    private static class CountingListener implements SlcanDecoder.FrameListener {
+
+        long idSum;
+
+        @Override
+        public void onFrame(int id, byte[] data, int length, long timestampNanos) {
+            idSum += id + length + data[0];
+        }
+    }
+}
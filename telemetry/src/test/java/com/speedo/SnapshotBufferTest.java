@@ -0,0 +1,125 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SnapshotBufferTest {
+
+    private static final int CHANNELS = 32;
+
+    // generations the stress test writes, small enough to be exact as floats
+    private static final int GENERATIONS = 2000000;
+
+    @Test
+    public void readsNothingBeforeFirstPublish() {
+        SnapshotBuffer buffer = new SnapshotBuffer(CHANNELS);
+        assertFalse(buffer.hasUpdate());
+        assertEquals(0, buffer.read().sequence);
+    }
+
+    @Test
+    public void readsLatestPublish() {
+        SnapshotBuffer buffer = new SnapshotBuffer(CHANNELS);
+        for (int generation = 1; generation <= 3; generation++) {
+            write(buffer, generation);
+        }
+        assertTrue(buffer.hasUpdate());
+        TelemetrySnapshot snapshot = buffer.read();
+        assertEquals(3, snapshot.sequence);
+        assertConsistent(snapshot);
+        assertFalse(buffer.hasUpdate());
+
+        // no newer publish, so the same snapshot again
+        assertEquals(3, buffer.read().sequence);
+    }
+
+    /**
+     * One thread publishes snapshots with its generation in every field as fast as it can while
+     * another reads them, checking each read holds a single generation, never goes backwards,
+     * and doesn't change until the next read.
+     */
+    @Test
+    public void readerNeverSeesMixedGenerations() throws InterruptedException {
+        final SnapshotBuffer buffer = new SnapshotBuffer(CHANNELS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int generation = 1; generation <= GENERATIONS && failure.get() == null; generation++) {
+                    write(buffer, generation);
+                }
+            }
+        }, "writer");
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long last = 0;
+                    long reads = 0;
+                    while (last < GENERATIONS) {
+                        TelemetrySnapshot snapshot = buffer.read();
+                        assertConsistent(snapshot);
+                        assertTrue("sequence went from " + last + " to " + snapshot.sequence,
+                                snapshot.sequence >= last);
+                        last = snapshot.sequence;
+                        // held snapshot must not be touched by the writer meanwhile
+                        if (++reads % 16 == 0) {
+                            Thread.yield();
+                            assertConsistent(snapshot);
+                            assertEquals(last, snapshot.sequence);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        }, "reader");
+
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join(60000);
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        if (reader.isAlive()) {
+            reader.interrupt();
+            fail("reader never saw the last generation");
+        }
+    }
+
+    private static void write(SnapshotBuffer buffer, int generation) {
+        TelemetrySnapshot snapshot = buffer.beginWrite();
+        for (int i = 0; i < snapshot.values.length; i++) {
+            snapshot.values[i] = generation;
+        }
+        snapshot.timestampNanos = generation;
+        snapshot.publishNanos = generation;
+        buffer.publish();
+    }
+
+    /**
+     * Check every field of a snapshot was written by the publish that set its sequence.
+     */
+    private static void assertConsistent(TelemetrySnapshot snapshot) {
+        long generation = snapshot.sequence;
+        if (generation == 0) {
+            return;
+        }
+        assertEquals(generation, snapshot.timestampNanos);
+        assertEquals(generation, snapshot.publishNanos);
+        for (int i = 0; i < snapshot.values.length; i++) {
+            if (snapshot.values[i] != generation) {
+                fail("snapshot " + generation + " channel " + i + " holds " + snapshot.values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StateOfChargeEstimatorTest {
+
+    private static final int CELLS = 36;
+
+    // 10 samples a second
+    private static final long STEP_NANOS = 100 * 1000000L;
+
+    private static final long MINUTE_NANOS = 60 * 1000000000L;
+
+    private final StateOfChargeEstimator estimator =
+            new StateOfChargeEstimator(100, CELLS, StateOfChargeEstimator.Chemistry.LIFEPO4);
+
+    private long now = 1000000000L;
+
+    @Test
+    public void seedsFromRestingVoltage() {
+        add(3.30f * CELLS, 0);
+        assertTrue(estimator.hasEstimate());
+        assertEquals(80, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void waitsForVoltsWhenTheyArriveAfterAmps() {
+        // amps decoded, volts still 0 since they come in another message
+        add(0, 0);
+        assertFalse(estimator.hasEstimate());
+        add(3.30f * CELLS, 0);
+        assertEquals(80, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void doesNotSeedFromSaggingVoltageUnderLoad() {
+        // 3.22 V per cell under 100 A would read as 30%
+        for (int i = 0; i < 100; i++) {
+            add(3.22f * CELLS, 100);
+        }
+        assertFalse(estimator.hasEstimate());
+
+        add(3.30f * CELLS, 0);
+        assertEquals(80, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void restartUnderLoadContinuesFromSavedEstimate() {
+        estimator.restore(72.5, MINUTE_NANOS / 6);
+        add(3.22f * CELLS, 100);
+        assertTrue(estimator.hasEstimate());
+        assertEquals(72.5, estimator.getStateOfCharge(), 0.01);
+
+        // 100 A for a minute out of 100 Ah is 1/60 of the pack
+        for (int i = 0; i < 600; i++) {
+            add(3.22f * CELLS, 100);
+        }
+        assertEquals(72.5 - 100.0 / 60, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void recentSaveWinsOverRestingVoltage() {
+        estimator.restore(72.5, MINUTE_NANOS / 6);
+        add(3.30f * CELLS, 0);
+        assertEquals(72.5, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void restingVoltageWinsOverOldSave() {
+        // e.g. charged with the app off
+        estimator.restore(40, 60 * MINUTE_NANOS);
+        add(3.30f * CELLS, 0);
+        assertEquals(80, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void oldSaveUsedWhenStartedUnderLoad() {
+        estimator.restore(40, 60 * MINUTE_NANOS);
+        add(3.22f * CELLS, 100);
+        assertEquals(40, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void restoredEstimateShownBeforeFirstSample() {
+        assertEquals(100, estimator.getStateOfCharge(), 0.01);
+        estimator.restore(20, MINUTE_NANOS);
+        assertFalse(estimator.hasEstimate());
+        assertEquals(20, estimator.getStateOfCharge(), 0.01);
+    }
+
+    @Test
+    public void missingVoltsDontPullRestingEstimate() {
+        add(3.30f * CELLS, 0);
+        // at rest long enough for corrections, but volts dropped out
+        for (int i = 0; i < 30 * 60 * 10; i++) {
+            add(0, 0);
+        }
+        assertEquals(80, estimator.getStateOfCharge(), 0.01);
+    }
+
+    private void add(float volts, float amps) {
+        now += STEP_NANOS;
+        estimator.addSample(now, volts, amps);
+    }
+}
@@ -0,0 +1,82 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeSeriesStoreTest {
+
+    // 100 samples a second
+    private static final long STEP_NANOS = 10 * 1000000L;
+
+    private static final long SECOND_NANOS = 1000000000L;
+
+    private static final int MAX_POINTS = 300;
+
+    private final TimeSeriesStore store = new TimeSeriesStore(new int[] { 0 });
+
+    private final long[] times = new long[MAX_POINTS];
+    private final float[][] min = new float[1][MAX_POINTS];
+    private final float[][] max = new float[1][MAX_POINTS];
+    private final float[][] mean = new float[1][MAX_POINTS];
+
+    private final long startNanos = 1000 * SECOND_NANOS;
+    private long endNanos;
+
+    @Test
+    public void spanWithinHistoryFillsTheGraph() {
+        record(5 * 60);
+        int count = query(60);
+        assertTrue("points: " + count, count > MAX_POINTS / 2);
+        assertTrue(times[0] - (endNanos - 60 * SECOND_NANOS) < SECOND_NANOS);
+    }
+
+    @Test
+    public void spanLongerThanHistoryShowsAllOfIt() {
+        // 5 minutes has wrapped the raw and 10 ms tiers, but not the coarser ones
+        record(5 * 60);
+        for (int seconds : new int[] { 600, 3600 }) {
+            int count = query(seconds);
+            assertTrue(seconds + " s points: " + count, count > MAX_POINTS / 2);
+            assertTrue(times[0] - startNanos < SECOND_NANOS);
+            assertTrue(endNanos - times[count - 1] < SECOND_NANOS);
+            assertEquals(0, min[0][0], 0.01);
+            assertEquals(5 * 60, max[0][count - 1], 0.1);
+        }
+    }
+
+    @Test
+    public void summarizesSpanLongerThanHistory() {
+        record(5 * 60);
+        float[] lo = new float[1];
+        float[] hi = new float[1];
+        float[] avg = new float[1];
+        assertTrue(store.summarize(endNanos - 3600 * SECOND_NANOS, endNanos + 1, lo, hi, avg) > 0);
+        assertEquals(0, lo[0], 0.01);
+        assertEquals(5 * 60, hi[0], 0.1);
+    }
+
+    @Test
+    public void emptyStoreReturnsNothing() {
+        endNanos = startNanos;
+        assertEquals(0, query(60));
+    }
+
+    /**
+     * Add a ramp of the seconds since the start, at 100 Hz.
+     */
+    private void record(int seconds) {
+        float[] values = new float[1];
+        long samples = seconds * SECOND_NANOS / STEP_NANOS;
+        for (long i = 0; i <= samples; i++) {
+            endNanos = startNanos + i * STEP_NANOS;
+            values[0] = (float) (i * STEP_NANOS) / SECOND_NANOS;
+            store.add(endNanos, values);
+        }
+    }
+
+    private int query(int seconds) {
+        return store.query(endNanos - seconds * SECOND_NANOS, endNanos, MAX_POINTS, times, min, max, mean);
+    }
+}
@@ -0,0 +1,223 @@
+package com.speedo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TripRecorderTest {
+
+    private static final String[] CHANNELS = { "Volts", "Amps" };
+
+    // 100 samples a second
+    private static final long STEP_NANOS = 10 * 1000000L;
+
+    // smallest segment the recorder accepts is about 70 KB
+    private static final int SEGMENT_BYTES = 128 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final long startNanos = System.nanoTime();
+    private final float[] values = new float[CHANNELS.length];
+
+    @Test
+    public void readsBackWhatWasRecorded() throws IOException {
+        File dir = folder.newFolder("trips");
+        TripRecorder recorder = new TripRecorder(dir, CHANNELS, SEGMENT_BYTES, 4);
+        recorder.open();
+        record(recorder, 0, 1000);
+        recorder.close();
+
+        File[] segments = segments(dir);
+        assertEquals(1, segments.length);
+        List<float[]> records = read(segments[0]);
+        assertEquals(1000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i)[0], 0);
+            assertEquals(-(i + 1), records.get(i)[1], 0);
+        }
+        // trimmed to what was used
+        assertTrue(segments[0].length() < SEGMENT_BYTES);
+    }
+
+    @Test
+    public void rotatesAndKeepsTheNewestSegments() throws IOException {
+        File dir = folder.newFolder("trips");
+        TripRecorder recorder = new TripRecorder(dir, CHANNELS, SEGMENT_BYTES, 2);
+        recorder.open();
+        // several segments' worth
+        record(recorder, 0, 50000);
+        recorder.close();
+
+        File[] segments = segments(dir);
+        assertEquals(2, segments.length);
+        List<float[]> older = read(segments[0]);
+        List<float[]> newer = read(segments[1]);
+        assertTrue(older.size() > 0 && newer.size() > 0);
+
+        // each segment decodes on its own, and together they end with the last sample
+        assertEquals(older.get(older.size() - 1)[0] + 1, newer.get(0)[0], 0);
+        assertEquals(50000, newer.get(newer.size() - 1)[0], 0);
+        assertEquals(-50000, newer.get(newer.size() - 1)[1], 0);
+        for (File segment : segments) {
+            assertTrue(segment.length() <= SEGMENT_BYTES);
+        }
+    }
+
+    @Test
+    public void recoversSegmentWithDamagedLastBlock() throws IOException {
+        File crashed = crashAfter(1000);
+        int committed = read(crashed).size();
+        assertTrue(committed > 0 && committed < 1000);
+
+        // flip a payload byte of the last committed block, as a torn write would
+        int lastBlock = blockOffsets(crashed).get(blockOffsets(crashed).size() - 1);
+        RandomAccessFile raf = new RandomAccessFile(crashed, "rw");
+        try {
+            raf.seek(lastBlock + 8);
+            int b = raf.read();
+            raf.seek(lastBlock + 8);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        reopen(crashed.getParentFile());
+        List<float[]> records = read(crashed);
+        assertTrue(records.size() > 0 && records.size() < committed);
+        assertEquals(records.size(), records.get(records.size() - 1)[0], 0);
+        // truncated after the last intact block and an end marker
+        assertEquals(lastBlock + 4, crashed.length());
+    }
+
+    @Test
+    public void recoversSegmentWithTornBlockHeader() throws IOException {
+        File crashed = crashAfter(1000);
+        int committed = read(crashed).size();
+        List<Integer> blocks = blockOffsets(crashed);
+        int end = blocks.get(blocks.size() - 1) + 8 + blockLength(crashed, blocks.get(blocks.size() - 1));
+
+        // a length written where the end marker was, its payload never made it
+        RandomAccessFile raf = new RandomAccessFile(crashed, "rw");
+        try {
+            raf.seek(end);
+            raf.writeInt(3000);
+        } finally {
+            raf.close();
+        }
+
+        reopen(crashed.getParentFile());
+        assertEquals(committed, read(crashed).size());
+        assertEquals(end + 4, crashed.length());
+    }
+
+    /**
+     * Record samples without closing the recorder, and copy its segment as a crash would
+     * leave it: full size, the blocks committed so far, and no pending block.
+     */
+    private File crashAfter(int samples) throws IOException {
+        File dir = folder.newFolder("trips");
+        TripRecorder recorder = new TripRecorder(dir, CHANNELS, SEGMENT_BYTES, 4);
+        recorder.open();
+        record(recorder, 0, samples);
+
+        File crashedDir = folder.newFolder("crashed");
+        File crashed = new File(crashedDir, segments(dir)[0].getName());
+        copy(segments(dir)[0], crashed);
+        recorder.close();
+        assertEquals(SEGMENT_BYTES, crashed.length());
+        return crashed;
+    }
+
+    private void reopen(File dir) throws IOException {
+        TripRecorder recorder = new TripRecorder(dir, CHANNELS, SEGMENT_BYTES, 4);
+        recorder.open();
+        recorder.close();
+    }
+
+    private void record(TripRecorder recorder, int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            // never 0, which a segment's first record would leave out as unchanged
+            values[0] = i + 1;
+            values[1] = -(i + 1);
+            recorder.append(startNanos + i * STEP_NANOS, values, 3);
+        }
+    }
+
+    private static List<float[]> read(File segment) throws IOException {
+        final List<float[]> records = new ArrayList<float[]>();
+        TripRecorder.read(segment, new TripRecorder.RecordListener() {
+            @Override
+            public void onRecord(String[] channelNames, long startMillis, long micros, float[] values, long changed) {
+                assertEquals(Arrays.asList(CHANNELS), Arrays.asList(channelNames));
+                records.add(values.clone());
+            }
+        });
+        return records;
+    }
+
+    private static File[] segments(File dir) {
+        File[] segments = dir.listFiles();
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Offsets of the blocks of a segment, up to its end marker.
+     */
+    private static List<Integer> blockOffsets(File segment) throws IOException {
+        int pos = 4 + 1 + 1 + 8;
+        for (String name : CHANNELS) {
+            pos += 1 + name.getBytes("UTF-8").length;
+        }
+        List<Integer> offsets = new ArrayList<Integer>();
+        int length;
+        while ((length = blockLength(segment, pos)) > 0) {
+            offsets.add(pos);
+            pos += 8 + length;
+        }
+        return offsets;
+    }
+
+    private static int blockLength(File segment, int offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "r");
+        try {
+            raf.seek(offset);
+            return raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}